@@ -14,8 +14,11 @@ import java.io.*;
 import java.lang.reflect.Method;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.framework.internal.core.BundleHost;
+import org.eclipse.osgi.internal.loader.*;
 import org.eclipse.osgi.service.resolver.*;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.*;
@@ -363,6 +366,105 @@ public class ClassLoadingBundleTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testClassNotFoundCacheFragmentAttach() throws Exception {
+		Bundle hostA = installer.installBundle("fragment.test.attach.host.a"); //$NON-NLS-1$
+		Bundle chainD = installer.installBundle("chain.test.d"); //$NON-NLS-1$
+		assertTrue("Host resolve", installer.resolveBundles(new Bundle[] {hostA, chainD})); //$NON-NLS-1$
+
+		// make sure class loader for hostA is initialized
+		hostA.loadClass("fragment.test.attach.host.a.internal.test.PackageAccessTest"); //$NON-NLS-1$
+		ClassNotFoundCache hostCache = getClassNotFoundCache(hostA);
+		assertNotNull("No class not found cache for host", hostCache); //$NON-NLS-1$
+		assertClassNotFound(hostA, "fragment.test.attach.frag.b.Test"); //$NON-NLS-1$
+		long hostMisses = hostCache.getMisses();
+		long hostHits = hostCache.getHits();
+		// a second failure must be answered by the cache
+		assertClassNotFound(hostA, "fragment.test.attach.frag.b.Test"); //$NON-NLS-1$
+		assertEquals("Wrong host hits", hostHits + 1, hostCache.getHits()); //$NON-NLS-1$
+		assertEquals("Wrong host misses", hostMisses, hostCache.getMisses()); //$NON-NLS-1$
+
+		assertClassNotFound(chainD, "chain.test.d.DoesNotExist"); //$NON-NLS-1$
+		ClassNotFoundCache chainCache = getClassNotFoundCache(chainD);
+		long chainHits = chainCache.getHits();
+
+		Bundle fragB = installer.installBundle("fragment.test.attach.frag.b"); //$NON-NLS-1$
+		assertTrue("Frag resolve", installer.resolveBundles(new Bundle[] {fragB})); //$NON-NLS-1$
+		// the fragment attach changes the wiring generation of the host; the cache must be missed
+		try {
+			hostA.loadClass("fragment.test.attach.frag.b.Test"); //$NON-NLS-1$
+		} catch (ClassNotFoundException e) {
+			fail("Unexpected class loading exception after fragment attach", e); //$NON-NLS-1$
+		}
+		assertEquals("Wrong host hits after attach", hostHits + 1, hostCache.getHits()); //$NON-NLS-1$
+		assertEquals("Wrong host misses after attach", hostMisses + 1, hostCache.getMisses()); //$NON-NLS-1$
+
+		// the wiring generation of unrelated bundles must not change
+		assertClassNotFound(chainD, "chain.test.d.DoesNotExist"); //$NON-NLS-1$
+		assertEquals("Wrong unrelated hits after attach", chainHits + 1, chainCache.getHits()); //$NON-NLS-1$
+	}
+
+	private ClassNotFoundCache getClassNotFoundCache(Bundle bundle) {
+		return ((BundleHost) bundle).getLoaderProxy().getBasicBundleLoader().getClassNotFoundCache();
+	}
+
+	private void assertClassNotFound(Bundle bundle, String classname) {
+		try {
+			bundle.loadClass(classname);
+			fail("Should not be able to load class: " + classname); //$NON-NLS-1$
+		} catch (ClassNotFoundException e) {
+			// expected
+		}
+	}
+
+	public void testRequiredSourcesConcurrentAccess() throws Exception {
+		final Bundle a = installer.installBundle("substitutes.a"); //$NON-NLS-1$
+		final Bundle c = installer.installBundle("substitutes.c"); //$NON-NLS-1$
+		assertTrue("Bundles should resolve", installer.resolveBundles(new Bundle[] {a, c})); //$NON-NLS-1$
+		final Class<?> ax = a.loadClass("substitutes.x.Ax"); //$NON-NLS-1$
+		final Class<?> ay = a.loadClass("substitutes.y.Ay"); //$NON-NLS-1$
+		final BundleLoader loader = ((BundleHost) c).getLoaderProxy().getBundleLoader();
+
+		int numThreads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final PackageSource[][] sources = new PackageSource[numThreads][];
+		final Throwable[] errors = new Throwable[numThreads];
+		Thread[] threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						for (int j = 0; j < 100; j++) {
+							assertSame("Wrong class", ax, c.loadClass("substitutes.x.Ax")); //$NON-NLS-1$ //$NON-NLS-2$
+							assertSame("Wrong class", ay, c.loadClass("substitutes.y.Ay")); //$NON-NLS-1$ //$NON-NLS-2$
+							assertClassNotFound(c, "substitutes.z.Missing" + (j % 10)); //$NON-NLS-1$
+							assertClassNotFound(c, "substitutes.missing" + j + ".Missing"); //$NON-NLS-1$ //$NON-NLS-2$
+						}
+						sources[index] = new PackageSource[] {loader.getPackageSource("substitutes.x"), loader.getPackageSource("substitutes.y"), loader.getPackageSource("substitutes.z")}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					} catch (Throwable t) {
+						errors[index] = t;
+					}
+				}
+			}, "RequiredSources-" + i); //$NON-NLS-1$
+			threads[i].start();
+		}
+		start.countDown();
+		for (int i = 0; i < numThreads; i++)
+			threads[i].join(60000);
+		for (int i = 0; i < numThreads; i++) {
+			if (errors[i] != null)
+				fail("Error in thread " + i, errors[i]); //$NON-NLS-1$
+			assertNotNull("Thread did not finish: " + i, sources[i]); //$NON-NLS-1$
+			// all threads must see the single source published for each package
+			assertNotNull("No source for substitutes.x", sources[i][0]); //$NON-NLS-1$
+			assertSame("Different source for substitutes.x", sources[0][0], sources[i][0]); //$NON-NLS-1$
+			assertNotNull("No source for substitutes.y", sources[i][1]); //$NON-NLS-1$
+			assertSame("Different source for substitutes.y", sources[0][1], sources[i][1]); //$NON-NLS-1$
+			assertNull("Unexpected source for substitutes.z", sources[i][2]); //$NON-NLS-1$
+		}
+	}
+
 	public void testLegacyLazyStart() throws Exception {
 		Bundle legacy = installer.installBundle("legacy.lazystart"); //$NON-NLS-1$
 		Bundle legacyA = installer.installBundle("legacy.lazystart.a"); //$NON-NLS-1$
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2012 IBM Corporation and others.
+ * Copyright (c) 2008, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,11 +14,15 @@ import java.io.*;
 import java.net.*;
 import java.security.PrivilegedAction;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.baseadaptor.bundlefile.*;
 import org.eclipse.osgi.launch.Equinox;
 import org.eclipse.osgi.service.datalocation.Location;
+import org.eclipse.osgi.storagemanager.StorageManager;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.*;
 import org.osgi.framework.hooks.resolver.ResolverHook;
@@ -930,6 +934,109 @@ public class SystemBundleTests extends AbstractBundleTests {
 		doMRUBundleFileList(10);
 	}
 
+	public void testMRUBundleFileListConcurrentAccess() throws InterruptedException {
+		final int limit = 10;
+		final MRUBundleFileList mruList = new MRUBundleFileList(limit);
+		final MRUTestBundleFile[] bundleFiles = new MRUTestBundleFile[limit * 5];
+		for (int i = 0; i < bundleFiles.length; i++)
+			bundleFiles[i] = new MRUTestBundleFile(new File("mru" + i), mruList); //$NON-NLS-1$
+		final int numThreads = 8;
+		final int numOpens = 2000;
+		final String[] errors = new String[numThreads];
+		Thread[] threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					Random random = new Random(index);
+					for (int j = 0; j < numOpens && errors[index] == null; j++) {
+						MRUTestBundleFile bundleFile = bundleFiles[random.nextInt(bundleFiles.length)];
+						if (random.nextInt(4) == 0)
+							bundleFile.close();
+						else
+							bundleFile.open();
+						int open = mruList.getOpenCount();
+						if (open > limit)
+							errors[index] = "Too many open bundle files: " + open; //$NON-NLS-1$
+					}
+				}
+			}, "MRU-" + i); //$NON-NLS-1$
+			threads[i].start();
+		}
+		for (int i = 0; i < numThreads; i++)
+			threads[i].join(60000);
+		for (int i = 0; i < numThreads; i++)
+			assertNull(errors[i], errors[i]);
+
+		long numOpened = 0;
+		for (int i = 0; i < bundleFiles.length; i++)
+			numOpened += bundleFiles[i].getOpenCount();
+		assertEquals("Wrong add count", numOpened, mruList.getAddCount()); //$NON-NLS-1$
+		assertTrue("No bundle files were evicted", mruList.getEvictionCount() > 0); //$NON-NLS-1$
+		assertTrue("Too many open bundle files: " + mruList.getOpenCount(), mruList.getOpenCount() <= limit); //$NON-NLS-1$
+		// closing all bundle files must release all slots
+		for (int i = 0; i < bundleFiles.length; i++)
+			bundleFiles[i].close();
+		assertEquals("Wrong open count after close", 0, mruList.getOpenCount()); //$NON-NLS-1$
+		// all slots must be usable again
+		for (int i = 0; i < limit; i++)
+			bundleFiles[i].open();
+		assertEquals("Wrong open count after reopen", limit, mruList.getOpenCount()); //$NON-NLS-1$
+		mruList.shutdown();
+	}
+
+	/**
+	 * A bundle file which only tracks whether it is open; it behaves
+	 * like a ZipBundleFile with respect to the MRU list.
+	 */
+	static class MRUTestBundleFile extends BundleFile {
+		private final MRUBundleFileList mruList;
+		private boolean isOpen = false;
+		private int openCount = 0;
+
+		MRUTestBundleFile(File basefile, MRUBundleFileList mruList) {
+			super(basefile);
+			this.mruList = mruList;
+		}
+
+		public synchronized void open() {
+			if (isOpen) {
+				mruList.use(this);
+				return;
+			}
+			mruList.add(this);
+			isOpen = true;
+			openCount++;
+		}
+
+		public synchronized void close() {
+			if (!isOpen)
+				return;
+			isOpen = false;
+			mruList.remove(this);
+		}
+
+		synchronized int getOpenCount() {
+			return openCount;
+		}
+
+		public File getFile(String path, boolean nativeCode) {
+			return null;
+		}
+
+		public BundleEntry getEntry(String path) {
+			return null;
+		}
+
+		public Enumeration<String> getEntryPaths(String path) {
+			return null;
+		}
+
+		public boolean containsDir(String dir) {
+			return false;
+		}
+	}
+
 	//	public void testMRUBundleFileListExpectedToFail() {
 	//		doMRUBundleFileList(0);
 	//	}
@@ -1037,6 +1144,396 @@ public class SystemBundleTests extends AbstractBundleTests {
 		assertEquals("Wrong state for SystemBundle", Bundle.RESOLVED, equinox.getState()); //$NON-NLS-1$
 	}
 
+	public void testBundleFileEntryIndex() throws IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		File bundleFile = createIndexBundle(new File(config, "bundles"), new String[] {"data/a.txt"}); //$NON-NLS-1$ //$NON-NLS-2$
+
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		Bundle bundle = null;
+		try {
+			bundle = equinox.getBundleContext().installBundle("reference:file:///" + bundleFile.getAbsolutePath()); //$NON-NLS-1$
+		} catch (BundleException e) {
+			fail("Unexpected install error", e); //$NON-NLS-1$
+		}
+		assertNotNull("Missing entry", bundle.getEntry("data/a.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNull("Unexpected entry", bundle.getEntry("data/b.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		stopFramework(equinox);
+
+		// the persisted index must not be used once the content changes
+		createIndexBundle(new File(config, "bundles"), new String[] {"data/a.txt", "data/b.txt"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		bundle = equinox.getBundleContext().getBundle(bundle.getBundleId());
+		assertNotNull("Missing entry", bundle.getEntry("data/a.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNotNull("Missing new entry", bundle.getEntry("data/b.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNull("Unexpected entry", bundle.getEntry("data/c.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		stopFramework(equinox);
+	}
+
+	public void testMappedBundleFile() throws IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put("osgi.bundlefile.mapped", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		File bundleFile = createIndexBundle(new File(config, "bundles"), new String[] {"data/a.txt", "data/sub/b.txt"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		Bundle bundle = null;
+		try {
+			bundle = equinox.getBundleContext().installBundle("reference:file:///" + bundleFile.getAbsolutePath()); //$NON-NLS-1$
+		} catch (BundleException e) {
+			fail("Unexpected install error", e); //$NON-NLS-1$
+		}
+		assertEquals("Wrong symbolic name", "bundle.index", bundle.getSymbolicName()); //$NON-NLS-1$ //$NON-NLS-2$
+		URL entry = bundle.getEntry("data/a.txt"); //$NON-NLS-1$
+		assertNotNull("Missing entry", entry); //$NON-NLS-1$
+		InputStream in = entry.openStream();
+		try {
+			assertEquals("Wrong content", "data/a.txt", new BufferedReader(new InputStreamReader(in)).readLine()); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			in.close();
+		}
+		assertNull("Unexpected entry", bundle.getEntry("data/c.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertNotNull("Missing directory", bundle.getEntry("data/sub/")); //$NON-NLS-1$ //$NON-NLS-2$
+		Enumeration<String> paths = bundle.getEntryPaths("data/"); //$NON-NLS-1$
+		assertNotNull("No entry paths", paths); //$NON-NLS-1$
+		Set<String> pathSet = new HashSet<String>(Collections.list(paths));
+		assertEquals("Wrong entry paths", new HashSet<String>(Arrays.asList(new String[] {"data/a.txt", "data/sub/"})), pathSet); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		// a stream opened before the bundle file is closed keeps the mapping until it is closed
+		in = bundle.getEntry("data/sub/b.txt").openStream(); //$NON-NLS-1$
+		try {
+			bundle.uninstall();
+		} catch (BundleException e) {
+			fail("Unexpected uninstall error", e); //$NON-NLS-1$
+		}
+		// refreshing closes the bundle file of the uninstalled bundle
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		equinox.adapt(FrameworkWiring.class).refreshBundles(null, new FrameworkListener() {
+			public void frameworkEvent(FrameworkEvent event) {
+				refreshed.countDown();
+			}
+		});
+		try {
+			assertTrue("Refresh did not finish", refreshed.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+			assertEquals("Wrong content after close", "data/sub/b.txt", new BufferedReader(new InputStreamReader(in)).readLine()); //$NON-NLS-1$ //$NON-NLS-2$
+		} catch (InterruptedException e) {
+			fail("Unexpected interrupted exception", e); //$NON-NLS-1$
+		} finally {
+			in.close();
+		}
+		// the mapping must be released so the file can be deleted
+		assertTrue("Could not delete the mapped file", bundleFile.delete()); //$NON-NLS-1$
+		stopFramework(equinox);
+	}
+
+	public void testParallelActivation() throws IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put("equinox.startlevel.parallel.threads", "4"); //$NON-NLS-1$ //$NON-NLS-2$
+		File[] testBundles = createBundles(new File(config, "bundles"), 20); //$NON-NLS-1$
+
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		for (int i = 0; i < testBundles.length; i++) {
+			try {
+				equinox.getBundleContext().installBundle("reference:file:///" + testBundles[i].getAbsolutePath()).start(); //$NON-NLS-1$
+			} catch (BundleException e) {
+				fail("Unexpected install error", e); //$NON-NLS-1$
+			}
+		}
+		stopFramework(equinox);
+
+		// the persistently started bundles are started in parallel on restart
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		// the launch order was recorded when the framework was stopped
+		File snapshot = equinox.getBundleContext().getDataFile(".launchorder"); //$NON-NLS-1$
+		assertTrue("Missing launch order snapshot", snapshot != null && snapshot.exists()); //$NON-NLS-1$
+		Bundle[] bundles = equinox.getBundleContext().getBundles();
+		assertEquals("Wrong number of bundles", testBundles.length + 1, bundles.length); //$NON-NLS-1$
+		for (int i = 0; i < bundles.length; i++)
+			assertEquals("Wrong state for: " + bundles[i], Bundle.ACTIVE, bundles[i].getState()); //$NON-NLS-1$
+		stopFramework(equinox);
+	}
+
+	public void testLaunchOrderSnapshot() throws IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		File bundlesDir = new File(config, "bundles"); //$NON-NLS-1$
+		// the importer is installed first so its bundle id orders it before the exporter
+		File importer = createOrderBundle(bundlesDir, "order.importer", null, "order.exporter", false); //$NON-NLS-1$ //$NON-NLS-2$
+		File exporter = createOrderBundle(bundlesDir, "order.exporter", "order.exporter", null, false); //$NON-NLS-1$ //$NON-NLS-2$
+		// a lazy bundle in the start-level causes the bundles to be sorted by dependency
+		File lazy = createOrderBundle(bundlesDir, "order.lazy", null, null, true); //$NON-NLS-1$
+
+		// without parallel activation no snapshot is written
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		File[] bundleFiles = new File[] {importer, exporter, lazy};
+		Bundle[] bundles = new Bundle[bundleFiles.length];
+		try {
+			for (int i = 0; i < bundleFiles.length; i++)
+				bundles[i] = equinox.getBundleContext().installBundle("reference:file:///" + bundleFiles[i].getAbsolutePath()); //$NON-NLS-1$
+			for (int i = 0; i < bundles.length; i++)
+				bundles[i].start();
+		} catch (BundleException e) {
+			fail("Unexpected install error", e); //$NON-NLS-1$
+		}
+		File snapshot = equinox.getBundleContext().getDataFile(".launchorder"); //$NON-NLS-1$
+		stopFramework(equinox);
+		assertFalse("Unexpected launch order snapshot", snapshot.exists()); //$NON-NLS-1$
+
+		// with parallel activation the launch order is recorded on shutdown
+		configuration.put("equinox.startlevel.parallel.threads", "4"); //$NON-NLS-1$ //$NON-NLS-2$
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		stopFramework(equinox);
+		assertTrue("Missing launch order snapshot", snapshot.exists()); //$NON-NLS-1$
+
+		// the recorded order starts the exporter before the importer which depends on it
+		equinox = new Equinox(configuration);
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		try {
+			equinox.init();
+			equinox.getBundleContext().addBundleListener(new SynchronousBundleListener() {
+				public void bundleChanged(BundleEvent event) {
+					if (event.getType() == BundleEvent.STARTING)
+						events.add("STARTING " + event.getBundle().getSymbolicName()); //$NON-NLS-1$
+					else if (event.getType() == BundleEvent.STARTED)
+						events.add("STARTED " + event.getBundle().getSymbolicName()); //$NON-NLS-1$
+				}
+			});
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		int exporterStarted = events.indexOf("STARTED order.exporter"); //$NON-NLS-1$
+		int importerStarting = events.indexOf("STARTING order.importer"); //$NON-NLS-1$
+		assertTrue("Exporter not started: " + events, exporterStarted >= 0); //$NON-NLS-1$
+		assertTrue("Importer not started: " + events, importerStarting >= 0); //$NON-NLS-1$
+		assertTrue("Wrong launch order: " + events, exporterStarted < importerStarting); //$NON-NLS-1$
+		stopFramework(equinox);
+	}
+
+	public void testStateJournal() throws IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put("osgi.stateJournal", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		// save synchronously on each change
+		configuration.put("eclipse.stateSaveDelayInterval", "0"); //$NON-NLS-1$ //$NON-NLS-2$
+		File[] testBundles = createBundles(new File(config, "bundles"), 10); //$NON-NLS-1$
+
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		for (int i = 0; i < testBundles.length; i++) {
+			try {
+				equinox.getBundleContext().installBundle("reference:file:///" + testBundles[i].getAbsolutePath()).start(); //$NON-NLS-1$
+			} catch (BundleException e) {
+				fail("Unexpected install error", e); //$NON-NLS-1$
+			}
+		}
+		// the changes after the first save are journaled; copy the storage as if the framework crashed
+		File crashed = OSGiTestsActivator.getContext().getDataFile(getName() + ".crashed"); //$NON-NLS-1$
+		copyDirectory(config, crashed);
+		assertTrue("Missing state journal", getStateJournalSize(crashed) > 0); //$NON-NLS-1$
+		stopFramework(equinox);
+		assertEquals("State journal not folded into the state", 0, getStateJournalSize(config)); //$NON-NLS-1$
+
+		// the journal is replayed on restart
+		configuration.put(Constants.FRAMEWORK_STORAGE, crashed.getAbsolutePath());
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		Bundle[] bundles = equinox.getBundleContext().getBundles();
+		assertEquals("Wrong number of bundles", testBundles.length + 1, bundles.length); //$NON-NLS-1$
+		for (int i = 0; i < bundles.length; i++)
+			assertEquals("Wrong state for: " + bundles[i], Bundle.ACTIVE, bundles[i].getState()); //$NON-NLS-1$
+		stopFramework(equinox);
+		assertEquals("State journal not folded into the state", 0, getStateJournalSize(crashed)); //$NON-NLS-1$
+	}
+
+	public void testStateJournalResolverHooks() throws IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		// save synchronously on each change
+		configuration.put("eclipse.stateSaveDelayInterval", "0"); //$NON-NLS-1$ //$NON-NLS-2$
+		File[] testBundles = createBundles(new File(config, "bundles"), 5); //$NON-NLS-1$
+
+		// the journal is disabled by default
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			equinox.getBundleContext().installBundle("reference:file:///" + testBundles[0].getAbsolutePath()).start(); //$NON-NLS-1$
+			equinox.getBundleContext().installBundle("reference:file:///" + testBundles[1].getAbsolutePath()).start(); //$NON-NLS-1$
+		} catch (BundleException e) {
+			fail("Unexpected error", e); //$NON-NLS-1$
+		}
+		assertEquals("Unexpected state journal", -1, getStateJournalSize(config)); //$NON-NLS-1$
+		stopFramework(equinox);
+
+		// resolutions made with resolver hooks are never journaled
+		configuration.put("osgi.stateJournal", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+		} catch (BundleException e) {
+			fail("Failed to start the framework", e); //$NON-NLS-1$
+		}
+		ServiceRegistration<ResolverHookFactory> hookReg = equinox.getBundleContext().registerService(ResolverHookFactory.class, new ResolverHookFactory() {
+			public ResolverHook begin(Collection<BundleRevision> triggers) {
+				return new ResolverHook() {
+					public void filterResolvable(Collection<BundleRevision> candidates) {
+						// nothing
+					}
+
+					public void filterSingletonCollisions(BundleCapability singleton, Collection<BundleCapability> collisionCandidates) {
+						// nothing
+					}
+
+					public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
+						// nothing
+					}
+
+					public void end() {
+						// nothing
+					}
+				};
+			}
+		}, null);
+		try {
+			equinox.getBundleContext().installBundle("reference:file:///" + testBundles[2].getAbsolutePath()).start(); //$NON-NLS-1$
+		} catch (BundleException e) {
+			fail("Unexpected install error", e); //$NON-NLS-1$
+		}
+		assertTrue("Unexpected state journal", getStateJournalSize(config) <= 0); //$NON-NLS-1$
+
+		// the journal is used again after a full save without resolver hooks
+		hookReg.unregister();
+		try {
+			equinox.getBundleContext().installBundle("reference:file:///" + testBundles[3].getAbsolutePath()).start(); //$NON-NLS-1$
+			equinox.getBundleContext().installBundle("reference:file:///" + testBundles[4].getAbsolutePath()).start(); //$NON-NLS-1$
+		} catch (BundleException e) {
+			fail("Unexpected error", e); //$NON-NLS-1$
+		}
+		assertTrue("Missing state journal", getStateJournalSize(config) > 0); //$NON-NLS-1$
+		stopFramework(equinox);
+	}
+
+	/*
+	 * Returns the size of the current state journal or -1 if the journal is not managed.
+	 */
+	private static int getStateJournalSize(File storage) throws IOException {
+		StorageManager manager = new StorageManager(new File(storage, "org.eclipse.osgi"), "none", true); //$NON-NLS-1$ //$NON-NLS-2$
+		manager.open(false);
+		try {
+			InputStream in = manager.getInputStream(".stateJournal"); //$NON-NLS-1$
+			if (in == null)
+				return -1;
+			try {
+				int size = 0;
+				while (in.read() >= 0)
+					size++;
+				return size;
+			} finally {
+				in.close();
+			}
+		} finally {
+			manager.close();
+		}
+	}
+
+	private static void copyDirectory(File source, File target) throws IOException {
+		target.mkdirs();
+		File[] files = source.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			File targetFile = new File(target, files[i].getName());
+			if (files[i].isDirectory()) {
+				copyDirectory(files[i], targetFile);
+				continue;
+			}
+			InputStream in = new FileInputStream(files[i]);
+			try {
+				OutputStream out = new FileOutputStream(targetFile);
+				try {
+					byte[] buffer = new byte[8192];
+					int len;
+					while ((len = in.read(buffer)) > 0)
+						out.write(buffer, 0, len);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private static File createIndexBundle(File outputDir, String[] entries) throws IOException {
+		outputDir.mkdirs();
+		File file = new File(outputDir, "bundle.index.jar"); //$NON-NLS-1$
+		JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), createManifest(".index", false)); //$NON-NLS-1$
+		for (int i = 0; i < entries.length; i++) {
+			jos.putNextEntry(new JarEntry(entries[i]));
+			jos.write(entries[i].getBytes());
+			jos.closeEntry();
+		}
+		jos.close();
+		return file;
+	}
+
+	private void stopFramework(Equinox equinox) {
+		try {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		} catch (Exception e) {
+			fail("Unexpected erorr stopping framework", e); //$NON-NLS-1$
+		}
+	}
+
 	private void openAllBundleFiles(BundleContext context) {
 		Bundle[] bundles = context.getBundles();
 		// get an entry from each bundle to ensure each one gets opened.
@@ -1744,6 +2241,26 @@ public class SystemBundleTests extends AbstractBundleTests {
 		return bundles;
 	}
 
+	private static File createOrderBundle(File outputDir, String bsn, String exportPackage, String importPackage, boolean lazy) throws IOException {
+		outputDir.mkdirs();
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.putValue("Manifest-Version", "1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.putValue("Bundle-ManifestVersion", "2"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.putValue("Bundle-SymbolicName", bsn); //$NON-NLS-1$
+		if (exportPackage != null)
+			attributes.putValue("Export-Package", exportPackage); //$NON-NLS-1$
+		if (importPackage != null)
+			attributes.putValue("Import-Package", importPackage); //$NON-NLS-1$
+		if (lazy)
+			attributes.putValue("Bundle-ActivationPolicy", "lazy"); //$NON-NLS-1$ //$NON-NLS-2$
+		File file = new File(outputDir, bsn + ".jar"); //$NON-NLS-1$
+		JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest);
+		jos.flush();
+		jos.close();
+		return file;
+	}
+
 	private static File createBundle(File outputDir, String id, boolean emptyManifest, boolean dirBundle) throws IOException {
 		File file = new File(outputDir, "bundle" + id + (dirBundle ? "" : ".jar")); //$NON-NLS-1$ //$NON-NLS-2$
 		if (!dirBundle) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,8 +11,10 @@
 package org.eclipse.osgi.tests.eventmgr;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import junit.framework.*;
-import org.eclipse.osgi.framework.eventmgr.CopyOnWriteIdentityMap;
+import org.eclipse.osgi.framework.eventmgr.*;
 
 public class EventManagerTests extends TestCase {
 	public static Test suite() {
@@ -421,4 +423,76 @@ public class EventManagerTests extends TestCase {
 		assertNull("value not null", el2.get(l3)); //$NON-NLS-1$
 
 	}
+
+	public void testPooledDispatch() throws InterruptedException {
+		final int events = 100;
+		final Object slow = new Object();
+		final Object fast = new Object();
+		final CountDownLatch slowBlocked = new CountDownLatch(1);
+		final CountDownLatch releaseSlow = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2 * events);
+		final List<Integer> slowReceived = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<Integer> fastReceived = Collections.synchronizedList(new ArrayList<Integer>());
+		EventDispatcher<Object, Object, Integer> dispatcher = new EventDispatcher<Object, Object, Integer>() {
+			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, Integer eventObject) {
+				if (eventListener == slow) {
+					if (eventObject.intValue() == 0) {
+						slowBlocked.countDown();
+						try {
+							releaseSlow.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					slowReceived.add(eventObject);
+				} else {
+					fastReceived.add(eventObject);
+				}
+				done.countDown();
+			}
+		};
+		CopyOnWriteIdentityMap<Object, Object> listeners = new CopyOnWriteIdentityMap<Object, Object>();
+		listeners.put(slow, slow);
+		listeners.put(fast, fast);
+
+		EventManager manager = new EventManager("Pooled Dispatch Test", null, 4); //$NON-NLS-1$
+		try {
+			for (int i = 0; i < events; i++) {
+				ListenerQueue<Object, Object, Integer> queue = new ListenerQueue<Object, Object, Integer>(manager);
+				queue.queueListeners(listeners.entrySet(), dispatcher);
+				queue.dispatchEventAsynchronous(0, new Integer(i));
+			}
+			assertTrue("Slow listener not called", slowBlocked.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+			// the fast listener must not be stalled by the slow listener
+			long timeout = System.currentTimeMillis() + 10000;
+			ListenerStatistics[] statistics = manager.getListenerStatistics();
+			while ((fastReceived.size() < events || statistics.length > 1) && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+				statistics = manager.getListenerStatistics();
+			}
+			assertEquals("Fast listener stalled", events, fastReceived.size()); //$NON-NLS-1$
+			assertEquals("Slow listener not blocked", 0, slowReceived.size()); //$NON-NLS-1$
+
+			assertEquals("Wrong number of active listeners", 1, statistics.length); //$NON-NLS-1$
+			assertSame("Wrong active listener", slow, statistics[0].getListener()); //$NON-NLS-1$
+			assertEquals("Wrong queue depth", events - 1, statistics[0].getQueueDepth()); //$NON-NLS-1$
+			assertEquals("Wrong dispatched count", 1, statistics[0].getDispatchedCount()); //$NON-NLS-1$
+
+			releaseSlow.countDown();
+			assertTrue("Events not delivered", done.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+			for (int i = 0; i < events; i++) {
+				assertEquals("Wrong order for slow listener", new Integer(i), slowReceived.get(i)); //$NON-NLS-1$
+				assertEquals("Wrong order for fast listener", new Integer(i), fastReceived.get(i)); //$NON-NLS-1$
+			}
+		} finally {
+			releaseSlow.countDown();
+			manager.close();
+		}
+		try {
+			new ListenerQueue<Object, Object, Integer>(manager).dispatchEventAsynchronous(0, new Integer(0));
+			fail("Dispatched event on closed event manager"); //$NON-NLS-1$
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
 }
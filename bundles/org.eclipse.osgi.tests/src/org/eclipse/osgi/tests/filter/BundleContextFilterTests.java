@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 IBM Corporation and others.
+ * Copyright (c) 2009, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,8 @@ package org.eclipse.osgi.tests.filter;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.framework.internal.core.BundleContextImpl;
+import org.eclipse.osgi.framework.internal.core.FilterCache;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
@@ -24,4 +26,38 @@ public class BundleContextFilterTests extends FilterTests {
 	public Filter createFilter(String filterString) throws InvalidSyntaxException {
 		return OSGiTestsActivator.getContext().createFilter(filterString);
 	}
+
+	public void testFilterCache() throws InvalidSyntaxException {
+		FilterCache cache = ((BundleContextImpl) OSGiTestsActivator.getContext()).getFramework().getFilterCache();
+		if (cache.getMaxSize() < 1)
+			return; // the cache is disabled
+		String filterString = "(&(" + getName() + "=1)(objectClass=java.lang.Runnable))"; //$NON-NLS-1$ //$NON-NLS-2$
+		Filter f1 = createFilter(filterString);
+		long hits = cache.getHits();
+		Filter f2 = createFilter(filterString);
+		assertSame("Filter not shared", f1, f2); //$NON-NLS-1$
+		assertTrue("Cache hit not counted", cache.getHits() > hits); //$NON-NLS-1$
+		assertTrue("Wrong cache size", cache.getSize() <= cache.getMaxSize()); //$NON-NLS-1$
+		assertTrue("Wrong hit ratio", cache.getHitRatio() > 0); //$NON-NLS-1$
+
+		// invalid filters are never cached
+		for (int i = 0; i < 2; i++) {
+			try {
+				createFilter("(" + getName() + "=1"); //$NON-NLS-1$ //$NON-NLS-2$
+				fail("Expected an invalid syntax exception"); //$NON-NLS-1$
+			} catch (InvalidSyntaxException e) {
+				// expected
+			}
+		}
+
+		// filling the cache evicts the least recently used filters but keeps it bounded
+		long evictions = cache.getEvictions();
+		for (int i = 0; i <= cache.getMaxSize(); i++) {
+			createFilter("(" + getName() + "=" + i + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			createFilter(filterString);
+		}
+		assertTrue("No filters evicted", cache.getEvictions() > evictions); //$NON-NLS-1$
+		assertTrue("Wrong cache size", cache.getSize() <= cache.getMaxSize()); //$NON-NLS-1$
+		assertSame("Recently used filter evicted", f1, createFilter(filterString)); //$NON-NLS-1$
+	}
 }
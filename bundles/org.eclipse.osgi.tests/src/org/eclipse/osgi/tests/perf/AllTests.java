@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2010 IBM Corporation and others.
+ * Copyright (c) 2004, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -28,6 +28,10 @@ public class AllTests extends TestSuite {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTest(StatePerformanceTest.suite());
 		suite.addTest(StateUsesPerformanceTest.suite());
+		suite.addTest(LargeStatePerformanceTest.suite());
+		suite.addTest(ClassLoadingPerformanceTest.suite());
+		suite.addTest(FilterPerformanceTest.suite());
+		suite.addTest(ServiceEventPerformanceTest.suite());
 		return suite;
 	}
 }
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.tests.harness.CoreTest;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.tests.OSGiTestsActivator;
+import org.osgi.framework.*;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Measures the contention of class loading when many threads define
+ * the same classes of many bundles at the same time.  Each measured run
+ * loads the classes of its own freshly installed bundles so that every
+ * class is defined while the threads are loading it.
+ */
+public class ClassLoadingPerformanceTest extends CoreTest {
+	private static final int BUNDLES_PER_RUN = 16;
+	private static final int CLASSES_PER_BUNDLE = 50;
+	private static final String PACKAGE_NAME = "perf.classloading"; //$NON-NLS-1$
+
+	public static Test suite() {
+		return new TestSuite(ClassLoadingPerformanceTest.class);
+	}
+
+	public ClassLoadingPerformanceTest(String name) {
+		super(name);
+	}
+
+	/*
+	 * Returns the bytes of a public class without members which extends java.lang.Object.
+	 */
+	private static byte[] createClass(String className) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); // minor version
+		out.writeShort(49); // major version
+		out.writeShort(5); // constant pool count
+		out.writeByte(1); // #1 utf8 class name
+		out.writeUTF(className.replace('.', '/'));
+		out.writeByte(7); // #2 class #1
+		out.writeShort(1);
+		out.writeByte(1); // #3 utf8 super class name
+		out.writeUTF("java/lang/Object"); //$NON-NLS-1$
+		out.writeByte(7); // #4 class #3
+		out.writeShort(3);
+		out.writeShort(0x0021); // public super
+		out.writeShort(2); // this class
+		out.writeShort(4); // super class
+		out.writeShort(0); // interfaces
+		out.writeShort(0); // fields
+		out.writeShort(0); // methods
+		out.writeShort(0); // attributes
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] createBundle(String bsn, String[] classNames) throws IOException {
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.putValue("Manifest-Version", "1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, bsn);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JarOutputStream jos = new JarOutputStream(bytes, manifest);
+		for (int i = 0; i < classNames.length; i++) {
+			jos.putNextEntry(new JarEntry(classNames[i].replace('.', '/') + ".class")); //$NON-NLS-1$
+			jos.write(createClass(classNames[i]));
+			jos.closeEntry();
+		}
+		jos.close();
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * Installs and resolves new bundles which contain the classes; none of their classes are loaded.
+	 */
+	private Bundle[] installRun(int run, String[] classNames, List<Bundle> installed) throws IOException, BundleException {
+		BundleContext context = OSGiTestsActivator.getContext();
+		Bundle[] bundles = new Bundle[BUNDLES_PER_RUN];
+		for (int i = 0; i < bundles.length; i++) {
+			String bsn = PACKAGE_NAME + '.' + getName() + '.' + run + '.' + i;
+			bundles[i] = context.installBundle(bsn, new ByteArrayInputStream(createBundle(bsn, classNames)));
+			installed.add(bundles[i]);
+		}
+		assertTrue("Failed to resolve run " + run, getFrameworkWiring().resolveBundles(Arrays.asList(bundles))); //$NON-NLS-1$
+		return bundles;
+	}
+
+	private void uninstall(List<Bundle> installed) throws BundleException, InterruptedException {
+		for (Bundle bundle : installed)
+			bundle.uninstall();
+		final CountDownLatch refreshed = new CountDownLatch(1);
+		getFrameworkWiring().refreshBundles(installed, new FrameworkListener() {
+			public void frameworkEvent(FrameworkEvent event) {
+				refreshed.countDown();
+			}
+		});
+		assertTrue("Timed out refreshing the bundles", refreshed.await(60, TimeUnit.SECONDS)); //$NON-NLS-1$
+	}
+
+	private static FrameworkWiring getFrameworkWiring() {
+		return OSGiTestsActivator.getContext().getBundle(0).adapt(FrameworkWiring.class);
+	}
+
+	private void doConcurrentLoad(int numThreads, int runs, String localName) throws Exception {
+		final String[] classNames = new String[CLASSES_PER_BUNDLE];
+		for (int i = 0; i < classNames.length; i++)
+			classNames[i] = PACKAGE_NAME + ".C" + i; //$NON-NLS-1$
+		List<Bundle> installed = new ArrayList<Bundle>(runs * BUNDLES_PER_RUN);
+		try {
+			final Bundle[][] bundles = new Bundle[runs][];
+			for (int i = 0; i < runs; i++)
+				bundles[i] = installRun(i, classNames, installed);
+			final Thread[] threads = new Thread[numThreads];
+			final Throwable[] failure = new Throwable[1];
+			final int[] run = new int[1];
+			PerformanceTestRunner runner = new PerformanceTestRunner() {
+				protected void test() {
+					assertTrue("No bundles left to load from", run[0] < bundles.length); //$NON-NLS-1$
+					final Bundle[] current = bundles[run[0]++];
+					final int total = current.length * classNames.length;
+					for (int i = 0; i < threads.length; i++) {
+						final int offset = i * (total / threads.length);
+						threads[i] = new Thread(new Runnable() {
+							public void run() {
+								try {
+									// each thread starts at a different offset to define classes of many bundles at once
+									for (int j = 0; j < total; j++) {
+										int k = (offset + j) % total;
+										current[k / classNames.length].loadClass(classNames[k % classNames.length]);
+									}
+								} catch (Throwable t) {
+									synchronized (failure) {
+										failure[0] = t;
+									}
+								}
+							}
+						}, "Class Loader " + i); //$NON-NLS-1$
+					}
+					for (int i = 0; i < threads.length; i++)
+						threads[i].start();
+					for (int i = 0; i < threads.length; i++)
+						try {
+							threads[i].join();
+						} catch (InterruptedException e) {
+							fail("Interrupted", e); //$NON-NLS-1$
+						}
+				}
+			};
+			runner.run(this, localName, runs, 1);
+			synchronized (failure) {
+				if (failure[0] != null)
+					fail("Failed to load class", failure[0]); //$NON-NLS-1$
+			}
+		} finally {
+			uninstall(installed);
+		}
+	}
+
+	public void testConcurrentLoad04() throws Exception {
+		doConcurrentLoad(4, 10, null);
+	}
+
+	public void testConcurrentLoad32() throws Exception {
+		doConcurrentLoad(32, 10, "Concurrent Class Loading"); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.util.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.tests.harness.CoreTest;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.tests.OSGiTestsActivator;
+import org.osgi.framework.*;
+
+/**
+ * Measures the cost of matching long-lived filters against service properties.
+ * The framework filter converts the filter values once; the filter created by
+ * {@link FrameworkUtil#createFilter(String)} interprets the filter values on each match
+ * and is measured for comparison.
+ */
+public class FilterPerformanceTest extends CoreTest {
+	private static final int MATCHES = 10000;
+	private static final String[] FILTERS = {"(&(objectClass=java.lang.Runnable)(service.ranking>=5)(service.vendor=Eclipse))", //$NON-NLS-1$
+			"(|(test.long=42)(test.double<=1.5)(test.byte=7)(test.short=1024))", //$NON-NLS-1$
+			"(&(test.version>=1.2)(!(test.boolean=false))(test.char~=X))", //$NON-NLS-1$
+			"(&(test.names=*two*)(test.ints>=3)(service.pid=test.pid))"}; //$NON-NLS-1$
+
+	public static Test suite() {
+		return new TestSuite(FilterPerformanceTest.class);
+	}
+
+	public FilterPerformanceTest(String name) {
+		super(name);
+	}
+
+	private Hashtable<String, Object> getProperties() {
+		Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(Constants.OBJECTCLASS, new String[] {Runnable.class.getName()});
+		props.put(Constants.SERVICE_RANKING, new Integer(10));
+		props.put(Constants.SERVICE_VENDOR, "Eclipse"); //$NON-NLS-1$
+		props.put(Constants.SERVICE_PID, "test.pid"); //$NON-NLS-1$
+		props.put("test.long", new Long(42)); //$NON-NLS-1$
+		props.put("test.double", new Double(2.5)); //$NON-NLS-1$
+		props.put("test.byte", new Byte((byte) 7)); //$NON-NLS-1$
+		props.put("test.short", new Short((short) 1024)); //$NON-NLS-1$
+		props.put("test.version", new Version(1, 2, 3)); //$NON-NLS-1$
+		props.put("test.boolean", Boolean.TRUE); //$NON-NLS-1$
+		props.put("test.char", new Character('x')); //$NON-NLS-1$
+		props.put("test.names", new String[] {"one", "two", "three"}); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		props.put("test.ints", new int[] {1, 2, 3}); //$NON-NLS-1$
+		return props;
+	}
+
+	private void doMatch(final Filter[] filters, final ServiceReference<?> reference, String localName) {
+		for (int i = 0; i < filters.length; i++)
+			assertTrue("Filter does not match: " + filters[i], filters[i].match(reference)); //$NON-NLS-1$
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < MATCHES; i++)
+					for (int j = 0; j < filters.length; j++)
+						filters[j].match(reference);
+			}
+		}.run(this, localName, 10, 10);
+	}
+
+	private void doMatchCase(final Filter[] filters, final Dictionary<String, ?> properties, String localName) {
+		for (int i = 0; i < filters.length; i++)
+			assertTrue("Filter does not match: " + filters[i], filters[i].matchCase(properties)); //$NON-NLS-1$
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < MATCHES; i++)
+					for (int j = 0; j < filters.length; j++)
+						filters[j].matchCase(properties);
+			}
+		}.run(this, localName, 10, 10);
+	}
+
+	private ServiceRegistration<Runnable> registerService() {
+		return OSGiTestsActivator.getContext().registerService(Runnable.class, new Runnable() {
+			public void run() {
+				// nothing
+			}
+		}, getProperties());
+	}
+
+	private Filter[] createFrameworkFilters() throws InvalidSyntaxException {
+		Filter[] filters = new Filter[FILTERS.length];
+		for (int i = 0; i < filters.length; i++)
+			filters[i] = OSGiTestsActivator.getContext().createFilter(FILTERS[i]);
+		return filters;
+	}
+
+	private Filter[] createInterpretedFilters() throws InvalidSyntaxException {
+		Filter[] filters = new Filter[FILTERS.length];
+		for (int i = 0; i < filters.length; i++)
+			filters[i] = FrameworkUtil.createFilter(FILTERS[i]);
+		return filters;
+	}
+
+	public void testMatchServiceReference() throws InvalidSyntaxException {
+		ServiceRegistration<Runnable> reg = registerService();
+		try {
+			doMatch(createFrameworkFilters(), reg.getReference(), "Filter Match ServiceReference"); //$NON-NLS-1$
+		} finally {
+			reg.unregister();
+		}
+	}
+
+	public void testMatchServiceReferenceInterpreted() throws InvalidSyntaxException {
+		ServiceRegistration<Runnable> reg = registerService();
+		try {
+			doMatch(createInterpretedFilters(), reg.getReference(), null);
+		} finally {
+			reg.unregister();
+		}
+	}
+
+	public void testMatchDictionary() throws InvalidSyntaxException {
+		doMatchCase(createFrameworkFilters(), getProperties(), "Filter Match Dictionary"); //$NON-NLS-1$
+	}
+
+	public void testMatchDictionaryInterpreted() throws InvalidSyntaxException {
+		doMatchCase(createInterpretedFilters(), getProperties(), null);
+	}
+}
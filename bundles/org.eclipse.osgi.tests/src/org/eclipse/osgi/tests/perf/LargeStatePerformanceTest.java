@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.io.*;
+import java.util.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.tests.harness.CoreTest;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.service.resolver.*;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Measures the resolver on large generated states.  The states have many
+ * versions of each package, deep uses chains, singletons, fragments, generic
+ * capabilities and dynamic imports.
+ */
+public class LargeStatePerformanceTest extends BasePerformanceTest {
+	private static final int STATE_SIZE = 2000;
+	// the number of bundles exporting a version of the same package
+	private static final int PACKAGE_VERSIONS = 3;
+	// the length of the chains of packages which use the previous package
+	private static final int USES_CHAIN = 25;
+	private static final int SINGLETON_INTERVAL = 10;
+	private static final int FRAGMENT_INTERVAL = 20;
+	private static final int DYNAMIC_INTERVAL = 50;
+
+	private Random random;
+
+	public static Test suite() {
+		return new TestSuite(LargeStatePerformanceTest.class);
+	}
+
+	public LargeStatePerformanceTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// uses a constant seed to prevent variation on results
+		random = new Random(0);
+	}
+
+	private State buildLargeState(int size) throws BundleException {
+		State state = buildEmptyState();
+		int id = 0;
+		for (int i = 0; i < size; i++) {
+			int pkg = i / PACKAGE_VERSIONS;
+			Hashtable manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "large.bundle" + i + (i % SINGLETON_INTERVAL == 0 ? "; singleton:=true" : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+			StringBuffer exports = new StringBuffer();
+			exports.append("large.p").append(pkg).append("; version=").append(i % PACKAGE_VERSIONS).append(".0"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			if (pkg % USES_CHAIN != 0)
+				exports.append("; uses:=large.p").append(pkg - 1); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, exports.toString());
+			// import the previous package of the uses chain and a few random earlier packages
+			Set<Integer> imported = new HashSet<Integer>();
+			StringBuffer imports = new StringBuffer();
+			if (pkg % USES_CHAIN != 0) {
+				imported.add(new Integer(pkg - 1));
+				imports.append("large.p").append(pkg - 1).append("; version=\"[").append(random.nextInt(PACKAGE_VERSIONS)).append(".0,").append(PACKAGE_VERSIONS).append(".0)\""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
+			for (int j = 0; j < 2 && pkg > 1; j++) {
+				int other = random.nextInt(pkg - 1);
+				if (!imported.add(new Integer(other)))
+					continue;
+				if (imports.length() > 0)
+					imports.append(", "); //$NON-NLS-1$
+				imports.append("large.p").append(other); //$NON-NLS-1$
+			}
+			if (imports.length() > 0)
+				manifest.put(Constants.IMPORT_PACKAGE, imports.toString());
+			manifest.put(Constants.PROVIDE_CAPABILITY, "large.cap; large.cap=" + i); //$NON-NLS-1$
+			if (i > 0)
+				manifest.put(Constants.REQUIRE_CAPABILITY, "large.cap; filter:=\"(large.cap=" + random.nextInt(i) + ")\""); //$NON-NLS-1$ //$NON-NLS-2$
+			if (i % DYNAMIC_INTERVAL == DYNAMIC_INTERVAL / 2)
+				manifest.put(Constants.DYNAMICIMPORT_PACKAGE, "large.*"); //$NON-NLS-1$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "large.bundle" + i, id++)); //$NON-NLS-1$
+
+			if (i % SINGLETON_INTERVAL == 0) {
+				// a second version of the singleton; only one of them can resolve
+				manifest = new Hashtable(manifest);
+				manifest.put(Constants.BUNDLE_VERSION, "2.0.0"); //$NON-NLS-1$
+				state.addBundle(state.getFactory().createBundleDescription(state, manifest, "large.bundle" + i + "_2.0.0", id++)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (i % FRAGMENT_INTERVAL == 0) {
+				manifest = new Hashtable();
+				manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+				manifest.put(Constants.BUNDLE_SYMBOLICNAME, "large.fragment" + i); //$NON-NLS-1$
+				manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+				manifest.put(Constants.FRAGMENT_HOST, "large.bundle" + i); //$NON-NLS-1$
+				manifest.put(Constants.EXPORT_PACKAGE, "large.f" + i + "; uses:=large.p" + pkg); //$NON-NLS-1$ //$NON-NLS-2$
+				manifest.put(Constants.PROVIDE_CAPABILITY, "large.fragment.cap; large.fragment.cap=" + i); //$NON-NLS-1$
+				state.addBundle(state.getFactory().createBundleDescription(state, manifest, "large.fragment" + i, id++)); //$NON-NLS-1$
+			}
+		}
+		return state;
+	}
+
+	private State buildResolvedState() throws BundleException {
+		State state = buildLargeState(STATE_SIZE);
+		state.resolve(false);
+		return state;
+	}
+
+	public void testResolution() throws BundleException {
+		final State state = buildLargeState(STATE_SIZE);
+		new PerformanceTestRunner() {
+			protected void test() {
+				state.resolve(false);
+			}
+		}.run(this, "Large State Resolution", 10, 1); //$NON-NLS-1$
+	}
+
+	public void testIncrementalResolution() throws BundleException {
+		final State state = buildResolvedState();
+		// refreshing the exporters at the start of the last uses chain re-resolves the bundles which depend on them
+		final List<BundleDescription> refresh = new ArrayList<BundleDescription>();
+		int chainStart = (STATE_SIZE / PACKAGE_VERSIONS - 1) / USES_CHAIN * USES_CHAIN;
+		for (int i = 0; i < PACKAGE_VERSIONS; i++)
+			refresh.add(state.getBundleByLocation("large.bundle" + (chainStart * PACKAGE_VERSIONS + i))); //$NON-NLS-1$
+		new PerformanceTestRunner() {
+			protected void test() {
+				state.resolve(refresh.toArray(new BundleDescription[refresh.size()]));
+			}
+		}.run(this, "Large State Incremental Resolution", 10, 1); //$NON-NLS-1$
+	}
+
+	public void testLinkDynamicImport() throws BundleException {
+		final State state = buildResolvedState();
+		final List<BundleDescription> importers = new ArrayList<BundleDescription>();
+		for (int i = DYNAMIC_INTERVAL / 2; i < STATE_SIZE; i += DYNAMIC_INTERVAL) {
+			BundleDescription importer = state.getBundleByLocation("large.bundle" + i); //$NON-NLS-1$
+			if (importer.isResolved())
+				importers.add(importer);
+		}
+		final int packages = STATE_SIZE / PACKAGE_VERSIONS;
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (BundleDescription importer : importers)
+					for (int i = 0; i < packages; i += USES_CHAIN)
+						state.linkDynamicImport(importer, "large.p" + i); //$NON-NLS-1$
+			}
+		}.run(this, "Large State Dynamic Import", 10, 1); //$NON-NLS-1$
+	}
+
+	public void testGetVisiblePackages() throws BundleException {
+		final State state = buildResolvedState();
+		final BundleDescription[] resolved = state.getResolvedBundles();
+		final StateHelper helper = platformAdmin.getStateHelper();
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < resolved.length; i++)
+					helper.getVisiblePackages(resolved[i]);
+			}
+		}.run(this, "Large State Visible Packages", 10, 10); //$NON-NLS-1$
+	}
+
+	public void testStoreAndRetrieve() throws BundleException {
+		final State state = buildResolvedState();
+		new PerformanceTestRunner() {
+			protected void test() {
+				try {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					state.getFactory().writeState(state, out);
+					state.getFactory().readState(new ByteArrayInputStream(out.toByteArray()));
+				} catch (IOException e) {
+					CoreTest.fail("", e); //$NON-NLS-1$
+				}
+			}
+		}.run(this, "Large State Store and Retrieve", 10, 1); //$NON-NLS-1$
+	}
+}
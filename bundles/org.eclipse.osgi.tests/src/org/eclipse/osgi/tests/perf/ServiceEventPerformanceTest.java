@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Hashtable;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.tests.harness.CoreTest;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.tests.OSGiTestsActivator;
+import org.osgi.framework.*;
+
+/**
+ * Measures the delivery of a storm of MODIFIED service events to a set of
+ * service listeners.  When the VM can report the bytes allocated by a thread
+ * the bytes allocated per modification are checked to not grow with the number
+ * of listeners.
+ */
+public class ServiceEventPerformanceTest extends CoreTest {
+	private static final int LISTENERS = 20;
+	private static final int MODIFICATIONS = 10000;
+	/** the bytes each additional listener may allocate per event; allows for measurement noise */
+	private static final int BYTES_PER_LISTENER = 16;
+
+	public static Test suite() {
+		return new TestSuite(ServiceEventPerformanceTest.class);
+	}
+
+	public ServiceEventPerformanceTest(String name) {
+		super(name);
+	}
+
+	private void doModifications(final ServiceRegistration<Runnable> reg, final Hashtable<String, Object> props) {
+		for (int i = 0; i < MODIFICATIONS; i++) {
+			props.put("test.modification", new Integer(i)); //$NON-NLS-1$
+			reg.setProperties(props);
+		}
+	}
+
+	private ServiceListener[] addListeners(BundleContext context, int count, String filter, final int[] modified) throws InvalidSyntaxException {
+		ServiceListener[] listeners = new ServiceListener[count];
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i] = new ServiceListener() {
+				public void serviceChanged(ServiceEvent event) {
+					if (event.getType() == ServiceEvent.MODIFIED)
+						modified[0]++;
+				}
+			};
+			context.addServiceListener(listeners[i], filter);
+		}
+		return listeners;
+	}
+
+	private ServiceRegistration<Runnable> registerService(BundleContext context, Hashtable<String, Object> props) {
+		props.put("test.storm", Boolean.TRUE); //$NON-NLS-1$
+		return context.registerService(Runnable.class, new Runnable() {
+			public void run() {
+				// nothing
+			}
+		}, props);
+	}
+
+	/*
+	 * Returns the bytes allocated per modification delivered to the number of listeners
+	 * or -1 if the VM cannot report them.
+	 */
+	private long measureAllocation(String filter, int count) throws InvalidSyntaxException {
+		BundleContext context = OSGiTestsActivator.getContext();
+		int[] modified = new int[1];
+		ServiceListener[] listeners = addListeners(context, count, filter, modified);
+		Hashtable<String, Object> props = new Hashtable<String, Object>();
+		ServiceRegistration<Runnable> reg = registerService(context, props);
+		try {
+			// warm up
+			doModifications(reg, props);
+			doModifications(reg, props);
+			long allocated = getAllocatedBytes();
+			doModifications(reg, props);
+			assertEquals("Wrong number of modified events", 3 * count * MODIFICATIONS, modified[0]); //$NON-NLS-1$
+			return allocated < 0 ? -1 : (getAllocatedBytes() - allocated) / MODIFICATIONS;
+		} finally {
+			reg.unregister();
+			for (int i = 0; i < listeners.length; i++)
+				context.removeServiceListener(listeners[i]);
+		}
+	}
+
+	private void doStorm(String filter, String localName) throws InvalidSyntaxException {
+		long single = measureAllocation(filter, 1);
+		long all = measureAllocation(filter, LISTENERS);
+		if (single >= 0 && all >= 0)
+			assertTrue("Too many bytes allocated per listener: " + single + " with one listener, " + all + " with " + LISTENERS, all - single <= BYTES_PER_LISTENER * (LISTENERS - 1)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		BundleContext context = OSGiTestsActivator.getContext();
+		int[] modified = new int[1];
+		ServiceListener[] listeners = addListeners(context, LISTENERS, filter, modified);
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		final ServiceRegistration<Runnable> reg = registerService(context, props);
+		try {
+			new PerformanceTestRunner() {
+				protected void test() {
+					doModifications(reg, props);
+				}
+			}.run(this, localName, 10, 1);
+		} finally {
+			reg.unregister();
+			for (int i = 0; i < listeners.length; i++)
+				context.removeServiceListener(listeners[i]);
+		}
+	}
+
+	/*
+	 * Returns the bytes allocated by the current thread or -1 if the VM
+	 * cannot report them.
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		try {
+			Method getThreadAllocatedBytes = threads.getClass().getMethod("getThreadAllocatedBytes", new Class[] {long.class}); //$NON-NLS-1$
+			getThreadAllocatedBytes.setAccessible(true);
+			return ((Long) getThreadAllocatedBytes.invoke(threads, new Object[] {new Long(Thread.currentThread().getId())})).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	public void testModifiedStorm() throws InvalidSyntaxException {
+		doStorm(null, "Service MODIFIED Event Storm"); //$NON-NLS-1$
+	}
+
+	public void testModifiedStormFiltered() throws InvalidSyntaxException {
+		doStorm("(&(objectClass=java.lang.Runnable)(test.storm=true))", "Service MODIFIED Event Storm Filtered"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
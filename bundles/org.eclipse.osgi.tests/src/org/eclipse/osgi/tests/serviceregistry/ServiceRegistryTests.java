@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 IBM Corporation and others.
+ * Copyright (c) 2008, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,9 +10,10 @@
  *******************************************************************************/
 package org.eclipse.osgi.tests.serviceregistry;
 
-import java.util.Hashtable;
+import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.framework.internal.core.BundleContextImpl;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.eclipse.osgi.tests.bundles.AbstractBundleTests;
 import org.osgi.framework.*;
@@ -481,6 +482,394 @@ public class ServiceRegistryTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testServiceListenerObjectClassIndex() {
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		final int[] results = new int[3];
+		ServiceListener runnableListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[0]++;
+			}
+		};
+		ServiceListener propertyListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[1]++;
+			}
+		};
+		ServiceListener movedListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[2]++;
+			}
+		};
+		Hashtable props = new Hashtable();
+		props.put(getName(), Boolean.TRUE);
+		ServiceRegistration reg = null;
+		try {
+			getContext().addServiceListener(runnableListener, "(&(objectClass=java.lang.Runnable)(" + getName() + "=true))"); //$NON-NLS-1$ //$NON-NLS-2$
+			// a listener without a required objectClass
+			getContext().addServiceListener(propertyListener, "(" + getName() + "=true)"); //$NON-NLS-1$ //$NON-NLS-2$
+			// adding a listener again replaces its filter and required objectClass
+			getContext().addServiceListener(movedListener, "(objectClass=java.lang.Runnable)"); //$NON-NLS-1$
+			getContext().addServiceListener(movedListener, "(objectClass=java.lang.Object)"); //$NON-NLS-1$
+
+			reg = getContext().registerService(Runnable.class.getName(), runIt, props);
+			assertEquals("Wrong number of events for objectClass listener", 1, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for property listener", 1, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for moved listener", 0, results[2]); //$NON-NLS-1$
+			reg.unregister();
+			clearResults(results);
+
+			reg = getContext().registerService(new String[] {Runnable.class.getName(), Object.class.getName()}, runIt, props);
+			assertEquals("Wrong number of events for objectClass listener", 1, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for property listener", 1, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for moved listener", 1, results[2]); //$NON-NLS-1$
+			reg.unregister();
+			clearResults(results);
+
+			getContext().removeServiceListener(runnableListener);
+			getContext().removeServiceListener(movedListener);
+			reg = getContext().registerService(new String[] {Runnable.class.getName(), Object.class.getName()}, runIt, props);
+			assertEquals("Wrong number of events for removed listener", 0, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for property listener", 1, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for removed listener", 0, results[2]); //$NON-NLS-1$
+		} catch (InvalidSyntaxException e) {
+			fail("filter error", e); //$NON-NLS-1$
+		} finally {
+			getContext().removeServiceListener(runnableListener);
+			getContext().removeServiceListener(propertyListener);
+			getContext().removeServiceListener(movedListener);
+			if (reg != null)
+				reg.unregister();
+		}
+	}
+
+	public void testServiceListenerIdAndPidIndex() throws Exception {
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		final int[] results = new int[3];
+		final int[] endMatches = new int[1];
+		ServiceListener idListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[0]++;
+			}
+		};
+		ServiceListener pidListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[1]++;
+				if (event.getType() == ServiceEvent.MODIFIED_ENDMATCH)
+					endMatches[0]++;
+			}
+		};
+		ServiceListener otherListener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				results[2]++;
+			}
+		};
+		String pid = getName() + ".pid"; //$NON-NLS-1$
+		Hashtable props = new Hashtable();
+		props.put(Constants.SERVICE_PID, pid);
+		ServiceRegistration reg1 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		props = new Hashtable();
+		props.put(Constants.SERVICE_PID, pid + ".other"); //$NON-NLS-1$
+		ServiceRegistration reg2 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		try {
+			getContext().addServiceListener(idListener, "(&(objectClass=java.lang.Runnable)(service.id=" + reg1.getReference().getProperty(Constants.SERVICE_ID) + "))"); //$NON-NLS-1$ //$NON-NLS-2$
+			getContext().addServiceListener(pidListener, "(service.pid=" + pid + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			getContext().addServiceListener(otherListener, "(service.pid=" + pid + ".other)"); //$NON-NLS-1$ //$NON-NLS-2$
+
+			props = new Hashtable();
+			props.put(Constants.SERVICE_PID, pid);
+			reg1.setProperties(props);
+			assertEquals("Wrong number of events for service.id listener", 1, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for service.pid listener", 1, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for other service.pid listener", 0, results[2]); //$NON-NLS-1$
+			clearResults(results);
+
+			props = new Hashtable();
+			props.put(Constants.SERVICE_PID, pid + ".other"); //$NON-NLS-1$
+			reg2.setProperties(props);
+			assertEquals("Wrong number of events for service.id listener", 0, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for service.pid listener", 0, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for other service.pid listener", 1, results[2]); //$NON-NLS-1$
+			clearResults(results);
+
+			// a listener of the previous service.pid must receive MODIFIED_ENDMATCH
+			props = new Hashtable();
+			props.put(Constants.SERVICE_PID, new String[] {pid + ".other", pid + ".modified"}); //$NON-NLS-1$ //$NON-NLS-2$
+			reg1.setProperties(props);
+			assertEquals("Wrong number of events for service.id listener", 1, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for service.pid listener", 1, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of MODIFIED_ENDMATCH events", 1, endMatches[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for other service.pid listener", 1, results[2]); //$NON-NLS-1$
+			clearResults(results);
+
+			getContext().removeServiceListener(idListener);
+			reg1.unregister();
+			reg1 = null;
+			assertEquals("Wrong number of events for removed listener", 0, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for service.pid listener", 0, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong number of events for other service.pid listener", 1, results[2]); //$NON-NLS-1$
+		} finally {
+			getContext().removeServiceListener(idListener);
+			getContext().removeServiceListener(pidListener);
+			getContext().removeServiceListener(otherListener);
+			if (reg1 != null)
+				reg1.unregister();
+			reg2.unregister();
+		}
+	}
+
+	public void testConcurrentLookup() throws Exception {
+		final Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		final String filter = "(" + getName() + "=true)"; //$NON-NLS-1$ //$NON-NLS-2$
+		final boolean[] done = new boolean[] {false};
+		final Throwable[] failure = new Throwable[1];
+		Thread registrar = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for (int i = 0; i < 500; i++) {
+						Hashtable props = new Hashtable();
+						props.put(getName(), Boolean.TRUE);
+						props.put(Constants.SERVICE_RANKING, new Integer(i % 7));
+						getContext().registerService(Runnable.class.getName(), runIt, props).unregister();
+					}
+				} catch (Throwable t) {
+					failure[0] = t;
+				} finally {
+					synchronized (done) {
+						done[0] = true;
+					}
+				}
+			}
+		}, getName());
+		Hashtable props = new Hashtable();
+		props.put(getName(), Boolean.TRUE);
+		ServiceRegistration reg = getContext().registerService(Runnable.class.getName(), runIt, props);
+		try {
+			registrar.start();
+			while (true) {
+				synchronized (done) {
+					if (done[0])
+						break;
+				}
+				// lookups must see a sorted snapshot while services are registered and unregistered
+				ServiceReference[] refs = getContext().getServiceReferences(Runnable.class.getName(), filter);
+				assertNotNull("No references found", refs); //$NON-NLS-1$
+				for (int i = 1; i < refs.length; i++)
+					assertTrue("References are not sorted", refs[i - 1].compareTo(refs[i]) > 0); //$NON-NLS-1$
+			}
+			registrar.join();
+			if (failure[0] != null)
+				fail("Failed to register services", failure[0]); //$NON-NLS-1$
+			ServiceReference[] refs = getContext().getServiceReferences(Runnable.class.getName(), filter);
+			assertEquals("Wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg.getReference(), refs[0]); //$NON-NLS-1$
+		} finally {
+			reg.unregister();
+		}
+	}
+
+	public void testIndexedPropertyLookup() throws Exception {
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		String pid = getName() + ".pid"; //$NON-NLS-1$
+		Hashtable props = new Hashtable();
+		props.put(Constants.SERVICE_PID, pid);
+		props.put("component.name", getName()); //$NON-NLS-1$
+		ServiceRegistration reg1 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		props = new Hashtable();
+		props.put(Constants.SERVICE_PID, new String[] {pid + ".other", pid}); //$NON-NLS-1$
+		ServiceRegistration reg2 = getContext().registerService(new String[] {Runnable.class.getName(), Object.class.getName()}, runIt, props);
+		try {
+			ServiceReference[] refs = getContext().getServiceReferences((String) null, "(service.pid=" + pid + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No references found", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 2, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg1.getReference(), refs[0]); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg2.getReference(), refs[1]); //$NON-NLS-1$
+
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(component.name=" + getName() + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No references found", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg1.getReference(), refs[0]); //$NON-NLS-1$
+
+			refs = getContext().getServiceReferences((String) null, "(&(objectClass=java.lang.Object)(service.pid=" + pid + "))"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No references found", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+
+			refs = getContext().getServiceReferences(Object.class.getName(), "(&(service.pid=" + pid + ")(component.name=" + getName() + "))"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNull("Unexpected references found", refs); //$NON-NLS-1$
+
+			refs = getContext().getServiceReferences((String) null, "(service.id=" + reg2.getReference().getProperty(Constants.SERVICE_ID) + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No references found", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+
+			// the index must follow modified properties
+			props = new Hashtable();
+			props.put(Constants.SERVICE_PID, pid + ".modified"); //$NON-NLS-1$
+			reg1.setProperties(props);
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(service.pid=" + pid + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No references found", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(service.pid=" + pid + ".modified)"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No references found", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("Wrong reference", reg1.getReference(), refs[0]); //$NON-NLS-1$
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(component.name=" + getName() + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Unexpected references found", refs); //$NON-NLS-1$
+		} finally {
+			reg1.unregister();
+			reg2.unregister();
+		}
+		assertNull("Unexpected references found", getContext().getServiceReferences((String) null, "(service.pid=" + pid + ")")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	public void testBatchRegistration() throws Exception {
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		final List events = new ArrayList();
+		ServiceListener listener = new ServiceListener() {
+			public void serviceChanged(ServiceEvent event) {
+				synchronized (events) {
+					events.add(new Object[] {new Integer(event.getType()), event.getServiceReference().getProperty(getName())});
+				}
+			}
+		};
+		BundleContextImpl context = (BundleContextImpl) getContext();
+		String[][] clazzes = new String[3][];
+		Object[] services = new Object[3];
+		Dictionary[] props = new Dictionary[3];
+		for (int i = 0; i < 3; i++) {
+			clazzes[i] = new String[] {Runnable.class.getName()};
+			services[i] = runIt;
+			props[i] = new Hashtable();
+			props[i].put(getName(), new Integer(i));
+		}
+		context.addServiceListener(listener, "(" + getName() + "=*)"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			ServiceRegistration[] regs = context.registerServices(clazzes, services, props);
+			assertEquals("Wrong number of registrations", 3, regs.length); //$NON-NLS-1$
+			ServiceReference[] refs = context.getServiceReferences(Runnable.class.getName(), "(" + getName() + "=*)"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No references found", refs); //$NON-NLS-1$
+			assertEquals("Wrong number of references", 3, refs.length); //$NON-NLS-1$
+
+			// an already unregistered service is ignored
+			regs[1].unregister();
+			context.unregisterServices(regs);
+			assertNull("Unexpected references found", context.getServiceReferences(Runnable.class.getName(), "(" + getName() + "=*)")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			try {
+				regs[0].unregister();
+				fail("Expected an illegal state exception"); //$NON-NLS-1$
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		} finally {
+			context.removeServiceListener(listener);
+		}
+
+		int[][] expected = { {ServiceEvent.REGISTERED, 0}, {ServiceEvent.REGISTERED, 1}, {ServiceEvent.REGISTERED, 2}, {ServiceEvent.UNREGISTERING, 1}, {ServiceEvent.UNREGISTERING, 0}, {ServiceEvent.UNREGISTERING, 2}};
+		synchronized (events) {
+			assertEquals("Wrong number of events", expected.length, events.size()); //$NON-NLS-1$
+			for (int i = 0; i < expected.length; i++) {
+				Object[] event = (Object[]) events.get(i);
+				assertEquals("Wrong event type: " + i, expected[i][0], ((Integer) event[0]).intValue()); //$NON-NLS-1$
+				assertEquals("Wrong service: " + i, expected[i][1], ((Integer) event[1]).intValue()); //$NON-NLS-1$
+			}
+		}
+
+		// a service which cannot be registered fails the batch
+		services[1] = new Object();
+		try {
+			context.registerServices(clazzes, services, props);
+			fail("Expected an illegal argument exception"); //$NON-NLS-1$
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertNull("Unexpected references found", context.getServiceReferences(Runnable.class.getName(), "(" + getName() + "=*)")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	public void testConcurrentGetService() throws Exception {
+		final int[] factoryCalls = new int[2];
+		ServiceFactory factory = new ServiceFactory() {
+			public Object getService(Bundle bundle, ServiceRegistration registration) {
+				synchronized (factoryCalls) {
+					factoryCalls[0]++;
+				}
+				return new Object();
+			}
+
+			public void ungetService(Bundle bundle, ServiceRegistration registration, Object service) {
+				synchronized (factoryCalls) {
+					factoryCalls[1]++;
+				}
+			}
+		};
+		ServiceRegistration singleton = getContext().registerService(Object.class.getName(), new Object(), null);
+		ServiceRegistration factoryReg = getContext().registerService(Object.class.getName(), factory, null);
+		try {
+			final ServiceReference[] refs = new ServiceReference[] {singleton.getReference(), factoryReg.getReference()};
+			final Throwable[] failure = new Throwable[1];
+			Thread[] threads = new Thread[4];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							for (int j = 0; j < 10000; j++) {
+								ServiceReference ref = refs[j % refs.length];
+								assertNotNull("No service", getContext().getService(ref)); //$NON-NLS-1$
+								assertTrue("Service not in use", getContext().ungetService(ref)); //$NON-NLS-1$
+							}
+						} catch (Throwable t) {
+							synchronized (failure) {
+								failure[0] = t;
+							}
+						}
+					}
+				}, getName() + i);
+			}
+			// hold the singleton so the other threads use the fast path
+			Object service = getContext().getService(refs[0]);
+			for (int i = 0; i < threads.length; i++)
+				threads[i].start();
+			for (int i = 0; i < threads.length; i++)
+				threads[i].join();
+			synchronized (failure) {
+				if (failure[0] != null)
+					fail("Failed to get service", failure[0]); //$NON-NLS-1$
+			}
+			assertSame("Wrong service", service, getContext().getService(refs[0])); //$NON-NLS-1$
+			assertTrue("Service not in use", getContext().ungetService(refs[0])); //$NON-NLS-1$
+			assertTrue("Service not in use", getContext().ungetService(refs[0])); //$NON-NLS-1$
+			assertFalse("Service still in use", getContext().ungetService(refs[0])); //$NON-NLS-1$
+			assertNull("Unexpected using bundles", refs[0].getUsingBundles()); //$NON-NLS-1$
+			assertNull("Unexpected using bundles", refs[1].getUsingBundles()); //$NON-NLS-1$
+			synchronized (factoryCalls) {
+				assertEquals("Factory calls are not balanced", factoryCalls[0], factoryCalls[1]); //$NON-NLS-1$
+			}
+		} finally {
+			singleton.unregister();
+			factoryReg.unregister();
+		}
+	}
+
 	private void clearResults(boolean[] results) {
 		for (int i = 0; i < results.length; i++)
 			results[i] = false;
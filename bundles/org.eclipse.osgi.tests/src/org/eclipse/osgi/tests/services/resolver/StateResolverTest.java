@@ -17,11 +17,14 @@ import java.util.*;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.osgi.framework.util.Headers;
+import org.eclipse.osgi.internal.resolver.ResolutionCache;
 import org.eclipse.osgi.internal.resolver.StateImpl;
 import org.eclipse.osgi.internal.resolver.StateObjectFactoryImpl;
 import org.eclipse.osgi.service.resolver.*;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.*;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
 import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.framework.wiring.*;
 import org.osgi.resource.Capability;
@@ -1499,6 +1502,446 @@ public class StateResolverTest extends AbstractStateTest {
 		assertNull("1.2 Packages are not consistent: " + isConsistent, isConsistent); //$NON-NLS-1$
 	}
 
+	public void testUsesConflictSearch() throws BundleException {
+		// the only consistent supplier of x is the last choice of the last constraint with multiple suppliers;
+		// an exhaustive search of the 2^24 combinations of the other constraints would time out
+		State state = buildEmptyState();
+		Dictionary[] props = new Dictionary[] {new Hashtable()};
+		props[0].put("osgi.usesLimit", "0"); //$NON-NLS-1$ //$NON-NLS-2$
+		props[0].put("osgi.usesTimeout", "10000"); //$NON-NLS-1$ //$NON-NLS-2$
+		state.setPlatformProperties(props);
+		long id = 0;
+
+		Hashtable manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X1"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "x; version=1.0"); //$NON-NLS-1$
+		BundleDescription x1 = state.getFactory().createBundleDescription(state, manifest, "x1", id++); //$NON-NLS-1$
+		state.addBundle(x1);
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "x; version=2.0"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, "x2", id++)); //$NON-NLS-1$
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "Y"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "y; uses:=x"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "x; version=\"[1.0,2.0)\""); //$NON-NLS-1$
+		BundleDescription y = state.getFactory().createBundleDescription(state, manifest, "y", id++); //$NON-NLS-1$
+		state.addBundle(y);
+
+		StringBuffer imports = new StringBuffer();
+		for (int i = 0; i < 24; i++) {
+			for (int j = 1; j <= 2; j++) {
+				manifest = new Hashtable();
+				manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+				manifest.put(Constants.BUNDLE_SYMBOLICNAME, "P" + i + "_" + j); //$NON-NLS-1$ //$NON-NLS-2$
+				manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+				manifest.put(Constants.EXPORT_PACKAGE, "p" + i + "; version=" + j + ".0"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				state.addBundle(state.getFactory().createBundleDescription(state, manifest, "p" + i + "_" + j, id++)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			imports.append('p').append(i).append(", "); //$NON-NLS-1$
+		}
+		imports.append("y, x"); //$NON-NLS-1$
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "Z"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, imports.toString());
+		BundleDescription z = state.getFactory().createBundleDescription(state, manifest, "z", id++); //$NON-NLS-1$
+		state.addBundle(z);
+
+		state.resolve();
+		assertTrue("1.0", y.isResolved()); //$NON-NLS-1$
+		assertTrue("1.1", z.isResolved()); //$NON-NLS-1$
+		ExportPackageDescription[] zImports = z.getResolvedImports();
+		for (int i = 0; i < zImports.length; i++)
+			if ("x".equals(zImports[i].getName())) //$NON-NLS-1$
+				assertEquals("1.2", x1, zImports[i].getExporter()); //$NON-NLS-1$
+		ExportPackageDescription[] isConsistent = isConsistent(y.getResolvedImports(), zImports);
+		assertNull("1.3 Packages are not consistent: " + isConsistent, isConsistent); //$NON-NLS-1$
+	}
+
+	public void testUsesConflictSearchFewestConflicts() throws BundleException {
+		// every combination of the suppliers of a and b has conflicts; the combination with the
+		// fewest conflicts contains the choice of b which conflicted in the first combination
+		State state = buildEmptyState();
+		Dictionary[] props = new Dictionary[] {new Hashtable()};
+		props[0].put("osgi.usesLimit", "0"); //$NON-NLS-1$ //$NON-NLS-2$
+		state.setPlatformProperties(props);
+		long id = 0;
+		String[][] headers = new String[][] {
+				// the suppliers of a and b; the highest versions are selected first
+				{"A1", "a; version=1.0", null}, //$NON-NLS-1$ //$NON-NLS-2$
+				{"A2", "a; version=2.0", null}, //$NON-NLS-1$ //$NON-NLS-2$
+				{"B1", "b; version=1.0", null}, //$NON-NLS-1$ //$NON-NLS-2$
+				{"B2", "b; version=2.0", null}, //$NON-NLS-1$ //$NON-NLS-2$
+				// the constraints with multiple suppliers
+				{"P", "p; uses:=a", "a"}, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				{"Q", "q; uses:=b", "b"}, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				// conflicts when P is wired to A2
+				{"W1", null, "p, a; version=\"[1.0,2.0)\""}, //$NON-NLS-1$ //$NON-NLS-2$
+				{"W2", null, "p, a; version=\"[1.0,2.0)\""}, //$NON-NLS-1$ //$NON-NLS-2$
+				// conflicts when P is wired to A1
+				{"V", null, "p, a; version=\"[2.0,3.0)\""}, //$NON-NLS-1$ //$NON-NLS-2$
+				// conflicts when Q is wired to B2
+				{"VB", null, "q, b; version=\"[1.0,2.0)\""}, //$NON-NLS-1$ //$NON-NLS-2$
+				// conflicts when Q is wired to B1
+				{"U1", null, "q, b; version=\"[2.0,3.0)\""}, //$NON-NLS-1$ //$NON-NLS-2$
+				{"U2", null, "q, b; version=\"[2.0,3.0)\""}}; //$NON-NLS-1$ //$NON-NLS-2$
+		Map<String, BundleDescription> bundles = new HashMap<String, BundleDescription>();
+		for (int i = 0; i < headers.length; i++) {
+			Hashtable manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, headers[i][0]);
+			manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+			if (headers[i][1] != null)
+				manifest.put(Constants.EXPORT_PACKAGE, headers[i][1]);
+			if (headers[i][2] != null)
+				manifest.put(Constants.IMPORT_PACKAGE, headers[i][2]);
+			BundleDescription bundle = state.getFactory().createBundleDescription(state, manifest, headers[i][0], id++);
+			state.addBundle(bundle);
+			bundles.put(headers[i][0], bundle);
+		}
+
+		// the combinations conflict in W1, W2 and VB; V, U1 and U2; V and VB; W1, W2, U1 and U2
+		state.resolve();
+		assertFalse("1.0", bundles.get("V").isResolved()); //$NON-NLS-1$ //$NON-NLS-2$
+		assertFalse("1.1", bundles.get("VB").isResolved()); //$NON-NLS-1$ //$NON-NLS-2$
+		String[] resolved = new String[] {"P", "Q", "W1", "W2", "U1", "U2"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		for (int i = 0; i < resolved.length; i++)
+			assertTrue("1.2 " + resolved[i], bundles.get(resolved[i]).isResolved()); //$NON-NLS-1$
+	}
+
+	public void testParallelUsesCheck() throws BundleException {
+		doTestParallelUsesCheck("1"); //$NON-NLS-1$
+		doTestParallelUsesCheck("4"); //$NON-NLS-1$
+	}
+
+	private void doTestParallelUsesCheck(String usesThreads) throws BundleException {
+		// enough independent groups of bundles to check the uses constraints on multiple threads;
+		// the consumer of each group must be wired to the exporter used by the provider of the group
+		int groups = 100;
+		State state = buildEmptyState();
+		Dictionary[] props = new Dictionary[] {new Hashtable()};
+		props[0].put("osgi.usesThreads", usesThreads); //$NON-NLS-1$
+		state.setPlatformProperties(props);
+		long id = 0;
+		BundleDescription[] x1 = new BundleDescription[groups];
+		BundleDescription[] z = new BundleDescription[groups];
+		for (int i = 0; i < groups; i++) {
+			Hashtable manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X1_" + i); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "x" + i + "; version=1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+			x1[i] = state.getFactory().createBundleDescription(state, manifest, "x1_" + i, id++); //$NON-NLS-1$
+			state.addBundle(x1[i]);
+
+			manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X2_" + i); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "x" + i + "; version=2.0"); //$NON-NLS-1$ //$NON-NLS-2$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "x2_" + i, id++)); //$NON-NLS-1$
+
+			manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "Y_" + i); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "y" + i + "; uses:=x" + i); //$NON-NLS-1$ //$NON-NLS-2$
+			manifest.put(Constants.IMPORT_PACKAGE, "x" + i + "; version=\"[1.0,2.0)\""); //$NON-NLS-1$ //$NON-NLS-2$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "y_" + i, id++)); //$NON-NLS-1$
+
+			manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "Z_" + i); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+			manifest.put(Constants.IMPORT_PACKAGE, "y" + i + ", x" + i); //$NON-NLS-1$ //$NON-NLS-2$
+			z[i] = state.getFactory().createBundleDescription(state, manifest, "z_" + i, id++); //$NON-NLS-1$
+			state.addBundle(z[i]);
+		}
+		state.resolve();
+		for (int i = 0; i < groups; i++) {
+			assertTrue("1.0 " + i + " " + usesThreads, z[i].isResolved()); //$NON-NLS-1$ //$NON-NLS-2$
+			ExportPackageDescription[] zImports = z[i].getResolvedImports();
+			for (int j = 0; j < zImports.length; j++)
+				if (("x" + i).equals(zImports[j].getName())) //$NON-NLS-1$
+					assertEquals("1.1 " + i + " " + usesThreads, x1[i], zImports[j].getExporter()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	public void testIncrementalResolveOrder() throws BundleException {
+		// the exports of a bundle resolved by an incremental resolve must be ordered ahead of lower versions
+		State state = buildEmptyState();
+		Hashtable manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X1"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "x; version=1.0"); //$NON-NLS-1$
+		BundleDescription x1 = state.getFactory().createBundleDescription(state, manifest, "x1", 0); //$NON-NLS-1$
+		state.addBundle(x1);
+		state.resolve(false);
+		assertTrue("1.0", x1.isResolved()); //$NON-NLS-1$
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "x; version=2.0"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "q"); //$NON-NLS-1$
+		BundleDescription x2 = state.getFactory().createBundleDescription(state, manifest, "x2", 1); //$NON-NLS-1$
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "C"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "x"); //$NON-NLS-1$
+		BundleDescription c = state.getFactory().createBundleDescription(state, manifest, "c", 2); //$NON-NLS-1$
+		state.addBundle(x2);
+		state.addBundle(c);
+		state.resolve();
+		assertFalse("2.0", x2.isResolved()); //$NON-NLS-1$
+		assertTrue("2.1", c.isResolved()); //$NON-NLS-1$
+		assertEquals("2.2", x1, c.getResolvedImports()[0].getExporter()); //$NON-NLS-1$
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "Q"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "q"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, "q", 3)); //$NON-NLS-1$
+		state.resolve(new BundleDescription[] {x2});
+		assertTrue("3.0", x2.isResolved()); //$NON-NLS-1$
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "D"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "x"); //$NON-NLS-1$
+		BundleDescription d = state.getFactory().createBundleDescription(state, manifest, "d", 4); //$NON-NLS-1$
+		state.addBundle(d);
+		state.resolve();
+		assertTrue("4.0", d.isResolved()); //$NON-NLS-1$
+		assertEquals("4.1", x2, d.getResolvedImports()[0].getExporter()); //$NON-NLS-1$
+	}
+
+	private State buildResolutionCacheState(File cacheDir) throws BundleException {
+		return buildResolutionCacheState(cacheDir, "", 0); //$NON-NLS-1$
+	}
+
+	private State buildResolutionCacheState(File cacheDir, String locationPrefix, long firstId) throws BundleException {
+		State state = buildEmptyState();
+		((StateImpl) state).setResolutionCache(new ResolutionCache(cacheDir));
+		long id = firstId;
+		Hashtable manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "A"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "a; uses:=b"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "b"); //$NON-NLS-1$
+		manifest.put(Constants.PROVIDE_CAPABILITY, "test.cap; test.cap=a"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, locationPrefix + "a", id++)); //$NON-NLS-1$
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "F"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.FRAGMENT_HOST, "A"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "f"); //$NON-NLS-1$
+		manifest.put(Constants.PROVIDE_CAPABILITY, "test.cap; test.cap=f"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, locationPrefix + "f", id++)); //$NON-NLS-1$
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "B"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "b"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "a, f"); //$NON-NLS-1$
+		manifest.put(Constants.REQUIRE_BUNDLE, "A"); //$NON-NLS-1$
+		manifest.put(Constants.REQUIRE_CAPABILITY, "test.cap; filter:=\"(test.cap=f)\""); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, locationPrefix + "b", id++)); //$NON-NLS-1$
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "U"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "missing"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, locationPrefix + "u", id++)); //$NON-NLS-1$
+		return state;
+	}
+
+	public void testResolutionCache() throws BundleException {
+		File cacheDir = OSGiTestsActivator.getContext().getDataFile(getName());
+		File[] oldEntries = cacheDir.listFiles();
+		if (oldEntries != null)
+			for (int i = 0; i < oldEntries.length; i++)
+				oldEntries[i].delete();
+
+		State state = buildResolutionCacheState(cacheDir);
+		state.resolve();
+		assertEquals("1.0", 1, cacheDir.list().length); //$NON-NLS-1$
+
+		// the same bundles and platform properties find the stored resolution
+		State cached = buildResolutionCacheState(cacheDir);
+		StateDelta delta = cached.resolve(false);
+		assertEquals("2.0", 1, cacheDir.list().length); //$NON-NLS-1$
+		assertEquals("2.1", state.getResolvedBundles().length, delta.getChanges(BundleDelta.RESOLVED, false).length); //$NON-NLS-1$
+		BundleDescription[] bundles = state.getBundles();
+		for (int i = 0; i < bundles.length; i++) {
+			BundleDescription expected = bundles[i];
+			BundleDescription actual = cached.getBundle(expected.getBundleId());
+			assertEquals("3.0 " + expected, expected.isResolved(), actual.isResolved()); //$NON-NLS-1$
+			assertEquals("3.1 " + expected, expected.getSelectedExports().length, actual.getSelectedExports().length); //$NON-NLS-1$
+			assertEquals("3.2 " + expected, expected.getResolvedImports().length, actual.getResolvedImports().length); //$NON-NLS-1$
+			assertEquals("3.3 " + expected, expected.getResolvedRequires().length, actual.getResolvedRequires().length); //$NON-NLS-1$
+			assertEquals("3.4 " + expected, expected.getResolvedGenericRequires().length, actual.getResolvedGenericRequires().length); //$NON-NLS-1$
+			assertEquals("3.5 " + expected, state.getResolverErrors(expected).length, cached.getResolverErrors(actual).length); //$NON-NLS-1$
+			if (expected.isResolved())
+				assertEquals("3.6 " + expected, expected.getWiring().getRequiredWires(null).size(), actual.getWiring().getRequiredWires(null).size()); //$NON-NLS-1$
+		}
+		BundleDescription a = cached.getBundle(0);
+		BundleDescription f = cached.getBundle(1);
+		BundleDescription b = cached.getBundle(2);
+		assertEquals("4.0", a, f.getHost().getHosts()[0]); //$NON-NLS-1$
+		// the fragment export attached to the host is shared by the importers
+		ExportPackageDescription fExport = a.getSelectedExports()[1];
+		assertEquals("4.1", "f", fExport.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+		assertSame("4.2", fExport, b.getResolvedImports()[1]); //$NON-NLS-1$
+		assertEquals("4.3", a, b.getResolvedGenericRequires()[0].getSupplier()); //$NON-NLS-1$
+
+		// the resolver continues from the cached wiring
+		ExportPackageDescription dynamic = cached.linkDynamicImport(b, "a"); //$NON-NLS-1$
+		assertNull("5.0", dynamic); //$NON-NLS-1$
+		cached.resolve(new BundleDescription[] {a});
+		assertTrue("5.1", b.isResolved()); //$NON-NLS-1$
+		assertEquals("5.2", a, b.getResolvedImports()[0].getExporter()); //$NON-NLS-1$
+
+		// different platform properties are a different entry
+		State other = buildResolutionCacheState(cacheDir);
+		Dictionary[] props = new Dictionary[] {new Hashtable()};
+		props[0].put("osgi.os", "test"); //$NON-NLS-1$ //$NON-NLS-2$
+		other.setPlatformProperties(props);
+		other.resolve();
+		assertEquals("6.0", 2, cacheDir.list().length); //$NON-NLS-1$
+
+		// properties which are not read by the resolver do not change the entry
+		State volatileProps = buildResolutionCacheState(cacheDir);
+		props[0].put("eclipse.startTime", Long.toString(System.currentTimeMillis())); //$NON-NLS-1$
+		volatileProps.setPlatformProperties(props);
+		volatileProps.resolve();
+		assertEquals("7.0", 2, cacheDir.list().length); //$NON-NLS-1$
+
+		// the same bundles installed at other locations with other ids find the stored resolution
+		State moved = buildResolutionCacheState(cacheDir, "moved/", 10); //$NON-NLS-1$
+		delta = moved.resolve(false);
+		assertEquals("8.0", 2, cacheDir.list().length); //$NON-NLS-1$
+		assertEquals("8.1", state.getResolvedBundles().length, delta.getChanges(BundleDelta.RESOLVED, false).length); //$NON-NLS-1$
+		BundleDescription movedA = moved.getBundle(10);
+		BundleDescription movedB = moved.getBundle(12);
+		assertTrue("8.2", movedB.isResolved()); //$NON-NLS-1$
+		assertEquals("8.3", movedA, movedB.getResolvedImports()[0].getExporter()); //$NON-NLS-1$
+		assertFalse("8.4", moved.getBundle(13).isResolved()); //$NON-NLS-1$
+
+		// resolutions with resolver hooks are neither looked up nor stored
+		final int[] hookCalls = new int[2];
+		State hooked = buildResolutionCacheState(cacheDir);
+		hooked.setResolverHookFactory(new ResolverHookFactory() {
+			public ResolverHook begin(Collection triggers) {
+				hookCalls[0]++;
+				return new ResolverHook() {
+					public void filterResolvable(Collection candidates) {
+						hookCalls[1]++;
+					}
+
+					public void filterSingletonCollisions(BundleCapability singleton, Collection collisionCandidates) {
+						// nothing
+					}
+
+					public void filterMatches(BundleRequirement requirement, Collection candidates) {
+						// nothing
+					}
+
+					public void end() {
+						// nothing
+					}
+				};
+			}
+		});
+		hooked.resolve();
+		assertEquals("9.0", 1, hookCalls[0]); //$NON-NLS-1$
+		assertEquals("9.1", 1, hookCalls[1]); //$NON-NLS-1$
+		assertEquals("9.2", 2, cacheDir.list().length); //$NON-NLS-1$
+		assertTrue("9.3", hooked.getBundle(2).isResolved()); //$NON-NLS-1$
+	}
+
+	public void testParallelUsesCheckCyclic() throws BundleException {
+		// the uses of each group form a cycle so the package roots depend on the order they are computed in
+		String sequential = doTestParallelUsesCheckCyclic("1"); //$NON-NLS-1$
+		for (int i = 0; i < 3; i++)
+			assertEquals("1.0 " + i, sequential, doTestParallelUsesCheckCyclic("4")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/*
+	 * Resolves groups of bundles with cyclic uses constraints and returns a description of the wiring
+	 */
+	private String doTestParallelUsesCheckCyclic(String usesThreads) throws BundleException {
+		int groups = 40;
+		State state = buildEmptyState();
+		Dictionary[] props = new Dictionary[] {new Hashtable()};
+		props[0].put("osgi.usesThreads", usesThreads); //$NON-NLS-1$
+		state.setPlatformProperties(props);
+		long id = 0;
+		for (int i = 0; i < groups; i++) {
+			Hashtable manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X1_" + i); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "x" + i + "; version=1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "x1_" + i, id++)); //$NON-NLS-1$
+
+			manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "X2_" + i); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "x" + i + "; version=2.0"); //$NON-NLS-1$ //$NON-NLS-2$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "x2_" + i, id++)); //$NON-NLS-1$
+
+			manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "A_" + i); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "a" + i + "; uses:=\"b" + i + ", x" + i + "\""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			manifest.put(Constants.IMPORT_PACKAGE, "b" + i + ", x" + i + "; version=\"[1.0,2.0)\""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "a_" + i, id++)); //$NON-NLS-1$
+
+			manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "B_" + i); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "b" + i + "; uses:=\"a" + i + ", x" + i + "\""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			manifest.put(Constants.IMPORT_PACKAGE, "a" + i + ", x" + i); //$NON-NLS-1$ //$NON-NLS-2$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "b_" + i, id++)); //$NON-NLS-1$
+
+			manifest = new Hashtable();
+			manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "C_" + i); //$NON-NLS-1$
+			manifest.put(Constants.IMPORT_PACKAGE, "a" + i + ", b" + i + ", x" + i); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			state.addBundle(state.getFactory().createBundleDescription(state, manifest, "c_" + i, id++)); //$NON-NLS-1$
+		}
+		state.resolve();
+		StringBuffer wiring = new StringBuffer();
+		for (long i = 0; i < id; i++) {
+			BundleDescription bundle = state.getBundle(i);
+			wiring.append(bundle.getSymbolicName()).append(bundle.isResolved() ? " resolved" : " unresolved"); //$NON-NLS-1$ //$NON-NLS-2$
+			ExportPackageDescription[] imports = bundle.getResolvedImports();
+			for (int j = 0; j < imports.length; j++)
+				wiring.append(' ').append(imports[j].getName()).append('=').append(imports[j].getExporter().getSymbolicName());
+			wiring.append('\n');
+		}
+		assertTrue("1.0 " + usesThreads, state.getResolvedBundles().length > 0); //$NON-NLS-1$
+		return wiring.toString();
+	}
+
 	public void testRequireBundleUses() throws BundleException {
 		State state = buildEmptyState();
 		int id = 0;
@@ -3918,6 +4361,81 @@ public class StateResolverTest extends AbstractStateTest {
 		}
 	}
 
+	public void testMappedLazyStateLoading() throws BundleException, IOException {
+		State state = buildEmptyState();
+		int bundleID = 0;
+		Hashtable manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "A"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "a; version=1.0, a.b"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, "A", bundleID++)); //$NON-NLS-1$
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "B"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "a; version=\"[1.0,2.0)\""); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "b; uses:=a"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, "B", bundleID++)); //$NON-NLS-1$
+
+		manifest = new Hashtable();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "C"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "a, b"); //$NON-NLS-1$
+		manifest.put(Constants.REQUIRE_BUNDLE, "A"); //$NON-NLS-1$
+		state.addBundle(state.getFactory().createBundleDescription(state, manifest, "C", bundleID++)); //$NON-NLS-1$
+		state.resolve();
+
+		BundleContext context = OSGiTestsActivator.getContext();
+		File stateCache = context.getDataFile(getName()); //$NON-NLS-1$
+		stateCache.mkdirs();
+		File stateFile = new File(stateCache, ".state"); //$NON-NLS-1$
+		File lazyFile = new File(stateCache, ".lazy"); //$NON-NLS-1$
+		StateObjectFactoryImpl factory = (StateObjectFactoryImpl) StateObjectFactory.defaultFactory;
+		factory.writeState(state, stateFile, lazyFile);
+
+		StateImpl streamState = factory.readSystemState(null, stateFile, lazyFile, true, -1);
+		StateImpl mappedState;
+		String previous = System.getProperty("osgi.mappedLazyStateLoading"); //$NON-NLS-1$
+		System.setProperty("osgi.mappedLazyStateLoading", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			mappedState = factory.readSystemState(null, stateFile, lazyFile, true, -1);
+		} finally {
+			if (previous == null)
+				System.getProperties().remove("osgi.mappedLazyStateLoading"); //$NON-NLS-1$
+			else
+				System.setProperty("osgi.mappedLazyStateLoading", previous); //$NON-NLS-1$
+		}
+
+		// load the lazy data of a single bundle and its dependencies first
+		assertLazyDataEquals(streamState.getBundle(2), mappedState.getBundle(2));
+		for (long i = 0; i < bundleID; i++)
+			assertLazyDataEquals(streamState.getBundle(i), mappedState.getBundle(i));
+
+		// call twice to force unload; the lazy data must be read again
+		mappedState.unloadLazyData(mappedState.getTimeStamp());
+		mappedState.unloadLazyData(mappedState.getTimeStamp());
+		for (long i = bundleID - 1; i >= 0; i--)
+			assertLazyDataEquals(streamState.getBundle(i), mappedState.getBundle(i));
+	}
+
+	private void assertLazyDataEquals(BundleDescription expected, BundleDescription actual) {
+		assertEquals("Wrong bundle", expected.toString(), actual.toString()); //$NON-NLS-1$
+		assertEquals("Wrong exports: " + actual, Arrays.asList(expected.getExportPackages()).toString(), Arrays.asList(actual.getExportPackages()).toString()); //$NON-NLS-1$
+		assertEquals("Wrong imports: " + actual, Arrays.asList(expected.getImportPackages()).toString(), Arrays.asList(actual.getImportPackages()).toString()); //$NON-NLS-1$
+		assertEquals("Wrong required bundles: " + actual, Arrays.asList(expected.getRequiredBundles()).toString(), Arrays.asList(actual.getRequiredBundles()).toString()); //$NON-NLS-1$
+		ExportPackageDescription[] expectedResolved = expected.getResolvedImports();
+		ExportPackageDescription[] actualResolved = actual.getResolvedImports();
+		assertEquals("Wrong number of resolved imports: " + actual, expectedResolved.length, actualResolved.length); //$NON-NLS-1$
+		for (int i = 0; i < expectedResolved.length; i++) {
+			assertEquals("Wrong resolved import: " + actual, expectedResolved[i].toString(), actualResolved[i].toString()); //$NON-NLS-1$
+			assertEquals("Wrong exporter: " + actual, expectedResolved[i].getExporter().toString(), actualResolved[i].getExporter().toString()); //$NON-NLS-1$
+			assertEquals("Wrong uses: " + actual, String.valueOf(expectedResolved[i].getDirective(Constants.USES_DIRECTIVE)), String.valueOf(actualResolved[i].getDirective(Constants.USES_DIRECTIVE))); //$NON-NLS-1$
+		}
+	}
+
 	public void testBug187616() throws BundleException {
 		State state = buildEmptyState();
 		Hashtable manifest = new Hashtable();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2011 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.osgi.event.BatchBundleListener;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
@@ -46,9 +47,11 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 	final Framework framework;
 
 	/** Services that bundle is using. Key is ServiceRegistrationImpl,
-	 Value is ServiceUse */
-	/* @GuardedBy("contextLock") */
-	private HashMap<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse;
+	 Value is ServiceUse.  The field and the map are read without locking;
+	 the field is only assigned while synchronized on contextLock and the
+	 entries of the map are only modified while synchronized on the map. */
+	/* @GuardedBy("contextLock") for field assignment, @GuardedBy("servicesInUse") for map mutation */
+	private volatile Map<ServiceRegistrationImpl<?>, ServiceUse<?>> servicesInUse;
 
 	/** The current instantiation of the activator. */
 	protected BundleActivator activator;
@@ -433,6 +436,57 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 		return framework.getServiceRegistry().registerService(this, clazzes, service, properties);
 	}
 
+	/**
+	 * Register a batch of services.  This is a framework specific method.
+	 * <p>
+	 * The services are registered as specified by
+	 * {@link #registerService(java.lang.String[], java.lang.Object, java.util.Dictionary)}
+	 * except that all the services are added to the service registry at once and the
+	 * {@link ServiceEvent#REGISTERED} events are then fired in the order of the services.
+	 * If any service cannot be registered none of the services are registered.
+	 * </p>
+	 *
+	 * @param clazzes The class names under which each service can be located.
+	 * @param services The service objects or {@link ServiceFactory} objects.
+	 * @param properties The properties for each service.
+	 *        This parameter or any of its elements may be <code>null</code> 
+	 *        if the services have no properties.
+	 * @return The {@link ServiceRegistration} objects in the order of the services.
+	 * @exception java.lang.IllegalArgumentException If any service cannot be registered
+	 * or the arrays do not have the same length.
+	 * @exception java.lang.SecurityException If the caller does not have
+	 * {@link ServicePermission} permission to "register" a service
+	 * and the Java runtime environment supports permissions.
+	 * @exception java.lang.IllegalStateException
+	 * If the bundle context has stopped.
+	 * @see #unregisterServices(ServiceRegistration[])
+	 * @since 3.9
+	 */
+	public ServiceRegistration<?>[] registerServices(String[][] clazzes, Object[] services, Dictionary<String, ?>[] properties) {
+		checkValid();
+		return framework.getServiceRegistry().registerServices(this, clazzes, services, properties);
+	}
+
+	/**
+	 * Unregister a batch of services.  This is a framework specific method.
+	 * <p>
+	 * The services are unregistered as specified by {@link ServiceRegistration#unregister()}
+	 * except that all the services are removed from the service registry at once and the
+	 * {@link ServiceEvent#UNREGISTERING} events are then fired in the order of the services.
+	 * Services which have already been unregistered are ignored.
+	 * </p>
+	 *
+	 * @param registrations The {@link ServiceRegistration} objects of the services
+	 *        returned by this framework.
+	 * @exception java.lang.IllegalArgumentException If a registration was not
+	 * created by this framework.
+	 * @see #registerServices(String[][], Object[], Dictionary[])
+	 * @since 3.9
+	 */
+	public void unregisterServices(ServiceRegistration<?>[] registrations) {
+		framework.getServiceRegistry().unregisterServices(registrations);
+	}
+
 	/**
 	 * Register a service with a single name.
 	 * This method registers the given service object with the given properties
@@ -584,10 +638,12 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 		checkValid();
 		if (reference == null)
 			throw new NullPointerException("A null service reference is not allowed."); //$NON-NLS-1$
-		synchronized (contextLock) {
-			if (servicesInUse == null)
-				// Cannot predict how many services a bundle will use, start with a small table.
-				servicesInUse = new HashMap<ServiceRegistrationImpl<?>, ServiceUse<?>>(10);
+		if (servicesInUse == null) {
+			synchronized (contextLock) {
+				if (servicesInUse == null)
+					// Cannot predict how many services a bundle will use, start with a small table.
+					servicesInUse = new ConcurrentHashMap<ServiceRegistrationImpl<?>, ServiceUse<?>>(10);
+			}
 		}
 
 		@SuppressWarnings("unchecked")
@@ -801,9 +857,7 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 	 * this context.
 	 */
 	public Map<ServiceRegistrationImpl<?>, ServiceUse<?>> getServicesInUseMap() {
-		synchronized (contextLock) {
-			return servicesInUse;
-		}
+		return servicesInUse;
 	}
 
 	/**
@@ -916,7 +970,7 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 	public Filter createFilter(String filter) throws InvalidSyntaxException {
 		checkValid();
 
-		return FilterImpl.newInstance(filter);
+		return framework.getFilterCache().getFilter(filter);
 	}
 
 	/**
@@ -251,4 +251,49 @@ public class Constants implements org.osgi.framework.Constants {
 	 */
 	public static final String REFRESH_DUPLICATE_BSN = "equinox.refresh.duplicate.bsn"; //$NON-NLS-1$
 
+	/**
+	 * Framework property used to specify the number of threads used to start the bundles
+	 * of a start level in parallel.  A value less than 2 (the default) starts the bundles
+	 * one at a time on the start level thread.  When enabled, the dependency sorted launch
+	 * order is recorded in a launch order snapshot and reused on the next launch.
+	 * @since 3.9
+	 */
+	public static final String STARTLEVEL_PARALLEL_THREADS = "equinox.startlevel.parallel.threads"; //$NON-NLS-1$
+
+	/**
+	 * Manifest header used by a bundle to opt out of parallel activation.  A bundle with
+	 * the value <code>false</code> is always started on the start level thread after all
+	 * bundles which are ordered before it have been started.
+	 * @since 3.9
+	 */
+	public static final String ECLIPSE_PARALLEL_ACTIVATION = "Eclipse-ParallelActivation"; //$NON-NLS-1$
+
+	/**
+	 * Framework property used to specify a comma separated list of additional service
+	 * property keys which are indexed by the service registry.  Service lookups with
+	 * filters that require a value for an indexed key only evaluate the filter against
+	 * the services with that value.  The service.id, service.pid and component.name
+	 * properties are always indexed.
+	 * @since 3.9
+	 */
+	public static final String SERVICE_INDEX_PROPERTIES = "equinox.service.index.properties"; //$NON-NLS-1$
+
+	/**
+	 * Framework property used to specify the maximum number of parsed filters which are
+	 * cached and shared by the callers creating a filter from the same filter string.
+	 * The default is 512.  A value of 0 disables the cache.
+	 * @since 3.9
+	 */
+	public static final String FILTER_CACHE_SIZE = "equinox.filter.cache.size"; //$NON-NLS-1$
+
+	/**
+	 * Framework property used to specify the number of threads used to deliver
+	 * asynchronous bundle and framework events.  With a value greater than 1 each
+	 * listener receives its events in order on a serial lane and the lanes of different
+	 * listeners are run in parallel.  A value less than 2 (the default) delivers the
+	 * events to all listeners on a single thread.
+	 * @since 3.9
+	 */
+	public static final String EVENT_DISPATCH_THREADS = "equinox.event.dispatch.threads"; //$NON-NLS-1$
+
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2012 IBM Corporation and others.
+ * Copyright (c) 2010, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -96,7 +96,8 @@ public class CoreResolverHookFactory implements ResolverHookFactory {
 					}
 				}
 			}
-		return new CoreResolverHook(hookRefs);
+		// abstain when no hook takes part so the resolve does not depend on hooks
+		return hookRefs.isEmpty() ? null : new CoreResolverHook(hookRefs);
 	}
 
 	void releaseHooks(List<HookReference> hookRefs) {
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.framework.internal.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * A bounded cache of parsed filters keyed by filter string.  Parsed filters
+ * are immutable so a single instance is shared by all callers creating a filter
+ * from the same string.  Each framework owns its cache so that it is sized
+ * from the framework's properties and released with the framework.
+ * <p>
+ * When the cache grows beyond its maximum size the least recently used filter
+ * is evicted.  Filters are parsed outside of the cache lock.
+ * </p>
+ */
+public final class FilterCache {
+	private final Map<String, FilterImpl> filters;
+	private final int maxSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a filter cache.
+	 * @param maxSize the maximum number of filters to cache; a value less
+	 * than 1 disables the cache
+	 */
+	FilterCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.filters = new LinkedHashMap<String, FilterImpl>(maxSize > 0 ? maxSize * 4 / 3 + 1 : 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, FilterImpl> eldest) {
+				if (size() <= maxSize)
+					return false;
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the filter for a filter string, parsing and caching it if it
+	 * is not already cached.
+	 * @param filterString the filter string
+	 * @return the parsed filter
+	 * @throws InvalidSyntaxException if the filter string cannot be parsed
+	 */
+	public FilterImpl getFilter(String filterString) throws InvalidSyntaxException {
+		if (maxSize < 1)
+			return FilterImpl.newInstance(filterString);
+		FilterImpl filter;
+		synchronized (filters) {
+			filter = filters.get(filterString);
+		}
+		if (filter != null) {
+			hits.incrementAndGet();
+			return filter;
+		}
+		misses.incrementAndGet();
+		filter = FilterImpl.newInstance(filterString);
+		synchronized (filters) {
+			FilterImpl existing = filters.get(filterString);
+			if (existing != null)
+				return existing;
+			filters.put(filterString, filter);
+		}
+		return filter;
+	}
+
+	/**
+	 * Removes all filters from the cache.  The hit, miss and eviction counts are not reset.
+	 */
+	public void clear() {
+		synchronized (filters) {
+			filters.clear();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of filters cached.
+	 * @return the maximum number of filters cached; a value less than 1 if the cache is disabled
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the number of filters cached.
+	 * @return the number of filters cached
+	 */
+	public int getSize() {
+		synchronized (filters) {
+			return filters.size();
+		}
+	}
+
+	/**
+	 * Returns the number of filters found in the cache.
+	 * @return the number of filters found in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of filters which had to be parsed.
+	 * @return the number of filters which had to be parsed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of filters evicted from the cache.
+	 * @return the number of filters evicted from the cache
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the ratio of the filters found in the cache to all filters requested.
+	 * @return the hit ratio between 0 and 1 or 0 if no filters were requested
+	 */
+	public double getHitRatio() {
+		long currentHits = hits.get();
+		long total = currentHits + misses.get();
+		return total == 0 ? 0 : (double) currentHits / total;
+	}
+
+	public String toString() {
+		return "FilterCache[size=" + getSize() + ", maxSize=" + maxSize + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", hitRatio=" + getHitRatio() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+	}
+}
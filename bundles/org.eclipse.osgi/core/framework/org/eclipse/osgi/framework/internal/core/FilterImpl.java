@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -195,8 +195,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 	public boolean matchCase(Dictionary<String, ?> dictionary) {
 		switch (op) {
 			case AND : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (!f.matchCase(dictionary)) {
 						return false;
 					}
@@ -206,8 +205,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			}
 
 			case OR : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (f.matchCase(dictionary)) {
 						return true;
 					}
@@ -261,8 +259,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 	public boolean matches(Map<String, ?> map) {
 		switch (op) {
 			case AND : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (!f.matches(map)) {
 						return false;
 					}
@@ -272,8 +269,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			}
 
 			case OR : {
-				FilterImpl[] filters = (FilterImpl[]) value;
-				for (FilterImpl f : filters) {
+				for (FilterImpl f : evaluationOrder) {
 					if (f.matches(map)) {
 						return true;
 					}
@@ -483,10 +479,136 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 	/* normalized filter string for topLevel Filter object */
 	private transient volatile String filterString;
 
+	/** operands of AND and OR in the order they are evaluated; the cheapest first */
+	private final FilterImpl[] evaluationOrder;
+	/** the relative cost of evaluating this filter */
+	private final int cost;
+	/** the filter value converted to the types it is compared with or null if operation is not EQUAL, APPROX, GREATER or LESS */
+	private final Object[] literals;
+	private static final int INTEGER_LITERAL = 0;
+	private static final int LONG_LITERAL = 1;
+	private static final int BYTE_LITERAL = 2;
+	private static final int SHORT_LITERAL = 3;
+	private static final int CHARACTER_LITERAL = 4;
+	private static final int FLOAT_LITERAL = 5;
+	private static final int DOUBLE_LITERAL = 6;
+	private static final int BOOLEAN_LITERAL = 7;
+	private static final int APPROX_LITERAL = 8;
+	private static final int OBJECT_LITERAL = 9;
+	private static final int NUM_LITERALS = 10;
+	/** marks a filter value which cannot be converted to a type */
+	private static final Object INVALID_LITERAL = new Object();
+
+	private static final Comparator<FilterImpl> COST_COMPARATOR = new Comparator<FilterImpl>() {
+		public int compare(FilterImpl f1, FilterImpl f2) {
+			return f1.cost < f2.cost ? -1 : (f1.cost == f2.cost ? 0 : 1);
+		}
+	};
+
 	FilterImpl(int operation, String attr, Object value) {
 		this.op = operation;
 		this.attr = attr;
 		this.value = value;
+		FilterImpl[] order = null;
+		Object[] converted = null;
+		int total = 0;
+		switch (operation) {
+			case AND :
+			case OR : {
+				FilterImpl[] filters = (FilterImpl[]) value;
+				// sorting is stable so operands of equal cost keep their order
+				order = filters.clone();
+				Arrays.sort(order, COST_COMPARATOR);
+				for (FilterImpl f : filters) {
+					total += f.cost;
+				}
+				break;
+			}
+			case NOT :
+				total = ((FilterImpl) value).cost + 1;
+				break;
+			case PRESENT :
+				total = 1;
+				break;
+			case SUBSTRING :
+				total = 3;
+				break;
+			default :
+				converted = new Object[NUM_LITERALS];
+				total = 2;
+		}
+		this.evaluationOrder = order;
+		this.literals = converted;
+		this.cost = total;
+	}
+
+	/**
+	 * Returns the filter value converted for a comparison with values of the
+	 * specified literal type.  The conversion is done once and cached.
+	 *
+	 * @param type The literal type.
+	 * @return The converted filter value or INVALID_LITERAL if the filter value 
+	 * cannot be converted to the type.
+	 */
+	private Object getLiteral(int type) {
+		Object literal = literals[type];
+		if (literal == null) {
+			// the converted values are immutable so a racing conversion is harmless
+			literal = convertLiteral(type, (String) value);
+			literals[type] = literal;
+		}
+		return literal;
+	}
+
+	private static Object convertLiteral(int type, String literal) {
+		try {
+			switch (type) {
+				case INTEGER_LITERAL :
+					return new Integer(Integer.parseInt(literal.trim()));
+				case LONG_LITERAL :
+					return new Long(Long.parseLong(literal.trim()));
+				case BYTE_LITERAL :
+					return new Byte(Byte.parseByte(literal.trim()));
+				case SHORT_LITERAL :
+					return new Short(Short.parseShort(literal.trim()));
+				case CHARACTER_LITERAL :
+					return new Character(literal.charAt(0));
+				case FLOAT_LITERAL :
+					return new Float(Float.parseFloat(literal.trim()));
+				case DOUBLE_LITERAL :
+					return new Double(Double.parseDouble(literal.trim()));
+				case BOOLEAN_LITERAL :
+					return Boolean.valueOf(literal.trim());
+				case APPROX_LITERAL :
+					return approxString(literal);
+			}
+		} catch (IllegalArgumentException e) {
+			// fall through to invalid
+		} catch (IndexOutOfBoundsException e) {
+			// fall through to invalid
+		}
+		return INVALID_LITERAL;
+	}
+
+	/**
+	 * Returns the filter value converted to the class of a property value
+	 * using its valueOf method or String constructor.  Only the last conversion
+	 * to a java.* class is cached.  Filters may be shared so caching the values
+	 * of other classes would pin their class loaders.
+	 *
+	 * @param target The class of the property value.
+	 * @return The converted filter value or null if it cannot be converted.
+	 */
+	private Object getObjectLiteral(Class<?> target) {
+		Object literal = literals[OBJECT_LITERAL];
+		if ((literal instanceof ObjectLiteral) && (((ObjectLiteral) literal).type == target)) {
+			return ((ObjectLiteral) literal).value;
+		}
+		Object converted = valueOf(target, (String) value);
+		if (target.getName().startsWith("java.")) { //$NON-NLS-1$
+			literals[OBJECT_LITERAL] = new ObjectLiteral(target, converted);
+		}
+		return converted;
 	}
 
 	/**
@@ -773,7 +895,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 				}
 
 				string = approxString(string);
-				String string2 = approxString((String) value2);
+				String string2 = (String) getLiteral(APPROX_LITERAL);
 
 				return string.equalsIgnoreCase(string2);
 			}
@@ -802,12 +924,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		int intval2;
-		try {
-			intval2 = Integer.parseInt(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object literal = getLiteral(INTEGER_LITERAL);
+		if (literal == INVALID_LITERAL) {
 			return false;
 		}
+		int intval2 = ((Integer) literal).intValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -846,12 +967,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		long longval2;
-		try {
-			longval2 = Long.parseLong(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object literal = getLiteral(LONG_LITERAL);
+		if (literal == INVALID_LITERAL) {
 			return false;
 		}
+		long longval2 = ((Long) literal).longValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -890,12 +1010,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		byte byteval2;
-		try {
-			byteval2 = Byte.parseByte(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object literal = getLiteral(BYTE_LITERAL);
+		if (literal == INVALID_LITERAL) {
 			return false;
 		}
+		byte byteval2 = ((Byte) literal).byteValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -934,12 +1053,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		short shortval2;
-		try {
-			shortval2 = Short.parseShort(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object literal = getLiteral(SHORT_LITERAL);
+		if (literal == INVALID_LITERAL) {
 			return false;
 		}
+		short shortval2 = ((Short) literal).shortValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -978,12 +1096,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		char charval2;
-		try {
-			charval2 = ((String) value2).charAt(0);
-		} catch (IndexOutOfBoundsException e) {
+		Object literal = getLiteral(CHARACTER_LITERAL);
+		if (literal == INVALID_LITERAL) {
 			return false;
 		}
+		char charval2 = ((Character) literal).charValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1022,7 +1139,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		boolean boolval2 = Boolean.valueOf(((String) value2).trim()).booleanValue();
+		boolean boolval2 = ((Boolean) getLiteral(BOOLEAN_LITERAL)).booleanValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1061,12 +1178,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		float floatval2;
-		try {
-			floatval2 = Float.parseFloat(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object literal = getLiteral(FLOAT_LITERAL);
+		if (literal == INVALID_LITERAL) {
 			return false;
 		}
+		float floatval2 = ((Float) literal).floatValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1105,12 +1221,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			return false;
 		}
 
-		double doubleval2;
-		try {
-			doubleval2 = Double.parseDouble(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object literal = getLiteral(DOUBLE_LITERAL);
+		if (literal == INVALID_LITERAL) {
 			return false;
 		}
+		double doubleval2 = ((Double) literal).doubleValue();
 		switch (operation) {
 			case EQUAL : {
 				if (Debug.DEBUG_FILTER) {
@@ -1196,7 +1311,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			}
 			return false;
 		}
-		value2 = valueOf(value1.getClass(), (String) value2);
+		value2 = getObjectLiteral(value1.getClass());
 		if (value2 == null) {
 			return false;
 		}
@@ -1242,7 +1357,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 			}
 			return false;
 		}
-		value2 = valueOf(value1.getClass(), (String) value2);
+		value2 = getObjectLiteral(value1.getClass());
 		if (value2 == null) {
 			return false;
 		}
@@ -1736,6 +1851,19 @@ public class FilterImpl implements Filter /* since Framework 1.1 */{
 		}
 	}
 
+	/**
+	 * A filter value converted to the class of a property value.
+	 */
+	private static class ObjectLiteral {
+		final Class<?> type;
+		final Object value;
+
+		ObjectLiteral(Class<?> type, Object value) {
+			this.type = type;
+			this.value = value;
+		}
+	}
+
 	private static class SetAccessibleAction implements PrivilegedAction<Object> {
 		private final AccessibleObject accessible;
 
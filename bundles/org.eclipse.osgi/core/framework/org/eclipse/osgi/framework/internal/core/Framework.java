@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2012 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -76,6 +76,10 @@ public class Framework implements EventPublisher, Runnable {
 	protected StartLevelManager startLevelManager;
 	/** The ServiceRegistry */
 	private volatile ServiceRegistry serviceRegistry;
+	/** The filters created by bundle contexts and service listeners */
+	private volatile FilterCache filterCache;
+	/** The default maximum number of cached filters */
+	private static final int DEFAULT_FILTER_CACHE_SIZE = 512;
 	private final int BSN_VERSION;
 	private static final int BSN_VERSION_SINGLE = 1;
 	private static final int BSN_VERSION_MULTIPLE = 2;
@@ -213,9 +217,23 @@ public class Framework implements EventPublisher, Runnable {
 			Profile.logTime("Framework.initialze()", "done init props & new PermissionAdminImpl"); //$NON-NLS-1$//$NON-NLS-2$
 		startLevelManager = new StartLevelManager(this);
 		/* create the event manager and top level event dispatchers */
-		eventManager = new EventManager("Framework Event Dispatcher"); //$NON-NLS-1$
+		int dispatchThreads;
+		try {
+			dispatchThreads = Integer.parseInt(FrameworkProperties.getProperty(Constants.EVENT_DISPATCH_THREADS, "1")); //$NON-NLS-1$
+		} catch (NumberFormatException e) {
+			dispatchThreads = 1;
+		}
+		eventManager = new EventManager("Framework Event Dispatcher", null, dispatchThreads); //$NON-NLS-1$
 		if (Profile.PROFILE && Profile.STARTUP)
 			Profile.logTime("Framework.initialze()", "done new EventManager"); //$NON-NLS-1$ //$NON-NLS-2$
+		/* create the filter cache */
+		int filterCacheSize;
+		try {
+			filterCacheSize = Integer.parseInt(FrameworkProperties.getProperty(Constants.FILTER_CACHE_SIZE, Integer.toString(DEFAULT_FILTER_CACHE_SIZE)).trim());
+		} catch (NumberFormatException e) {
+			filterCacheSize = DEFAULT_FILTER_CACHE_SIZE;
+		}
+		filterCache = new FilterCache(filterCacheSize);
 		/* create the service registry */
 		serviceRegistry = new ServiceRegistry(this);
 		// Initialize the installLock; there is no way of knowing 
@@ -268,6 +286,14 @@ public class Framework implements EventPublisher, Runnable {
 		return serviceRegistry;
 	}
 
+	/**
+	 * Returns the cache of the filters created by the bundle contexts of this framework.
+	 * @return the filter cache
+	 */
+	public FilterCache getFilterCache() {
+		return filterCache;
+	}
+
 	private void setNLSFrameworkLog() {
 		try {
 			Field frameworkLogField = NLS.class.getDeclaredField("frameworkLog"); //$NON-NLS-1$
@@ -609,6 +635,7 @@ public class Framework implements EventPublisher, Runnable {
 			bundles.removeAllBundles();
 		}
 		serviceRegistry = null;
+		filterCache.clear();
 		allBundleListeners.clear();
 		allSyncBundleListeners.clear();
 		allFrameworkListeners.clear();
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.framework.internal.core;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.StateHelper;
+
+/**
+ * A snapshot of the information derived from the resolved wiring which the
+ * start-level manager needs to launch and shutdown the framework.  The snapshot
+ * records the dependency sorted launch order of the installed bundles, their start-levels
+ * and status flags and, for each bundle, the bundles of the same start-level it depends on.
+ * <p>
+ * A snapshot is only valid for the state time stamp it was created with and only
+ * while the installed bundles have the recorded start-levels and status.  This allows the
+ * framework to avoid sorting the bundles and walking the wiring of the complete
+ * state on each launch and shutdown when nothing has changed.
+ * </p>
+ * <p>
+ * The snapshot is only kept while parallel activation is enabled
+ * (see {@link Constants#STARTLEVEL_PARALLEL_THREADS}).
+ * </p>
+ */
+class LaunchOrderSnapshot {
+	private static final byte VERSION = 1;
+	private static final long[] EMPTY_IDS = new long[0];
+
+	private final long stateTimeStamp;
+	// the bundle ids in dependency sorted launch order
+	private final long[] ids;
+	private final int[] startLevels;
+	private final int[] status;
+	// the bundle ids of the same start-level each bundle depends on; keyed by bundle id
+	private final Map<Long, long[]> prerequisites;
+
+	private LaunchOrderSnapshot(long stateTimeStamp, long[] ids, int[] startLevels, int[] status, Map<Long, long[]> prerequisites) {
+		this.stateTimeStamp = stateTimeStamp;
+		this.ids = ids;
+		this.startLevels = startLevels;
+		this.status = status;
+		this.prerequisites = prerequisites;
+	}
+
+	/**
+	 * Creates a snapshot from the dependency sorted bundles.
+	 * @param sorted the installed bundles sorted by start-level and dependencies
+	 * @param stateTimeStamp the time stamp of the state the bundles were sorted with
+	 * @param helper the state helper used to find the prerequisites of each bundle
+	 * @return a new snapshot
+	 */
+	static LaunchOrderSnapshot create(AbstractBundle[] sorted, long stateTimeStamp, StateHelper helper) {
+		long[] ids = new long[sorted.length];
+		int[] startLevels = new int[sorted.length];
+		int[] status = new int[sorted.length];
+		Map<Long, long[]> prerequisites = new HashMap<Long, long[]>(sorted.length * 4 / 3 + 1);
+		Map<Long, Integer> levels = new HashMap<Long, Integer>(sorted.length * 4 / 3 + 1);
+		for (int i = 0; i < sorted.length; i++) {
+			ids[i] = sorted[i].getBundleId();
+			startLevels[i] = sorted[i].getInternalStartLevel();
+			status[i] = sorted[i].getBundleData().getStatus();
+			levels.put(new Long(ids[i]), new Integer(startLevels[i]));
+		}
+		for (int i = 0; i < sorted.length; i++) {
+			BundleDescription desc = sorted[i].getBundleDescription();
+			if (desc == null)
+				continue;
+			BundleDescription[] prereqs = helper.getPrerequisites(new BundleDescription[] {desc});
+			long[] sameLevel = new long[prereqs.length];
+			int count = 0;
+			for (int j = 0; j < prereqs.length; j++) {
+				long id = prereqs[j].getBundleId();
+				Integer level = levels.get(new Long(id));
+				if (id != ids[i] && level != null && level.intValue() == startLevels[i])
+					sameLevel[count++] = id;
+			}
+			long[] result = new long[count];
+			System.arraycopy(sameLevel, 0, result, 0, count);
+			prerequisites.put(new Long(ids[i]), result);
+		}
+		return new LaunchOrderSnapshot(stateTimeStamp, ids, startLevels, status, prerequisites);
+	}
+
+	/**
+	 * Reads a snapshot from a file.
+	 * @param file the snapshot file
+	 * @param stateTimeStamp the time stamp of the current state
+	 * @return the snapshot or <code>null</code> if the file does not exist or was created for a different state
+	 */
+	static LaunchOrderSnapshot read(File file, long stateTimeStamp) {
+		if (file == null || !file.exists())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readByte() != VERSION)
+				return null;
+			if (in.readLong() != stateTimeStamp)
+				return null;
+			int size = in.readInt();
+			long[] ids = new long[size];
+			int[] startLevels = new int[size];
+			int[] status = new int[size];
+			Map<Long, long[]> prerequisites = new HashMap<Long, long[]>(size * 4 / 3 + 1);
+			for (int i = 0; i < size; i++) {
+				ids[i] = in.readLong();
+				startLevels[i] = in.readInt();
+				status[i] = in.readInt();
+				int numPrereqs = in.readInt();
+				if (numPrereqs < 0)
+					continue;
+				long[] prereqs = numPrereqs == 0 ? EMPTY_IDS : new long[numPrereqs];
+				for (int j = 0; j < numPrereqs; j++)
+					prereqs[j] = in.readLong();
+				prerequisites.put(new Long(ids[i]), prereqs);
+			}
+			return new LaunchOrderSnapshot(stateTimeStamp, ids, startLevels, status, prerequisites);
+		} catch (IOException e) {
+			if (Debug.DEBUG_STARTLEVEL)
+				Debug.printStackTrace(e);
+			return null;
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing
+				}
+		}
+	}
+
+	/**
+	 * Writes this snapshot to a file.  The snapshot is written to a temporary file which
+	 * then replaces the file so that a partially written snapshot is never read.  Any error
+	 * writing the file is ignored; the snapshot is only an optimization.
+	 * @param file the snapshot file
+	 */
+	void write(File file) {
+		if (file == null)
+			return;
+		File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp"); //$NON-NLS-1$
+		boolean written = false;
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			out.writeByte(VERSION);
+			out.writeLong(stateTimeStamp);
+			out.writeInt(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				out.writeLong(ids[i]);
+				out.writeInt(startLevels[i]);
+				out.writeInt(status[i]);
+				long[] prereqs = prerequisites.get(new Long(ids[i]));
+				if (prereqs == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(prereqs.length);
+					for (int j = 0; j < prereqs.length; j++)
+						out.writeLong(prereqs[j]);
+				}
+			}
+			out.close();
+			out = null;
+			written = true;
+		} catch (IOException e) {
+			if (Debug.DEBUG_STARTLEVEL)
+				Debug.printStackTrace(e);
+		} finally {
+			if (out != null)
+				try {
+					out.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			if (!written || !replace(tmpFile, file))
+				tmpFile.delete();
+		}
+	}
+
+	/*
+	 * Replaces the file with the temporary file.  The rename fails on some platforms if the
+	 * file exists; the file is deleted and the rename is tried again.
+	 */
+	private static boolean replace(File tmpFile, File file) {
+		if (tmpFile.renameTo(file))
+			return true;
+		file.delete();
+		return tmpFile.renameTo(file);
+	}
+
+	long getStateTimeStamp() {
+		return stateTimeStamp;
+	}
+
+	/**
+	 * Returns the installed bundles in the recorded launch order.
+	 * @param installed the currently installed bundles
+	 * @return the installed bundles in launch order or <code>null</code> if the installed bundles,
+	 * their start-levels or status do not match this snapshot
+	 */
+	AbstractBundle[] getSortedBundles(AbstractBundle[] installed) {
+		if (installed.length != ids.length)
+			return null;
+		Map<Long, AbstractBundle> byId = new HashMap<Long, AbstractBundle>(installed.length * 4 / 3 + 1);
+		for (int i = 0; i < installed.length; i++)
+			byId.put(new Long(installed[i].getBundleId()), installed[i]);
+		AbstractBundle[] result = new AbstractBundle[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			AbstractBundle bundle = byId.get(new Long(ids[i]));
+			if (bundle == null || bundle.getInternalStartLevel() != startLevels[i] || bundle.getBundleData().getStatus() != status[i])
+				return null;
+			result[i] = bundle;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids of the bundles with the same start-level the specified bundle depends on.
+	 * @param bundleId the bundle id
+	 * @return the prerequisite bundle ids or <code>null</code> if the bundle is unknown to this snapshot
+	 */
+	long[] getPrerequisites(long bundleId) {
+		return prerequisites.get(new Long(bundleId));
+	}
+}
@@ -416,6 +416,24 @@ public class PackageAdminImpl implements PackageAdmin, FrameworkWiring {
 				}
 			}
 		}
+		// newly resolved bundles may provide classes which could not be found before
+		// by loaders that can dynamically wire to them
+		if (bundleDeltas.length > 0)
+			incrementDynamicWiringGenerations();
+	}
+
+	private void incrementDynamicWiringGenerations() {
+		AbstractBundle[] bundles = framework.getAllBundles();
+		if (bundles == null)
+			return;
+		for (int i = 0; i < bundles.length; i++) {
+			if (!(bundles[i] instanceof BundleHost) || !bundles[i].isResolved())
+				continue;
+			BundleLoaderProxy proxy = ((BundleHost) bundles[i]).getLoaderProxy();
+			BundleLoader loader = proxy == null ? null : proxy.getBasicBundleLoader();
+			if (loader != null && loader.isOpenToNewWires())
+				proxy.incrementWiringGeneration(false);
+		}
 	}
 
 	private AbstractBundle[] processDelta(BundleDelta[] bundleDeltas, boolean refreshPackages, State systemState) {
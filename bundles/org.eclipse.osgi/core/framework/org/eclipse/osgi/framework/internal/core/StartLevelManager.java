@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2011 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,9 +11,11 @@
 
 package org.eclipse.osgi.framework.internal.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.eventmgr.*;
 import org.eclipse.osgi.service.resolver.BundleDescription;
@@ -33,6 +35,8 @@ import org.osgi.service.startlevel.StartLevel;
  * registered in the framework.
  */
 public class StartLevelManager implements EventDispatcher<Object, Object, StartLevelEvent>, StartLevel {
+	/** The name of the launch order snapshot file in the system bundle data area */
+	private static final String LAUNCH_ORDER_SNAPSHOT = ".launchorder"; //$NON-NLS-1$
 	protected static EventManager eventManager;
 	protected static Map<Object, Object> startLevelListeners;
 
@@ -43,6 +47,13 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 	/** The currently active framework start level */
 	private int activeSL = 0;
 
+	/** The number of threads used to start the bundles of a start level; less than 2 disables parallel activation */
+	private int parallelThreads = 0;
+
+	/** The launch order snapshot for the current state; null if no valid snapshot is available */
+	private LaunchOrderSnapshot snapshot;
+	private boolean snapshotRead = false;
+
 	/** An object used to lock the active startlevel while it is being referenced */
 	private final Object lock = new Object();
 	private final Framework framework;
@@ -54,6 +65,11 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 
 	protected void initialize() {
 		initialBundleStartLevel = framework.adaptor.getInitialBundleStartLevel();
+		try {
+			parallelThreads = Integer.parseInt(FrameworkProperties.getProperty(Constants.STARTLEVEL_PARALLEL_THREADS, "0")); //$NON-NLS-1$
+		} catch (NumberFormatException e) {
+			parallelThreads = 0;
+		}
 
 		// create an event manager and a start level listener
 		// note that we do not pass the ContextFinder because it is set each time doSetStartLevel is called
@@ -240,7 +256,7 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 						tempSL++;
 						// Note that we must get a new list of installed bundles each time;
 						// this is because additional bundles could have been installed from the previous start-level
-						incFWSL(i + 1, getInstalledBundles(framework.bundles, false));
+						incFWSL(i + 1, getLaunchBundles());
 					}
 					if (launching) {
 						framework.systemBundle.state = Bundle.ACTIVE;
@@ -477,12 +493,84 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 			 * so that bundles are started in ascending order.
 			 */
 			Util.sort(installedBundles, 0, installedBundles.length);
-			if (sortByDependency)
+			if (!sortByDependency)
+				return installedBundles;
+			if (!isSnapshotEnabled()) {
 				sortByDependency(installedBundles);
+				return installedBundles;
+			}
+			// use the launch order recorded by the snapshot if nothing has changed since it was taken
+			LaunchOrderSnapshot current = getSnapshot();
+			AbstractBundle[] sorted = current == null ? null : current.getSortedBundles(installedBundles);
+			if (sorted != null)
+				return sorted;
+			sortByDependency(installedBundles);
 		}
+		saveSnapshot(installedBundles);
 		return installedBundles;
 	}
 
+	/**
+	 * Build an array of all installed bundles to launch.  When parallel activation is
+	 * enabled and the launch order snapshot is valid then the dependency sorted order recorded
+	 * by the snapshot is returned; this orders the bundles a bundle depends on before the bundle
+	 * without walking the wiring.  Otherwise the bundles are sorted by increasing startlevel/id order.
+	 * @return A sorted array of bundles
+	 */
+	AbstractBundle[] getLaunchBundles() {
+		AbstractBundle[] installedBundles = getInstalledBundles(framework.bundles, false);
+		if (!isSnapshotEnabled())
+			return installedBundles;
+		LaunchOrderSnapshot current = getSnapshot();
+		AbstractBundle[] sorted = current == null ? null : current.getSortedBundles(installedBundles);
+		return sorted == null ? installedBundles : sorted;
+	}
+
+	/*
+	 * The launch order snapshot is only used to order and find the prerequisites of
+	 * bundles started in parallel; it is not read or written otherwise.
+	 */
+	private boolean isSnapshotEnabled() {
+		return parallelThreads > 1;
+	}
+
+	/**
+	 * Returns the launch order snapshot for the current state.  The persisted snapshot
+	 * is read the first time this method is called.
+	 * @return the snapshot or <code>null</code> if there is no snapshot for the current state
+	 */
+	private synchronized LaunchOrderSnapshot getSnapshot() {
+		long timeStamp = framework.adaptor.getState().getTimeStamp();
+		if (snapshot != null && snapshot.getStateTimeStamp() != timeStamp)
+			snapshot = null;
+		if (snapshot == null && !snapshotRead) {
+			snapshotRead = true;
+			snapshot = LaunchOrderSnapshot.read(getSnapshotFile(), timeStamp);
+		}
+		return snapshot;
+	}
+
+	private void saveSnapshot(AbstractBundle[] sorted) {
+		LaunchOrderSnapshot created = null;
+		try {
+			created = LaunchOrderSnapshot.create(sorted, framework.adaptor.getState().getTimeStamp(), framework.adaptor.getPlatformAdmin().getStateHelper());
+			created.write(getSnapshotFile());
+		} catch (RuntimeException e) {
+			// the snapshot is only an optimization; never fail a start-level change because of it
+			created = null;
+			if (Debug.DEBUG_STARTLEVEL)
+				Debug.printStackTrace(e);
+		}
+		synchronized (this) {
+			snapshotRead = true;
+			snapshot = created;
+		}
+	}
+
+	private File getSnapshotFile() {
+		return framework.systemBundle.getBundleData().getDataFile(LAUNCH_ORDER_SNAPSHOT);
+	}
+
 	void sortByDependency(AbstractBundle[] bundles) {
 		synchronized (framework.bundles) {
 			if (bundles.length <= 1)
@@ -541,7 +629,10 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 		// first resume the lazy activated bundles
 		resumeBundles(launch, true, currentSL);
 		// now resume all non lazy bundles
-		resumeBundles(launch, false, currentSL);
+		if (parallelThreads > 1)
+			resumeBundlesParallel(launch, currentSL);
+		else
+			resumeBundles(launch, false, currentSL);
 	}
 
 	private void resumeBundles(AbstractBundle[] launch, boolean lazyOnly, int currentSL) {
@@ -564,6 +655,145 @@ public class StartLevelManager implements EventDispatcher<Object, Object, StartL
 		}
 	}
 
+	/**
+	 * Resumes the non lazy bundles of the specified start-level using a bounded pool of threads.
+	 * A bundle is only resumed after the bundles it depends on that are ordered before it in the
+	 * launch list have been resumed.  Bundles which opt out of parallel activation are resumed
+	 * on the calling thread once all bundles ordered before them have been resumed.  This method
+	 * returns once all bundles of the start-level have been resumed.
+	 * @param launch a list of Bundle Objects to launch
+	 * @param currentSL the current start-level that the bundles must meet to be resumed
+	 */
+	private void resumeBundlesParallel(AbstractBundle[] launch, int currentSL) {
+		ExecutorService executor = null;
+		// the recorded prerequisites avoid walking the wiring of each bundle
+		LaunchOrderSnapshot current = getSnapshot();
+		if (current != null && current.getSortedBundles(launch) == null)
+			current = null;
+		// the completion latches of the bundles submitted since the last barrier keyed by bundle id
+		Map<Long, CountDownLatch> submitted = new HashMap<Long, CountDownLatch>();
+		try {
+			for (int i = 0; i < launch.length && !framework.isForcedRestart(); i++) {
+				int bsl = launch[i].getInternalStartLevel();
+				if (bsl < currentSL) {
+					// skip bundles who should have already been started
+					continue;
+				} else if (bsl > currentSL) {
+					// can stop resuming bundles since any remaining bundles have a greater startlevel than the framework active startlevel
+					break;
+				}
+				if (launch[i].isLazyStart())
+					continue;
+				if (Debug.DEBUG_STARTLEVEL) {
+					Debug.println("SLL: Active sl = " + currentSL + "; Bundle " + launch[i].getBundleId() + " sl = " + bsl); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				}
+				if (!isParallelActivation(launch[i])) {
+					// wait for all the bundles ordered before this bundle
+					awaitAll(submitted.values());
+					submitted.clear();
+					framework.resumeBundle(launch[i]);
+					continue;
+				}
+				if (executor == null)
+					executor = Executors.newFixedThreadPool(parallelThreads, new StarterThreadFactory());
+				final AbstractBundle bundle = launch[i];
+				final Collection<CountDownLatch> prerequisites = getSubmittedPrerequisites(bundle, submitted, current);
+				final CountDownLatch done = new CountDownLatch(1);
+				submitted.put(new Long(bundle.getBundleId()), done);
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							awaitAll(prerequisites);
+							if (!framework.isForcedRestart())
+								framework.resumeBundle(bundle);
+						} catch (Throwable t) {
+							// allow the adaptor to handle this unexpected error
+							framework.adaptor.handleRuntimeError(t);
+						} finally {
+							done.countDown();
+						}
+					}
+				});
+			}
+			// do not advance the start-level until all bundles have been resumed
+			awaitAll(submitted.values());
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
+	}
+
+	private boolean isParallelActivation(AbstractBundle bundle) {
+		try {
+			Dictionary<String, String> manifest = bundle.getBundleData().getManifest();
+			return manifest == null || !"false".equalsIgnoreCase(manifest.get(Constants.ECLIPSE_PARALLEL_ACTIVATION)); //$NON-NLS-1$
+		} catch (BundleException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Returns the completion latches of the already submitted bundles which the specified bundle depends on.
+	 * Only bundles ordered before the bundle are considered, which prevents dependency cycles from deadlocking.
+	 */
+	private Collection<CountDownLatch> getSubmittedPrerequisites(AbstractBundle bundle, Map<Long, CountDownLatch> submitted, LaunchOrderSnapshot current) {
+		if (submitted.isEmpty())
+			return Collections.emptyList();
+		long[] prereqIds = current == null ? null : current.getPrerequisites(bundle.getBundleId());
+		if (prereqIds != null) {
+			List<CountDownLatch> result = new ArrayList<CountDownLatch>(prereqIds.length);
+			for (int i = 0; i < prereqIds.length; i++) {
+				CountDownLatch latch = submitted.get(new Long(prereqIds[i]));
+				if (latch != null)
+					result.add(latch);
+			}
+			return result;
+		}
+		BundleDescription desc = bundle.getBundleDescription();
+		if (desc == null)
+			// be safe and wait for everything submitted before the bundle
+			return new ArrayList<CountDownLatch>(submitted.values());
+		BundleDescription[] prereqs = framework.adaptor.getPlatformAdmin().getStateHelper().getPrerequisites(new BundleDescription[] {desc});
+		List<CountDownLatch> result = new ArrayList<CountDownLatch>();
+		for (int i = 0; i < prereqs.length; i++) {
+			CountDownLatch latch = submitted.get(new Long(prereqs[i].getBundleId()));
+			if (latch != null)
+				result.add(latch);
+		}
+		return result;
+	}
+
+	static void awaitAll(Collection<CountDownLatch> latches) {
+		boolean interrupted = false;
+		for (Iterator<CountDownLatch> iLatches = latches.iterator(); iLatches.hasNext();) {
+			CountDownLatch latch = iLatches.next();
+			while (true) {
+				try {
+					latch.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * Creates the threads used to start bundles in parallel.  The threads are created by the
+	 * start-level thread and therefore inherit its context class loader.
+	 */
+	private static class StarterThreadFactory implements ThreadFactory {
+		private int count = 0;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread result = new Thread(r, "Start Level Bundle Starter-" + (++count)); //$NON-NLS-1$
+			result.setDaemon(true);
+			return result;
+		}
+	}
+
 	/** 
 	 *  Decrement the active startlevel by one
 	 * @param decToSL -  the startlevel value to set the framework to
@@ -17,11 +17,12 @@ import java.net.URL;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.framework.adaptor.*;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.internal.core.*;
 import org.eclipse.osgi.framework.internal.core.Constants;
-import org.eclipse.osgi.framework.util.KeyedElement;
 import org.eclipse.osgi.framework.util.KeyedHashSet;
 import org.eclipse.osgi.internal.loader.buddy.PolicyHandler;
 import org.eclipse.osgi.internal.resolver.StateBuilder;
@@ -40,11 +41,12 @@ import org.osgi.framework.wiring.BundleWiring;
 public class BundleLoader implements ClassLoaderDelegate {
 	public final static String DEFAULT_PACKAGE = "."; //$NON-NLS-1$
 	public final static String JAVA_PACKAGE = "java."; //$NON-NLS-1$
-	public final static byte FLAG_IMPORTSINIT = 0x01;
 	public final static byte FLAG_HASDYNAMICIMPORTS = 0x02;
 	public final static byte FLAG_HASDYNAMICEIMPORTALL = 0x04;
 	public final static byte FLAG_CLOSED = 0x08;
 	public final static byte FLAG_LAZYTRIGGER = 0x10;
+	public final static String PROP_CLASS_NOT_FOUND_CACHE_SIZE = "osgi.classloader.notFoundCacheSize"; //$NON-NLS-1$
+	private final static int CLASS_NOT_FOUND_CACHE_SIZE = getClassNotFoundCacheSize();
 
 	public final static ClassContext CLASS_CONTEXT = AccessController.doPrivileged(new PrivilegedAction<ClassContext>() {
 		public ClassContext run() {
@@ -74,12 +76,14 @@ public class BundleLoader implements ClassLoaderDelegate {
 	final BundleLoaderProxy[] requiredBundles;
 	/* List of indexes into the requiredBundles list of reexported bundles */
 	final int[] reexportTable;
-	/* cache of required package sources. Key is packagename, value is PackageSource */
-	final private KeyedHashSet requiredSources;
+	/* index of required package sources. Key is packagename, value is PackageSource.
+	 * Entries are only ever added; the first source added for a package wins */
+	final private ConcurrentMap<String, PackageSource> requiredSources;
+	/* index of imported packages. Key is packagename, Value is PackageSource.
+	 * Built once for the wiring of the bundle; afterwards only dynamic import sources are added */
+	private volatile ConcurrentMap<String, PackageSource> importedSources;
 
 	// note that the following non-final must be access using synchronization
-	/* cache of imported packages. Key is packagename, Value is PackageSource */
-	private KeyedHashSet importedSources;
 	/* If not null, list of package stems to import dynamically. */
 	private String[] dynamicImportPackageStems;
 	/* If not null, list of package names to import dynamically. */
@@ -89,6 +93,8 @@ public class BundleLoader implements ClassLoaderDelegate {
 	/* The is the BundleClassLoader for the bundle */
 	private BundleClassLoader classloader;
 	private ClassLoader parent;
+	/* cache of class names which could not be found; null if disabled */
+	private final ClassNotFoundCache classNotFoundCache;
 
 	/**
 	 * Returns the package name from the specified class name.
@@ -126,6 +132,17 @@ public class BundleLoader implements ClassLoaderDelegate {
 		return DEFAULT_PACKAGE;
 	}
 
+	private static int getClassNotFoundCacheSize() {
+		String size = FrameworkProperties.getProperty(PROP_CLASS_NOT_FOUND_CACHE_SIZE);
+		if (size != null)
+			try {
+				return Integer.parseInt(size);
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		return 256;
+	}
+
 	/**
 	 * BundleLoader runtime constructor. This object is created lazily
 	 * when the first request for a resource is made to this bundle.
@@ -137,6 +154,7 @@ public class BundleLoader implements ClassLoaderDelegate {
 	protected BundleLoader(BundleHost bundle, BundleLoaderProxy proxy) throws BundleException {
 		this.bundle = bundle;
 		this.proxy = proxy;
+		this.classNotFoundCache = CLASS_NOT_FOUND_CACHE_SIZE > 0 ? new ClassNotFoundCache(CLASS_NOT_FOUND_CACHE_SIZE) : null;
 		try {
 			bundle.getBundleData().open(); /* make sure the BundleData is open */
 		} catch (IOException e) {
@@ -168,7 +186,7 @@ public class BundleLoader implements ClassLoaderDelegate {
 			} else {
 				reexportTable = null;
 			}
-			requiredSources = new KeyedHashSet(10, false);
+			requiredSources = new ConcurrentHashMap<String, PackageSource>();
 		} else {
 			requiredBundles = null;
 			reexportTable = null;
@@ -232,24 +250,39 @@ public class BundleLoader implements ClassLoaderDelegate {
 		}
 	}
 
-	public synchronized KeyedHashSet getImportedSources(KeyedHashSet visited) {
-		if ((loaderFlags & FLAG_IMPORTSINIT) != 0)
-			return importedSources;
+	/**
+	 * Returns the index of imported package sources.  The index is built once
+	 * for the wiring of the bundle and covers the resolved imports of the host
+	 * and its attached fragments.  The returned map must not be modified.
+	 * @param visited the bundles already visited while building package sources
+	 * @return the index of imported package sources.  Key is packagename, Value is PackageSource
+	 */
+	public Map<String, PackageSource> getImportedSources(KeyedHashSet visited) {
+		return getImportedSourcesIndex(visited);
+	}
+
+	private ConcurrentMap<String, PackageSource> getImportedSourcesIndex(KeyedHashSet visited) {
+		ConcurrentMap<String, PackageSource> result = importedSources;
+		if (result != null)
+			return result;
+		// build the index without holding the loader lock; only the first index built is published
 		BundleDescription bundleDesc = proxy.getBundleDescription();
 		ExportPackageDescription[] packages = bundleDesc.getResolvedImports();
-		if (packages != null && packages.length > 0) {
-			if (importedSources == null)
-				importedSources = new KeyedHashSet(packages.length, false);
+		result = new ConcurrentHashMap<String, PackageSource>(packages == null ? 16 : Math.max(16, packages.length * 4 / 3 + 1));
+		if (packages != null) {
 			for (int i = 0; i < packages.length; i++) {
 				if (packages[i].getExporter() == bundleDesc)
 					continue; // ignore imports resolved to this bundle
 				PackageSource source = createExportPackageSource(packages[i], visited);
 				if (source != null)
-					importedSources.add(source);
+					result.putIfAbsent(source.getId(), source);
 			}
 		}
-		loaderFlags |= FLAG_IMPORTSINIT;
-		return importedSources;
+		synchronized (this) {
+			if (importedSources == null)
+				importedSources = result;
+			return importedSources;
+		}
 	}
 
 	public synchronized boolean isLazyTriggerSet() {
@@ -319,6 +352,8 @@ public class BundleLoader implements ClassLoaderDelegate {
 			classloader.close();
 		if (policy != null)
 			policy.close(bundle.getFramework().getSystemBundleContext());
+		if (classNotFoundCache != null)
+			classNotFoundCache.clear();
 		loaderFlags |= FLAG_CLOSED; /* This indicates the BundleLoader is destroyed */
 	}
 
@@ -445,35 +480,49 @@ public class BundleLoader implements ClassLoaderDelegate {
 		}
 		if (result != null)
 			return result;
-		// 3) search the imported packages
-		PackageSource source = findImportedSource(pkgName, null);
-		if (source != null) {
-			// 3) found import source terminate search at the source
-			result = source.loadClass(name);
-			if (result != null)
-				return result;
+		// check if the class is already known to not be found in the current wiring generation
+		int generation = proxy.getWiringGeneration();
+		int cached = classNotFoundCache == null ? ClassNotFoundCache.NOT_CACHED : classNotFoundCache.lookup(name, generation);
+		if (cached == ClassNotFoundCache.NOT_FOUND_TERMINAL)
 			throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
-		}
-		// 4) search the required bundles
-		source = findRequiredSource(pkgName, null);
-		if (source != null)
-			// 4) attempt to load from source but continue on failure
-			result = source.loadClass(name);
-		// 5) search the local bundle
-		if (result == null)
-			result = findLocalClass(name);
-		if (result != null)
-			return result;
-		// 6) attempt to find a dynamic import source; only do this if a required source was not found
-		if (source == null) {
-			source = findDynamicSource(pkgName);
+		PackageSource source = null;
+		if (cached == ClassNotFoundCache.NOT_CACHED) {
+			// 3) search the imported packages
+			source = findImportedSource(pkgName, null);
 			if (source != null) {
+				// 3) found import source terminate search at the source
 				result = source.loadClass(name);
 				if (result != null)
 					return result;
-				// must throw CNFE if dynamic import source does not have the class
+				recordClassNotFound(name, ClassNotFoundCache.NOT_FOUND_TERMINAL, generation);
 				throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
 			}
+			// 4) search the required bundles
+			source = findRequiredSource(pkgName, null);
+			if (source != null)
+				// 4) attempt to load from source but continue on failure
+				result = source.loadClass(name);
+			// 5) search the local bundle
+			if (result == null)
+				result = findLocalClass(name);
+			if (result != null) {
+				// a recursive define of the class may have recorded it as not found (bug 345500)
+				if (classNotFoundCache != null)
+					classNotFoundCache.remove(name);
+				return result;
+			}
+			// 6) attempt to find a dynamic import source; only do this if a required source was not found
+			if (source == null) {
+				source = findDynamicSource(pkgName);
+				if (source != null) {
+					result = source.loadClass(name);
+					if (result != null)
+						return result;
+					// must throw CNFE if dynamic import source does not have the class
+					recordClassNotFound(name, ClassNotFoundCache.NOT_FOUND_TERMINAL, generation);
+					throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
+				}
+			}
 		}
 
 		if (result == null)
@@ -485,10 +534,12 @@ public class BundleLoader implements ClassLoaderDelegate {
 				// will not happen
 			}
 		// do buddy policy loading
-		if (result == null && policy != null)
+		if (result == null && policy != null && cached == ClassNotFoundCache.NOT_CACHED)
 			result = policy.doBuddyClassLoading(name);
 		if (result != null)
 			return result;
+		if (cached == ClassNotFoundCache.NOT_CACHED)
+			recordClassNotFound(name, ClassNotFoundCache.NOT_FOUND, generation);
 		// hack to support backwards compatibiility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
 		if (parentCL != null && !bootDelegation && ((checkParent && bundle.getFramework().compatibiltyBootDelegation) || isRequestFromVM()))
@@ -501,6 +552,32 @@ public class BundleLoader implements ClassLoaderDelegate {
 		throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
 	}
 
+	private void recordClassNotFound(String name, int type, int generation) {
+		if (classNotFoundCache == null)
+			return;
+		if (Debug.DEBUG_LOADER)
+			Debug.println("BundleLoader[" + this + "] caching class not found " + name); //$NON-NLS-1$ //$NON-NLS-2$
+		classNotFoundCache.record(name, type, generation);
+	}
+
+	/**
+	 * Returns true if this loader may gain access to new packages without being refreshed;
+	 * that is if it has dynamic imports or a buddy policy.
+	 * @return true if new wires may be added to this loader
+	 */
+	public final synchronized boolean isOpenToNewWires() {
+		return policy != null || (loaderFlags & FLAG_HASDYNAMICIMPORTS) != 0;
+	}
+
+	/**
+	 * Returns the cache of class names which could not be found by this loader.
+	 * The cache can be used to obtain the hit and miss counts of the cache.
+	 * @return the class not found cache or null if the cache is disabled.
+	 */
+	public ClassNotFoundCache getClassNotFoundCache() {
+		return classNotFoundCache;
+	}
+
 	@SuppressWarnings("unchecked")
 	private <E> E searchHooks(String name, int type) throws ClassNotFoundException, FileNotFoundException {
 		ClassLoaderDelegateHook[] delegateHooks = bundle.getFramework().getDelegateHooks();
@@ -740,14 +817,9 @@ public class BundleLoader implements ClassLoaderDelegate {
 		boolean subPackages = (options & BundleWiring.LISTRESOURCES_RECURSE) != 0;
 		List<String> packages = new ArrayList<String>();
 		// search imported package names
-		KeyedHashSet importSources = getImportedSources(null);
-		if (importSources != null) {
-			KeyedElement[] imports = importSources.elements();
-			for (KeyedElement keyedElement : imports) {
-				String id = ((PackageSource) keyedElement).getId();
-				if (id.equals(pkgName) || (subPackages && isSubPackage(pkgName, id)))
-					packages.add(id);
-			}
+		for (String id : getImportedSources(null).keySet()) {
+			if (id.equals(pkgName) || (subPackages && isSubPackage(pkgName, id)))
+				packages.add(id);
 		}
 
 		// now add package names from required bundles
@@ -1136,6 +1208,8 @@ public class BundleLoader implements ClassLoaderDelegate {
 		if (classpath != null)
 			classloader.attachFragment(fragment.getBundleData(), fragment.getProtectionDomain(), classpath);
 		initializeExports(exports, exportedPackages);
+		// the fragment may provide classes that could not be found before by this bundle or its dependents
+		proxy.incrementWiringGeneration(true);
 	}
 
 	/*
@@ -1153,12 +1227,7 @@ public class BundleLoader implements ClassLoaderDelegate {
 	}
 
 	private PackageSource findImportedSource(String pkgName, KeyedHashSet visited) {
-		KeyedHashSet imports = getImportedSources(visited);
-		if (imports == null)
-			return null;
-		synchronized (imports) {
-			return (PackageSource) imports.getByKey(pkgName);
-		}
+		return getImportedSources(visited).get(pkgName);
 	}
 
 	private PackageSource findDynamicSource(String pkgName) {
@@ -1166,13 +1235,12 @@ public class BundleLoader implements ClassLoaderDelegate {
 			ExportPackageDescription exportPackage = bundle.getFramework().getAdaptor().getState().linkDynamicImport(proxy.getBundleDescription(), pkgName);
 			if (exportPackage != null) {
 				PackageSource source = createExportPackageSource(exportPackage, null);
-				synchronized (this) {
-					if (importedSources == null)
-						importedSources = new KeyedHashSet(false);
-				}
-				synchronized (importedSources) {
-					importedSources.add(source);
-				}
+				PackageSource existing = getImportedSourcesIndex(null).putIfAbsent(source.getId(), source);
+				if (existing != null)
+					// another thread added a source first; use it
+					source = existing;
+				// a new wire invalidates the classes previously not found by this bundle
+				proxy.incrementWiringGeneration(false);
 				return source;
 			}
 		}
@@ -1182,11 +1250,9 @@ public class BundleLoader implements ClassLoaderDelegate {
 	private PackageSource findRequiredSource(String pkgName, KeyedHashSet visited) {
 		if (requiredBundles == null)
 			return null;
-		synchronized (requiredSources) {
-			PackageSource result = (PackageSource) requiredSources.getByKey(pkgName);
-			if (result != null)
-				return result.isNullSource() ? null : result;
-		}
+		PackageSource cached = requiredSources.get(pkgName);
+		if (cached != null)
+			return cached.isNullSource() ? null : cached;
 		if (visited == null)
 			visited = new KeyedHashSet(false);
 		visited.add(bundle); // always add ourselves so we do not recurse back to ourselves
@@ -1209,9 +1275,10 @@ public class BundleLoader implements ClassLoaderDelegate {
 			PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
 			source = createMultiSource(pkgName, srcs);
 		}
-		synchronized (requiredSources) {
-			requiredSources.add(source);
-		}
+		cached = requiredSources.putIfAbsent(pkgName, source);
+		if (cached != null)
+			// another thread added a source first; use it
+			source = cached;
 		return source.isNullSource() ? null : source;
 	}
 
@@ -1259,6 +1326,7 @@ public class BundleLoader implements ClassLoaderDelegate {
 		if (loader != null)
 			loader.close();
 		proxy.setStale();
+		proxy.incrementWiringGeneration(false);
 		// if proxy is not null then make sure to unset user object
 		// associated with the proxy in the state
 		BundleDescription description = proxy.getBundleDescription();
@@ -14,6 +14,7 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.osgi.framework.adaptor.BundleData;
 import org.eclipse.osgi.framework.internal.core.*;
 import org.eclipse.osgi.framework.internal.core.Constants;
@@ -34,6 +35,8 @@ import org.osgi.service.packageadmin.RequiredBundle;
  */
 public class BundleLoaderProxy implements RequiredBundle, BundleReference {
 	static SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
+	// The wiring generation; incremented each time the class space of the loader may have changed
+	private final AtomicInteger wiringGeneration = new AtomicInteger();
 	// The BundleLoader that this BundleLoaderProxy is managing
 	private BundleLoader loader;
 	// The Bundle that this BundleLoaderProxy is for
@@ -192,6 +195,45 @@ public class BundleLoaderProxy implements RequiredBundle, BundleReference {
 		return pkgSource;
 	}
 
+	/**
+	 * Returns the current wiring generation of this proxy.  The wiring generation is
+	 * incremented each time the class space of the loader of this proxy may have changed,
+	 * for example when a fragment is attached or a new dynamic import wire is created.
+	 * @return the current wiring generation
+	 */
+	public int getWiringGeneration() {
+		return wiringGeneration.get();
+	}
+
+	/**
+	 * Increments the wiring generation of this proxy.  This must be called each time the
+	 * class space of the loader of this proxy may have changed.
+	 * @param dependents if true then the wiring generation of each bundle which depends
+	 * on this bundle, directly or indirectly, is incremented also
+	 */
+	public void incrementWiringGeneration(boolean dependents) {
+		wiringGeneration.incrementAndGet();
+		if (!dependents)
+			return;
+		KeyedHashSet visited = new KeyedHashSet(false);
+		visited.add(bundle);
+		incrementDependentsWiringGeneration(description, visited);
+	}
+
+	private static void incrementDependentsWiringGeneration(BundleDescription description, KeyedHashSet visited) {
+		BundleDescription[] dependents = description.getDependents();
+		for (int i = 0; i < dependents.length; i++) {
+			Object userObject = dependents[i].getUserObject();
+			if (!(userObject instanceof BundleLoaderProxy))
+				continue;
+			BundleLoaderProxy dependent = (BundleLoaderProxy) userObject;
+			if (visited.add(dependent.bundle)) {
+				dependent.wiringGeneration.incrementAndGet();
+				incrementDependentsWiringGeneration(dependents[i], visited);
+			}
+		}
+	}
+
 	public boolean inUse() {
 		return (description.getDependents().length > 0) || ((bundle instanceof CompositeBase) && description.getResolvedImports().length > 0);
 	}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of class names which a BundleLoader failed to find.  This
+ * is used to avoid searching the complete class space of a bundle over and over
+ * again for classes that do not exist (e.g. Class.forName probes).
+ * <p>
+ * Each cache is tied to the wiring generation of its loader (see {@link BundleLoaderProxy#getWiringGeneration()}).
+ * Once the wiring generation changes all cached entries are discarded because the
+ * class space of the bundle may have changed.
+ * </p>
+ */
+public class ClassNotFoundCache {
+	/** The class is not in the cache */
+	public static final int NOT_CACHED = 0;
+	/** The class was not found by a package source which terminated the search */
+	public static final int NOT_FOUND_TERMINAL = 1;
+	/** The class was not found after searching all sources of the bundle */
+	public static final int NOT_FOUND = 2;
+
+	private final Map<String, Integer> notFound;
+	// allows remove to avoid synchronization when the cache is empty
+	private volatile boolean empty = true;
+	private int generation;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates a new cache which holds at most the specified number of class names.
+	 * The least recently used class names are evicted first.
+	 * @param maxSize the maximum number of class names to hold
+	 */
+	public ClassNotFoundCache(final int maxSize) {
+		this.notFound = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = -5024302734549233758L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Looks up the class name in the cache.
+	 * @param name the class name
+	 * @param currentGeneration the current wiring generation
+	 * @return one of {@link #NOT_CACHED}, {@link #NOT_FOUND_TERMINAL} or {@link #NOT_FOUND}
+	 */
+	public synchronized int lookup(String name, int currentGeneration) {
+		if (generation != currentGeneration) {
+			clear();
+			generation = currentGeneration;
+		}
+		Integer result = notFound.get(name);
+		if (result == null) {
+			misses++;
+			return NOT_CACHED;
+		}
+		hits++;
+		return result.intValue();
+	}
+
+	/**
+	 * Records a class name which could not be found.  The result is only recorded
+	 * if the wiring generation has not changed since the search for the class started.
+	 * @param name the class name
+	 * @param type one of {@link #NOT_FOUND_TERMINAL} or {@link #NOT_FOUND}
+	 * @param searchGeneration the wiring generation at the time the search started
+	 */
+	public synchronized void record(String name, int type, int searchGeneration) {
+		if (generation != searchGeneration)
+			return;
+		notFound.put(name, new Integer(type));
+		empty = false;
+	}
+
+	/**
+	 * Removes a class name from the cache.  This is used when a class
+	 * previously recorded as not found has been defined.
+	 * @param name the class name
+	 */
+	public void remove(String name) {
+		if (empty)
+			return;
+		synchronized (this) {
+			notFound.remove(name);
+			empty = notFound.isEmpty();
+		}
+	}
+
+	/**
+	 * Discards all cached class names.
+	 */
+	public synchronized void clear() {
+		notFound.clear();
+		empty = true;
+	}
+
+	/**
+	 * Returns the number of lookups which found the class name in the cache.
+	 * @return the number of cache hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups which did not find the class name in the cache.
+	 * @return the number of cache misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of class names currently in the cache.
+	 * @return the number of class names currently in the cache
+	 */
+	public synchronized int size() {
+		return notFound.size();
+	}
+
+	public String toString() {
+		return "ClassNotFoundCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
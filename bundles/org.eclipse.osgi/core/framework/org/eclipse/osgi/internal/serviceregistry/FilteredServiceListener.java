@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -33,6 +33,10 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 	private final boolean unfiltered;
 	/** an objectClass required by the filter */
 	private final String objectClass;
+	/** a service.id required by the filter */
+	private final Long serviceId;
+	/** a service.pid required by the filter */
+	private final String servicePid;
 	/** indicates whether the listener has been removed */
 	private volatile boolean removed;
 
@@ -49,8 +53,12 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		if (filterstring == null) {
 			this.filter = null;
 			this.objectClass = null;
+			this.serviceId = null;
+			this.servicePid = null;
 		} else {
-			FilterImpl filterImpl = FilterImpl.newInstance(filterstring);
+			FilterImpl filterImpl = context.getFramework().getFilterCache().getFilter(filterstring);
+			this.serviceId = unfiltered ? null : getRequiredServiceId(filterImpl);
+			this.servicePid = (unfiltered || (serviceId != null)) ? null : filterImpl.getPrimaryKeyValue(Constants.SERVICE_PID);
 			String clazz = filterImpl.getRequiredObjectClass();
 			if (unfiltered || (clazz == null)) {
 				this.objectClass = null;
@@ -84,7 +92,9 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 			}
 			return; // no class in this event matches a required part of the filter; we do not need to deliver this event
 		}
-		// TODO could short circuit service.id filters as well since the id is constant for a registration.
+		// the service.id is constant for a registration so a required service.id short circuits as well
+		if ((serviceId != null) && (serviceId.longValue() != reference.getRegistration().getId()))
+			return;
 
 		if (!ServiceRegistry.hasListenServicePermission(event, context))
 			return;
@@ -184,6 +194,34 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		return removed;
 	}
 
+	/**
+	 * Returns the objectClass required by the filter of this listener.
+	 * @return The interned objectClass required by the filter or <code>null</code> if the
+	 * listener must receive events for services of any class.
+	 */
+	String getObjectClass() {
+		return objectClass;
+	}
+
+	/**
+	 * Returns the service.id required by the filter of this listener.
+	 * @return The service.id required by the filter or <code>null</code> if the
+	 * filter does not require a service.id.
+	 */
+	Long getServiceId() {
+		return serviceId;
+	}
+
+	/**
+	 * Returns the service.pid required by the filter of this listener.  A service.pid
+	 * is only returned if the filter does not require a service.id.
+	 * @return The service.pid required by the filter or <code>null</code> if the
+	 * filter does not require a service.pid.
+	 */
+	String getServicePid() {
+		return servicePid;
+	}
+
 	/** 
 	 * Mark the service listener registration as removed.
 	 */
@@ -191,6 +229,24 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		removed = true;
 	}
 
+	/**
+	 * Returns the service.id required by a filter.  The filter value is compared
+	 * with the Long service.id property the same way the filter compares it.
+	 * @return The service.id required by the filter or <code>null</code> if the
+	 * filter does not require a service.id which can be parsed as a Long.
+	 */
+	private static Long getRequiredServiceId(FilterImpl filter) {
+		String id = filter.getPrimaryKeyValue(Constants.SERVICE_ID);
+		if (id == null) {
+			return null;
+		}
+		try {
+			return new Long(id.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Returns an objectClass filter string for the specified class name.
 	 * @return A filter string for the specified class name or <code>null</code> if the 
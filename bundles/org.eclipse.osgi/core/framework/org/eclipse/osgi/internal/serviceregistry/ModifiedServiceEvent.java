@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -54,6 +54,16 @@ class ModifiedServiceEvent extends ServiceEvent {
 		return modifiedEndMatch;
 	}
 
+	/**
+	 * Return the value of a previous service property.
+	 * 
+	 * @param key The property key.
+	 * @return The value of the property before the service was modified or null.
+	 */
+	Object getPreviousProperty(String key) {
+		return previousProperties.getProperty(key);
+	}
+
 	/**
 	 * Return if the specified filter matches the previous service 
 	 * properties.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -68,6 +68,8 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 
 	/** service id. */
 	private final long serviceid;
+	/** service id object used as the service.id property value and listener index key. */
+	private final Long serviceidObject;
 
 	/** service ranking. */
 	/* @GuardedBy("registrationLock") */
@@ -76,9 +78,10 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	/* internal object to use for synchronization */
 	private final Object registrationLock = new Object();
 
-	/** The registration state */
+	/** The registration state.  It is read without holding the lock by 
+	 * getService and ungetService. */
 	/* @GuardedBy("registrationLock") */
-	private int state;
+	private volatile int state;
 	private static final int REGISTERED = 0x00;
 	private static final int UNREGISTERING = 0x01;
 	private static final int UNREGISTERED = 0x02;
@@ -96,6 +99,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		this.clazzes = clazzes; /* must be set before calling createProperties. */
 		this.service = service;
 		this.serviceid = registry.getNextServiceId(); /* must be set before calling createProperties. */
+		this.serviceidObject = new Long(serviceid);
 		this.contextsUsing = new ArrayList<BundleContextImpl>(10);
 
 		synchronized (registrationLock) {
@@ -120,16 +124,39 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 				ref = reference; /* used to publish event outside sync */
 				this.properties = createProperties(props); /* must be valid after unregister is called. */
 			}
-			if (Debug.DEBUG_SERVICES) {
-				Debug.println("registerService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-			}
-			registry.addServiceRegistration(context, this);
+			publish();
 		}
 
 		/* must not hold the registrations lock when this event is published */
 		registry.publishServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, ref));
 	}
 
+	/**
+	 * Set the properties of this registration before it is published 
+	 * with other registrations by {@link ServiceRegistry#registerServices}.
+	 * 
+	 * @param props The properties for this service.
+	 * @exception IllegalArgumentException If the <tt>properties</tt>
+	 * parameter contains case variants of the same key name.
+	 */
+	void setRegistrationProperties(Dictionary<String, ?> props) {
+		synchronized (registrationLock) {
+			this.properties = createProperties(props); /* must be valid after unregister is called. */
+		}
+	}
+
+	/**
+	 * Add this registration to the service registry.
+	 * The caller must publish the REGISTERED event after releasing the registry lock.
+	 */
+	/* @GuardedBy("registry") */
+	void publish() {
+		if (Debug.DEBUG_SERVICES) {
+			Debug.println("registerService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		registry.addServiceRegistration(context, this);
+	}
+
 	/**
 	 * Update the properties associated with this service.
 	 *
@@ -165,7 +192,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 				previousProperties = this.properties;
 				this.properties = createProperties(props);
 			}
-			registry.modifyServiceRegistration(context, this);
+			registry.modifyServiceRegistration(context, this, previousProperties);
 		}
 		/* must not hold the registrationLock when this event is published */
 		registry.publishServiceEvent(new ModifiedServiceEvent(ref, previousProperties));
@@ -204,26 +231,50 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	public void unregister() {
 		final ServiceReferenceImpl<S> ref;
 		synchronized (registry) {
-			synchronized (registrationLock) {
-				if (state != REGISTERED) { /* in the process of unregisterING */
-					throw new IllegalStateException(Msg.SERVICE_ALREADY_UNREGISTERED_EXCEPTION);
-				}
-
-				/* remove this object from the service registry */
-				if (Debug.DEBUG_SERVICES) {
-					Debug.println("unregisterService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-				}
-
-				registry.removeServiceRegistration(context, this);
-
-				state = UNREGISTERING; /* mark unregisterING */
-				ref = reference; /* used to publish event outside sync */
+			ref = unpublish();
+			if (ref == null) { /* in the process of unregisterING */
+				throw new IllegalStateException(Msg.SERVICE_ALREADY_UNREGISTERED_EXCEPTION);
 			}
 		}
 
 		/* must not hold the registrationLock when this event is published */
 		registry.publishServiceEvent(new ServiceEvent(ServiceEvent.UNREGISTERING, ref));
 
+		completeUnregister();
+	}
+
+	/**
+	 * Remove this registration from the service registry and mark it unregistering.
+	 * The caller must publish the UNREGISTERING event after releasing the registry lock
+	 * and then call {@link #completeUnregister()}.
+	 * 
+	 * @return The reference to use for the UNREGISTERING event or <code>null</code>
+	 * if this registration has already been unregistered.
+	 */
+	/* @GuardedBy("registry") */
+	ServiceReferenceImpl<S> unpublish() {
+		synchronized (registrationLock) {
+			if (state != REGISTERED) { /* in the process of unregisterING */
+				return null;
+			}
+
+			/* remove this object from the service registry */
+			if (Debug.DEBUG_SERVICES) {
+				Debug.println("unregisterService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+
+			registry.removeServiceRegistration(context, this);
+
+			state = UNREGISTERING; /* mark unregisterING */
+			return reference; /* used to publish event outside sync */
+		}
+	}
+
+	/**
+	 * Mark this registration unregistered and release the service for the bundles using it.
+	 * Called after the UNREGISTERING event has been published.
+	 */
+	void completeUnregister() {
 		int size = 0;
 		BundleContextImpl[] users = null;
 
@@ -266,6 +317,14 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		return getReferenceImpl();
 	}
 
+	/**
+	 * Return the service registry of this registration.
+	 * @return The service registry of this registration.
+	 */
+	ServiceRegistry getRegistry() {
+		return registry;
+	}
+
 	ServiceReferenceImpl<S> getReferenceImpl() {
 		/* use reference instead of unregistered so that ServiceFactorys, called
 		 * by releaseService after the registration is unregistered, can
@@ -294,7 +353,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		ServiceProperties props = new ServiceProperties(p);
 
 		props.set(Constants.OBJECTCLASS, clazzes, true);
-		props.set(Constants.SERVICE_ID, new Long(serviceid), true);
+		props.set(Constants.SERVICE_ID, serviceidObject, true);
 		props.setReadOnly();
 		Object ranking = props.getProperty(Constants.SERVICE_RANKING);
 
@@ -355,6 +414,14 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		return serviceid;
 	}
 
+	/**
+	 * Return the service id for this service as an object.
+	 * @return The service id for this service.
+	 */
+	Long getIdObject() {
+		return serviceidObject;
+	}
+
 	/**
 	 * Return the service ranking for this service.
 	 * @return The service ranking for this service.
@@ -419,10 +486,8 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return Service object
 	 */
 	Object getService(BundleContextImpl user) {
-		synchronized (registrationLock) {
-			if (state == UNREGISTERED) { /* service unregistered */
-				return null;
-			}
+		if (state == UNREGISTERED) { /* service unregistered */
+			return null;
 		}
 		if (Debug.DEBUG_SERVICES) {
 			Debug.println("getService[" + user.getBundleImpl() + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -432,6 +497,19 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		if (servicesInUse == null) { /* user is closed */
 			user.checkValid(); /* throw exception */
 		}
+		/* Fast path: the bundle is already using a service which is not a factory */
+		ServiceUse<?> current = servicesInUse.get(this);
+		if (current != null) {
+			user.checkValid();
+			Object serviceObject = current.getServiceFast();
+			if (serviceObject != null) {
+				if (servicesInUse.get(this) == current) {
+					return serviceObject;
+				}
+				/* the service use was released by another thread */
+				current.ungetServiceFast();
+			}
+		}
 		/* Use a while loop to support retry if a call to a ServiceFactory fails */
 		while (true) {
 			ServiceUse<?> use;
@@ -491,10 +569,8 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 *         otherwise <code>true</code>.
 	 */
 	boolean ungetService(BundleContextImpl user) {
-		synchronized (registrationLock) {
-			if (state == UNREGISTERED) {
-				return false;
-			}
+		if (state == UNREGISTERED) {
+			return false;
 		}
 
 		if (Debug.DEBUG_SERVICES) {
@@ -506,12 +582,29 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 			return false;
 		}
 
-		ServiceUse<?> use;
-		synchronized (servicesInUse) {
-			use = servicesInUse.get(this);
-			if (use == null) {
-				return false;
+		ServiceUse<?> use = servicesInUse.get(this);
+		if (use == null) {
+			return false;
+		}
+
+		/* Fast path: the service is not a factory */
+		int count = use.ungetServiceFast();
+		if (count > 0) {
+			return true;
+		}
+		if (count == 0) {
+			/* use count is now zero; remove the ServiceUse unless another thread used it again */
+			synchronized (use) {
+				synchronized (servicesInUse) {
+					synchronized (registrationLock) {
+						if ((servicesInUse.get(this) == use) && use.isUnused()) {
+							servicesInUse.remove(this);
+							contextsUsing.remove(user);
+						}
+					}
+				}
 			}
+			return true;
 		}
 
 		synchronized (use) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2012 IBM Corporation and others.
+ * Copyright (c) 2004, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,6 +13,7 @@ package org.eclipse.osgi.internal.serviceregistry;
 
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.eventmgr.*;
 import org.eclipse.osgi.framework.internal.core.*;
@@ -37,19 +38,32 @@ public class ServiceRegistry {
 	static final String listenerHookName = ListenerHook.class.getName();
 
 	/** Published services by class name. 
-	 * The {@literal List<ServiceRegistrationImpl<?>>}s are both sorted 
+	 * The {@literal ServiceRegistrationImpl<?>[]}s are both sorted 
 	 * in the natural order of ServiceRegistrationImpl and also are sets in that
-	 * there must be no two entries in a List which are equal.
+	 * there must be no two entries in an array which are equal.
+	 * The arrays are copied on write while holding the registry lock and are never
+	 * modified once published so lookups do not need to hold a lock.
 	 */
-	/* @GuardedBy("this") */
-	private final Map<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
+	/* @GuardedBy("this") for writes */
+	private final Map<String, ServiceRegistrationImpl<?>[]> publishedServicesByClass;
 
 	/** All published services. 
-	 * The List is both sorted in the natural order of ServiceRegistrationImpl and also is a
-	 * set in that there must be no two entries in the List which are equal.
+	 * The array is both sorted in the natural order of ServiceRegistrationImpl and also is a
+	 * set in that there must be no two entries in the array which are equal.
+	 * The array is copied on write in the same way as the arrays of publishedServicesByClass.
 	 */
-	/* @GuardedBy("this") */
-	private final List<ServiceRegistrationImpl<?>> allPublishedServices;
+	/* @GuardedBy("this") for writes */
+	private volatile ServiceRegistrationImpl<?>[] allPublishedServices;
+
+	/** Published services indexed by the values of selected service properties.
+	 * The keys are the lower case property keys.  The values map each indexable 
+	 * property value to the sorted array of services with that value.  Services with a
+	 * property value which cannot be indexed are kept under UNINDEXED_VALUE.
+	 * The outer map is never modified after construction and the arrays are copied 
+	 * on write in the same way as the arrays of publishedServicesByClass.
+	 */
+	/* @GuardedBy("this") for writes */
+	private final Map<String, Map<Object, ServiceRegistrationImpl<?>[]>> publishedServicesByProperty;
 
 	/** Published services by BundleContextImpl.  
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are NOT sorted 
@@ -69,6 +83,33 @@ public class ServiceRegistry {
 	/* @GuardedBy("serviceEventListeners") */
 	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> serviceEventListeners;
 
+	/** Active Service Listeners indexed by the objectClass required by their filter.
+	 * {@literal Map<String,Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>>}.
+	 * The maps are copied on write while holding the serviceEventListeners lock and are never
+	 * modified once published so events can be published without holding a lock.
+	 */
+	private volatile Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> serviceEventListenersByClass;
+
+	/** Active Service Listeners indexed by the service.id required by their filter.
+	 * The maps are copied on write in the same way as serviceEventListenersByClass.
+	 */
+	private volatile Map<Long, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> serviceEventListenersById;
+
+	/** Active Service Listeners indexed by the service.pid required by their filter.
+	 * The maps are copied on write in the same way as serviceEventListenersByClass.
+	 */
+	private volatile Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> serviceEventListenersByPid;
+
+	/** Active Service Listeners which do not require an objectClass, service.id or service.pid.
+	 * The map is copied on write in the same way as serviceEventListenersByClass.
+	 */
+	private volatile Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> wildcardServiceEventListeners;
+
+	private static final ServiceRegistrationImpl<?>[] EMPTY_REGISTRATIONS = new ServiceRegistrationImpl<?>[0];
+	/** the service properties which are always indexed */
+	private static final String[] DEFAULT_INDEX_PROPERTIES = {Constants.SERVICE_ID, Constants.SERVICE_PID, "component.name"}; //$NON-NLS-1$
+	/** the index key of services with property values which cannot be indexed */
+	private static final Object UNINDEXED_VALUE = new Object();
 	/** initial capacity of the main data structure */
 	private static final int initialCapacity = 50;
 	/** initial capacity of the nested data structure */
@@ -83,10 +124,15 @@ public class ServiceRegistry {
 	public ServiceRegistry(Framework framework) {
 		this.framework = framework;
 		serviceid = 1;
-		publishedServicesByClass = new HashMap<String, List<ServiceRegistrationImpl<?>>>(initialCapacity);
+		publishedServicesByClass = new ConcurrentHashMap<String, ServiceRegistrationImpl<?>[]>(initialCapacity);
 		publishedServicesByContext = new HashMap<BundleContextImpl, List<ServiceRegistrationImpl<?>>>(initialCapacity);
-		allPublishedServices = new ArrayList<ServiceRegistrationImpl<?>>(initialCapacity);
+		allPublishedServices = EMPTY_REGISTRATIONS;
+		publishedServicesByProperty = createPropertyIndexes();
 		serviceEventListeners = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialCapacity);
+		serviceEventListenersByClass = Collections.emptyMap();
+		serviceEventListenersById = Collections.emptyMap();
+		serviceEventListenersByPid = Collections.emptyMap();
+		wildcardServiceEventListeners = Collections.emptyMap();
 	}
 
 	/**
@@ -167,6 +213,135 @@ public class ServiceRegistry {
 	 * @see ServiceFactory
 	 */
 	public ServiceRegistrationImpl<?> registerService(BundleContextImpl context, String[] clazzes, Object service, Dictionary<String, ?> properties) {
+		clazzes = checkServiceRegistration(clazzes, service);
+
+		ServiceRegistrationImpl<?> registration = new ServiceRegistrationImpl<Object>(this, context, clazzes, service);
+		registration.register(properties);
+		if (isListenerHook(clazzes)) {
+			notifyNewListenerHook(registration);
+		}
+		return registration;
+	}
+
+	/**
+	 * Registers a batch of services with their classes and properties.
+	 * <p>
+	 * The services are added to the registry in one critical section and the 
+	 * {@link ServiceEvent#REGISTERED} events are then fired in the order of 
+	 * the services.  The event hooks and event listener hooks are looked up
+	 * once for all the events of the batch.  If any service cannot be registered
+	 * none of the services are registered.
+	 * </p>
+	 * 
+	 * @param context The BundleContext of the registering bundle.
+	 * @param clazzes The class names under which each service can be located.
+	 * @param services The service objects or <code>ServiceFactory</code> objects.
+	 * @param properties The properties for each service or <code>null</code> 
+	 *        if the services have no properties.  An element may be <code>null</code>
+	 *        if the service has no properties.
+	 * @return The registrations of the services in the order of the services.
+	 * @throws java.lang.IllegalArgumentException If any service cannot be registered
+	 *         as specified by {@link #registerService(BundleContextImpl, String[], Object, Dictionary)}
+	 *         or if the arrays do not have the same length.
+	 * @throws java.lang.SecurityException If the caller does not have the
+	 *         <code>ServicePermission</code> to register a service.
+	 * @throws java.lang.IllegalStateException If this BundleContext is no
+	 *         longer valid.
+	 */
+	public ServiceRegistrationImpl<?>[] registerServices(BundleContextImpl context, String[][] clazzes, Object[] services, Dictionary<String, ?>[] properties) {
+		if ((clazzes.length != services.length) || ((properties != null) && (properties.length != services.length))) {
+			throw new IllegalArgumentException();
+		}
+		ServiceRegistrationImpl<?>[] registrations = new ServiceRegistrationImpl<?>[services.length];
+		boolean listenerHooks = false;
+		for (int i = 0; i < services.length; i++) {
+			String[] copy = checkServiceRegistration(clazzes[i], services[i]);
+			listenerHooks |= isListenerHook(copy);
+			registrations[i] = new ServiceRegistrationImpl<Object>(this, context, copy, services[i]);
+			registrations[i].setRegistrationProperties(properties == null ? null : properties[i]);
+		}
+
+		List<ServiceEvent> events = new ArrayList<ServiceEvent>(registrations.length);
+		synchronized (this) {
+			context.checkValid();
+			for (ServiceRegistrationImpl<?> registration : registrations) {
+				registration.publish();
+				events.add(new ServiceEvent(ServiceEvent.REGISTERED, registration.getReferenceImpl()));
+			}
+		}
+
+		publishServiceEvents(events);
+		if (listenerHooks) {
+			for (ServiceRegistrationImpl<?> registration : registrations) {
+				if (isListenerHook(registration.getClasses())) {
+					notifyNewListenerHook(registration);
+				}
+			}
+		}
+		return registrations;
+	}
+
+	/**
+	 * Unregisters a batch of services.
+	 * <p>
+	 * The services are removed from the registry in one critical section and the 
+	 * {@link ServiceEvent#UNREGISTERING} events are then fired in the order of 
+	 * the services before the services are released by the bundles using them.
+	 * The event hooks and event listener hooks are looked up once for all the 
+	 * events of the batch.  Services which have already been unregistered are ignored.
+	 * </p>
+	 * 
+	 * @param registrations The registrations of the services to unregister.
+	 * @throws java.lang.IllegalArgumentException If a registration was not created
+	 *         by this service registry.
+	 */
+	public void unregisterServices(ServiceRegistration<?>[] registrations) {
+		List<ServiceRegistrationImpl<?>> batch = new ArrayList<ServiceRegistrationImpl<?>>(registrations.length);
+		for (ServiceRegistration<?> registration : registrations) {
+			if (!(registration instanceof ServiceRegistrationImpl<?>) || (((ServiceRegistrationImpl<?>) registration).getRegistry() != this)) {
+				throw new IllegalArgumentException(String.valueOf(registration));
+			}
+			batch.add((ServiceRegistrationImpl<?>) registration);
+		}
+		unregisterServices(batch);
+	}
+
+	private void unregisterServices(List<ServiceRegistrationImpl<?>> registrations) {
+		List<ServiceRegistrationImpl<?>> unregistered = new ArrayList<ServiceRegistrationImpl<?>>(registrations.size());
+		List<ServiceEvent> events = new ArrayList<ServiceEvent>(registrations.size());
+		synchronized (this) {
+			for (ServiceRegistrationImpl<?> registration : registrations) {
+				ServiceReferenceImpl<?> reference = registration.unpublish();
+				if (reference != null) {
+					unregistered.add(registration);
+					events.add(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+				}
+			}
+		}
+
+		publishServiceEvents(events);
+		for (ServiceRegistrationImpl<?> registration : unregistered) {
+			registration.completeUnregister();
+		}
+	}
+
+	private boolean isListenerHook(String[] clazzes) {
+		for (String clazz : clazzes) {
+			if (clazz.equals(listenerHookName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check the arguments of a service registration.
+	 * 
+	 * @param clazzes The class names under which the service can be located.
+	 * @param service The service object or a <code>ServiceFactory</code> object.
+	 * @return A copy of the class names with the names interned and duplicates removed.
+	 */
+	private String[] checkServiceRegistration(String[] clazzes, Object service) {
 		if (service == null) {
 			if (Debug.DEBUG_SERVICES) {
 				Debug.println("Service object is null"); //$NON-NLS-1$
@@ -209,13 +384,7 @@ public class ServiceRegistry {
 				throw new IllegalArgumentException(NLS.bind(Msg.SERVICE_NOT_INSTANCEOF_CLASS_EXCEPTION, invalidService));
 			}
 		}
-
-		ServiceRegistrationImpl<?> registration = new ServiceRegistrationImpl<Object>(this, context, clazzes, service);
-		registration.register(properties);
-		if (copy.contains(listenerHookName)) {
-			notifyNewListenerHook(registration);
-		}
-		return registration;
+		return clazzes;
 	}
 
 	/**
@@ -630,13 +799,7 @@ public class ServiceRegistry {
 	 * @param context The BundleContext of the closing bundle.
 	 */
 	public void unregisterServices(BundleContextImpl context) {
-		for (ServiceRegistrationImpl<?> registration : lookupServiceRegistrations(context)) {
-			try {
-				registration.unregister();
-			} catch (IllegalStateException e) {
-				/* already unregistered */
-			}
-		}
+		unregisterServices(lookupServiceRegistrations(context));
 		removeServiceRegistrations(context); // remove empty list
 	}
 
@@ -689,6 +852,10 @@ public class ServiceRegistry {
 				serviceEventListeners.put(context, listeners);
 			}
 			oldFilteredListener = listeners.put(listener, filteredListener);
+			if (oldFilteredListener != null) {
+				unindexServiceListener(context, listener, oldFilteredListener);
+			}
+			indexServiceListener(context, listener, filteredListener);
 		}
 
 		if (oldFilteredListener != null) {
@@ -720,6 +887,9 @@ public class ServiceRegistry {
 				return; // this context has no listeners to begin with
 			}
 			oldFilteredListener = listeners.remove(listener);
+			if (oldFilteredListener != null) {
+				unindexServiceListener(context, listener, oldFilteredListener);
+			}
 		}
 
 		if (oldFilteredListener == null) {
@@ -739,6 +909,11 @@ public class ServiceRegistry {
 		Map<ServiceListener, FilteredServiceListener> removedListenersMap;
 		synchronized (serviceEventListeners) {
 			removedListenersMap = serviceEventListeners.remove(context);
+			if (removedListenersMap != null) {
+				for (Map.Entry<ServiceListener, FilteredServiceListener> entry : removedListenersMap.entrySet()) {
+					unindexServiceListener(context, entry.getKey(), entry.getValue());
+				}
+			}
 		}
 		if ((removedListenersMap == null) || removedListenersMap.isEmpty()) {
 			return;
@@ -750,6 +925,110 @@ public class ServiceRegistry {
 		notifyListenerHooks(asListenerInfos(removedListeners), false);
 	}
 
+	/**
+	 * Add a service listener to the index.  A listener is indexed by the service.id
+	 * required by its filter, else by the service.pid required by its filter, else by
+	 * the objectClass required by its filter.
+	 * 
+	 * @param context Context of bundle adding listener.
+	 * @param listener Service Listener to be added.
+	 * @param filteredListener The filtered listener of the listener.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void indexServiceListener(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket = getListenerBucket(filteredListener);
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = (bucket == null) ? null : bucket.get(context);
+		if (listeners != null) {
+			listeners.put(listener, filteredListener);
+			return;
+		}
+		listeners = new CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>();
+		listeners.put(listener, filteredListener);
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> newBucket = (bucket == null) ? new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(initialSubCapacity) : new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(bucket);
+		newBucket.put(context, listeners);
+		setListenerBucket(filteredListener, newBucket);
+	}
+
+	/**
+	 * Remove a service listener from the index.
+	 * 
+	 * @param context Context of bundle removing listener.
+	 * @param listener Service Listener to be removed.
+	 * @param filteredListener The filtered listener which was indexed for the listener.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void unindexServiceListener(BundleContextImpl context, ServiceListener listener, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket = getListenerBucket(filteredListener);
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = (bucket == null) ? null : bucket.get(context);
+		if ((listeners == null) || (listeners.get(listener) != filteredListener)) {
+			return;
+		}
+		listeners.remove(listener);
+		if (!listeners.isEmpty()) {
+			return;
+		}
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> newBucket = new HashMap<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>(bucket);
+		newBucket.remove(context);
+		setListenerBucket(filteredListener, newBucket);
+	}
+
+	/* @GuardedBy("serviceEventListeners") */
+	private Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> getListenerBucket(FilteredServiceListener filteredListener) {
+		Long serviceId = filteredListener.getServiceId();
+		if (serviceId != null) {
+			return serviceEventListenersById.get(serviceId);
+		}
+		String servicePid = filteredListener.getServicePid();
+		if (servicePid != null) {
+			return serviceEventListenersByPid.get(servicePid);
+		}
+		String objectClass = filteredListener.getObjectClass();
+		if (objectClass == null) {
+			return wildcardServiceEventListeners;
+		}
+		return serviceEventListenersByClass.get(objectClass);
+	}
+
+	/* @GuardedBy("serviceEventListeners") */
+	private void setListenerBucket(FilteredServiceListener filteredListener, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket) {
+		Long serviceId = filteredListener.getServiceId();
+		if (serviceId != null) {
+			serviceEventListenersById = copyListenerIndex(serviceEventListenersById, serviceId, bucket);
+			return;
+		}
+		String servicePid = filteredListener.getServicePid();
+		if (servicePid != null) {
+			serviceEventListenersByPid = copyListenerIndex(serviceEventListenersByPid, servicePid, bucket);
+			return;
+		}
+		String objectClass = filteredListener.getObjectClass();
+		if (objectClass == null) {
+			wildcardServiceEventListeners = bucket;
+			return;
+		}
+		serviceEventListenersByClass = copyListenerIndex(serviceEventListenersByClass, objectClass, bucket);
+	}
+
+	/**
+	 * Returns a copy of a listener index with the bucket of a key replaced.
+	 * 
+	 * @param index The listener index.
+	 * @param key The key of the bucket.
+	 * @param bucket The new bucket of the key; an empty bucket removes the key.
+	 * @return The modified copy of the index.
+	 */
+	private static <T> Map<T, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> copyListenerIndex(Map<T, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> index, T key, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket) {
+		Map<T, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> copy = new HashMap<T, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>>(index);
+		if (bucket.isEmpty()) {
+			copy.remove(key);
+		} else {
+			copy.put(key, bucket);
+		}
+		return copy;
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<FilteredServiceListener>
 	 * to Collection<ListenerInfo>
@@ -779,16 +1058,70 @@ public class ServiceRegistry {
 		}
 	}
 
-	void publishServiceEventPrivileged(final ServiceEvent event) {
-		/* Build the listener snapshot */
-		Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot;
-		synchronized (serviceEventListeners) {
-			listenerSnapshot = new HashMap<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>>(serviceEventListeners.size());
-			for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : serviceEventListeners.entrySet()) {
-				CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = entry.getValue();
-				if (!listeners.isEmpty()) {
-					listenerSnapshot.put(entry.getKey(), listeners.entrySet());
+	/**
+	 * Deliver ServiceEvents in order.  The event hooks and event listener
+	 * hooks are looked up once for all the events.
+	 * 
+	 * @param events The ServiceEvents to deliver.
+	 */
+	public void publishServiceEvents(final List<ServiceEvent> events) {
+		if (events.isEmpty()) {
+			return;
+		}
+		if (System.getSecurityManager() == null) {
+			publishServiceEventsPrivileged(events);
+		} else {
+			AccessController.doPrivileged(new PrivilegedAction<Object>() {
+				public Object run() {
+					publishServiceEventsPrivileged(events);
+					return null;
 				}
+			});
+		}
+	}
+
+	void publishServiceEventsPrivileged(List<ServiceEvent> events) {
+		List<ServiceRegistrationImpl<?>> eventHooks = lookupServiceRegistrations(eventHookName, null);
+		List<ServiceRegistrationImpl<?>> eventListenerHooks = lookupServiceRegistrations(eventListenerHookName, null);
+		for (ServiceEvent event : events) {
+			publishServiceEventPrivileged(event, eventHooks, eventListenerHooks);
+		}
+	}
+
+	void publishServiceEventPrivileged(final ServiceEvent event) {
+		publishServiceEventPrivileged(event, lookupServiceRegistrations(eventHookName, null), lookupServiceRegistrations(eventListenerHookName, null));
+	}
+
+	private void publishServiceEventPrivileged(final ServiceEvent event, List<ServiceRegistrationImpl<?>> eventHooks, List<ServiceRegistrationImpl<?>> eventListenerHooks) {
+		if (eventHooks.isEmpty() && eventListenerHooks.isEmpty()) {
+			/* no hooks can shrink the listeners; deliver directly from the index without a snapshot */
+			dispatchServiceEventPrivileged(event);
+			return;
+		}
+		/* Build the listener snapshot from the listeners which may be interested in the classes of the service */
+		Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot = new HashMap<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>>(initialCapacity);
+		addListenerSnapshot(listenerSnapshot, wildcardServiceEventListeners);
+		Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> byClass = serviceEventListenersByClass;
+		ServiceReferenceImpl<?> reference = (ServiceReferenceImpl<?>) event.getServiceReference();
+		if (!byClass.isEmpty()) {
+			for (String clazz : reference.getClasses()) {
+				addListenerSnapshot(listenerSnapshot, byClass.get(clazz));
+			}
+		}
+		Map<Long, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> byId = serviceEventListenersById;
+		if (!byId.isEmpty()) {
+			addListenerSnapshot(listenerSnapshot, byId.get(reference.getRegistration().getIdObject()));
+		}
+		Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> byPid = serviceEventListenersByPid;
+		if (!byPid.isEmpty()) {
+			List<Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> buckets = new ArrayList<Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>>(2);
+			addPidListenerBuckets(buckets, byPid, reference.getProperty(Constants.SERVICE_PID));
+			if (event.getType() == ServiceEvent.MODIFIED) {
+				// listeners of a previous pid must receive MODIFIED_ENDMATCH
+				addPidListenerBuckets(buckets, byPid, ((ModifiedServiceEvent) event).getPreviousProperty(Constants.SERVICE_PID));
+			}
+			for (Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket : buckets) {
+				addListenerSnapshot(listenerSnapshot, bucket);
 			}
 		}
 
@@ -798,12 +1131,12 @@ public class ServiceRegistry {
 		 * entry from the snapshot.
 		 */
 		Collection<BundleContext> contexts = asBundleContexts(listenerSnapshot.keySet());
-		notifyEventHooksPrivileged(event, contexts);
+		notifyEventHooksPrivileged(event, contexts, eventHooks);
 		if (listenerSnapshot.isEmpty()) {
 			return;
 		}
 		Map<BundleContext, Collection<ListenerInfo>> listeners = new ShrinkableValueCollectionMap<BundleContext, ListenerInfo>(listenerSnapshot);
-		notifyEventListenerHooksPrivileged(event, listeners);
+		notifyEventListenerHooksPrivileged(event, listeners, eventListenerHooks);
 		if (listenerSnapshot.isEmpty()) {
 			return;
 		}
@@ -819,6 +1152,145 @@ public class ServiceRegistry {
 		queue.dispatchEventSynchronous(SERVICEEVENT, event);
 	}
 
+	/**
+	 * Deliver a ServiceEvent to the indexed listeners which may be interested in it.
+	 * This must only be used when there are no event hooks or event listener hooks.
+	 * Each listener is indexed in exactly one bucket and the listeners of each context
+	 * are copied on write so the event is delivered without building a listener snapshot.
+	 * 
+	 * @param event The ServiceEvent to deliver.
+	 */
+	private void dispatchServiceEventPrivileged(ServiceEvent event) {
+		dispatchServiceEvent(event, wildcardServiceEventListeners);
+		Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> byClass = serviceEventListenersByClass;
+		ServiceReferenceImpl<?> reference = (ServiceReferenceImpl<?>) event.getServiceReference();
+		if (!byClass.isEmpty()) {
+			String[] classes = reference.getClasses();
+			for (int i = 0; i < classes.length; i++) {
+				dispatchServiceEvent(event, byClass.get(classes[i]));
+			}
+		}
+		Map<Long, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> byId = serviceEventListenersById;
+		if (!byId.isEmpty()) {
+			dispatchServiceEvent(event, byId.get(reference.getRegistration().getIdObject()));
+		}
+		Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> byPid = serviceEventListenersByPid;
+		if (byPid.isEmpty()) {
+			return;
+		}
+		Object pid = reference.getProperty(Constants.SERVICE_PID);
+		// listeners of a previous pid must receive MODIFIED_ENDMATCH
+		Object previousPid = (event.getType() == ServiceEvent.MODIFIED) ? ((ModifiedServiceEvent) event).getPreviousProperty(Constants.SERVICE_PID) : null;
+		if (((pid == null) || (pid instanceof String)) && ((previousPid == null) || (previousPid instanceof String))) {
+			Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket = (pid == null) ? null : byPid.get(pid);
+			Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> previousBucket = (previousPid == null) ? null : byPid.get(previousPid);
+			dispatchServiceEvent(event, bucket);
+			if (previousBucket != bucket) {
+				dispatchServiceEvent(event, previousBucket);
+			}
+			return;
+		}
+		List<Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> buckets = new ArrayList<Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>>(2);
+		addPidListenerBuckets(buckets, byPid, pid);
+		addPidListenerBuckets(buckets, byPid, previousPid);
+		for (Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket : buckets) {
+			dispatchServiceEvent(event, bucket);
+		}
+	}
+
+	/**
+	 * Deliver a ServiceEvent to the listeners of an index bucket.
+	 * 
+	 * @param event The ServiceEvent to deliver.
+	 * @param bucket The index bucket or null.
+	 */
+	private void dispatchServiceEvent(ServiceEvent event, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket) {
+		if ((bucket == null) || bucket.isEmpty()) {
+			return;
+		}
+		ListenerQueue<ServiceListener, FilteredServiceListener, ServiceEvent> queue = framework.newListenerQueue();
+		for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : bucket.entrySet()) {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			EventDispatcher<ServiceListener, FilteredServiceListener, ServiceEvent> dispatcher = (EventDispatcher) entry.getKey();
+			/* the entry set of a copy on write map is a snapshot which does not copy the listeners */
+			queue.queueListeners(entry.getValue().entrySet(), dispatcher);
+		}
+		queue.dispatchEventSynchronous(SERVICEEVENT, event);
+	}
+
+	/**
+	 * Add the service.pid index buckets of the listeners which may match a service.pid property value.
+	 * 
+	 * @param buckets The list of distinct index buckets.
+	 * @param byPid The service.pid listener index.
+	 * @param pid The service.pid property value or null.
+	 */
+	private static void addPidListenerBuckets(List<Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> buckets, Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> byPid, Object pid) {
+		if (pid == null) {
+			return;
+		}
+		Collection<?> pids = null;
+		if (pid instanceof String) {
+			pids = Collections.singleton(pid);
+		} else if (pid instanceof String[]) {
+			pids = Arrays.asList((String[]) pid);
+		} else if (pid instanceof Collection<?>) {
+			pids = (Collection<?>) pid;
+		}
+		if (pids != null) {
+			for (Object element : pids) {
+				if ((element != null) && !(element instanceof String)) {
+					pids = null; // the filter may match a value which is not a string; use all the buckets
+					break;
+				}
+			}
+		}
+		Collection<Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> found = (pids == null) ? byPid.values() : null;
+		if (found == null) {
+			found = new ArrayList<Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>>(pids.size());
+			for (Object element : pids) {
+				Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket = (element == null) ? null : byPid.get(element);
+				if (bucket != null) {
+					found.add(bucket);
+				}
+			}
+		}
+		add: for (Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket : found) {
+			for (Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> existing : buckets) {
+				if (existing == bucket) {
+					continue add;
+				}
+			}
+			buckets.add(bucket);
+		}
+	}
+
+	/**
+	 * Add the listeners of an index bucket to a listener snapshot.
+	 * 
+	 * @param listenerSnapshot The snapshot of listeners by context.
+	 * @param bucket The index bucket or null.
+	 */
+	private static void addListenerSnapshot(Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> bucket) {
+		if (bucket == null) {
+			return;
+		}
+		for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : bucket.entrySet()) {
+			CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> contextListeners = entry.getValue();
+			if (contextListeners.isEmpty()) {
+				continue;
+			}
+			Set<Map.Entry<ServiceListener, FilteredServiceListener>> listeners = contextListeners.entrySet();
+			Set<Map.Entry<ServiceListener, FilteredServiceListener>> previous = listenerSnapshot.put(entry.getKey(), listeners);
+			if (previous != null) {
+				// the context has listeners in more than one bucket; merge them
+				Set<Map.Entry<ServiceListener, FilteredServiceListener>> merged = new LinkedHashSet<Map.Entry<ServiceListener, FilteredServiceListener>>(previous);
+				merged.addAll(listeners);
+				listenerSnapshot.put(entry.getKey(), merged);
+			}
+		}
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<BundleContextImpl>
 	 * to Collection<BundleContext>
@@ -860,24 +1332,21 @@ public class ServiceRegistry {
 		contextServices.add(registration);
 
 		// Add the ServiceRegistrationImpl to the list of Services published by Class Name.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-
-			if (services == null) {
-				services = new ArrayList<ServiceRegistrationImpl<?>>(initialSubCapacity);
-				publishedServicesByClass.put(clazz, services);
-			}
-
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			ServiceRegistrationImpl<?>[] services = publishedServicesByClass.get(clazz);
+			publishedServicesByClass.put(clazz, insertRegistration(services == null ? EMPTY_REGISTRATIONS : services, registration));
 		}
 
 		// Add the ServiceRegistrationImpl to the list of all published Services.
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = insertRegistration(allPublishedServices, registration);
+
+		// Add the ServiceRegistrationImpl to the property indexes.
+		for (Map.Entry<String, Map<Object, ServiceRegistrationImpl<?>[]>> index : publishedServicesByProperty.entrySet()) {
+			for (Object value : getIndexValues(registration.getProperty(index.getKey()))) {
+				ServiceRegistrationImpl<?>[] services = index.getValue().get(value);
+				index.getValue().put(value, insertRegistration(services == null ? EMPTY_REGISTRATIONS : services, registration));
+			}
+		}
 	}
 
 	/**
@@ -885,30 +1354,37 @@ public class ServiceRegistry {
 	 * 
 	 * @param context The BundleContext of the bundle registering the service.
 	 * @param registration The modified ServiceRegistration.
+	 * @param previousProperties The properties of the registration before it was modified.
 	 */
 	/* @GuardedBy("this") */
-	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration) {
+	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration, ServiceProperties previousProperties) {
 		assert Thread.holdsLock(this);
 		// The list of Services published by BundleContextImpl is not sorted, so
 		// we do not need to modify it.
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name
 		// and then add at the correct index.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			ServiceRegistrationImpl<?>[] services = publishedServicesByClass.get(clazz);
+			publishedServicesByClass.put(clazz, insertRegistration(removeRegistration(services, registration), registration));
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services
 		// and then add at the correct index.
-		allPublishedServices.remove(registration);
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = insertRegistration(removeRegistration(allPublishedServices, registration), registration);
+
+		// Remove the ServiceRegistrationImpl from the property indexes using the previous
+		// property values and then add it using the current property values.
+		for (Map.Entry<String, Map<Object, ServiceRegistrationImpl<?>[]>> index : publishedServicesByProperty.entrySet()) {
+			Map<Object, ServiceRegistrationImpl<?>[]> values = index.getValue();
+			for (Object value : getIndexValues(previousProperties.getProperty(index.getKey()))) {
+				removeIndexedRegistration(values, value, registration);
+			}
+			for (Object value : getIndexValues(registration.getProperty(index.getKey()))) {
+				ServiceRegistrationImpl<?>[] services = values.get(value);
+				values.put(value, insertRegistration(services == null ? EMPTY_REGISTRATIONS : services, registration));
+			}
+		}
 	}
 
 	/**
@@ -928,15 +1404,232 @@ public class ServiceRegistry {
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name.
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
-			if (services.isEmpty()) { // remove empty list
+			ServiceRegistrationImpl<?>[] services = removeRegistration(publishedServicesByClass.get(clazz), registration);
+			if (services.length == 0) { // remove empty list
 				publishedServicesByClass.remove(clazz);
+			} else {
+				publishedServicesByClass.put(clazz, services);
 			}
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services.
-		allPublishedServices.remove(registration);
+		allPublishedServices = removeRegistration(allPublishedServices, registration);
+
+		// Remove the ServiceRegistrationImpl from the property indexes.
+		for (Map.Entry<String, Map<Object, ServiceRegistrationImpl<?>[]>> index : publishedServicesByProperty.entrySet()) {
+			for (Object value : getIndexValues(registration.getProperty(index.getKey()))) {
+				removeIndexedRegistration(index.getValue(), value, registration);
+			}
+		}
+	}
+
+	/* @GuardedBy("this") */
+	private static void removeIndexedRegistration(Map<Object, ServiceRegistrationImpl<?>[]> values, Object value, ServiceRegistrationImpl<?> registration) {
+		ServiceRegistrationImpl<?>[] services = values.get(value);
+		if (services == null) {
+			return;
+		}
+		services = removeRegistration(services, registration);
+		if (services.length == 0) { // remove empty list
+			values.remove(value);
+		} else {
+			values.put(value, services);
+		}
+	}
+
+	/**
+	 * Create the empty property indexes for the default and configured index properties.
+	 * 
+	 * @return The property indexes keyed by lower case property key.
+	 */
+	private static Map<String, Map<Object, ServiceRegistrationImpl<?>[]>> createPropertyIndexes() {
+		Map<String, Map<Object, ServiceRegistrationImpl<?>[]>> indexes = new HashMap<String, Map<Object, ServiceRegistrationImpl<?>[]>>();
+		for (String key : DEFAULT_INDEX_PROPERTIES) {
+			indexes.put(key.toLowerCase(), new ConcurrentHashMap<Object, ServiceRegistrationImpl<?>[]>(initialCapacity));
+		}
+		String configured = FrameworkProperties.getProperty(org.eclipse.osgi.framework.internal.core.Constants.SERVICE_INDEX_PROPERTIES);
+		if (configured != null) {
+			for (String key : configured.split(",")) { //$NON-NLS-1$
+				key = key.trim().toLowerCase();
+				if ((key.length() > 0) && !key.equalsIgnoreCase(Constants.OBJECTCLASS) && !indexes.containsKey(key)) {
+					indexes.put(key, new ConcurrentHashMap<Object, ServiceRegistrationImpl<?>[]>(initialCapacity));
+				}
+			}
+		}
+		return Collections.unmodifiableMap(indexes);
+	}
+
+	/**
+	 * Returns the index keys for a service property value.  Strings are indexed by 
+	 * value and integral numbers by their long value.  Arrays and collections
+	 * are indexed by each of their elements.  Any other value is indexed under 
+	 * UNINDEXED_VALUE so the service is a candidate for every lookup.
+	 * 
+	 * @param value The service property value or null.
+	 * @return The index keys for the value.
+	 */
+	private static Collection<Object> getIndexValues(Object value) {
+		if (value == null) {
+			return Collections.emptySet();
+		}
+		Object key = getIndexValue(value);
+		if (key != null) {
+			return Collections.singleton(key);
+		}
+		Collection<?> elements = null;
+		if (value instanceof Collection<?>) {
+			elements = (Collection<?>) value;
+		} else if (value instanceof Object[]) {
+			elements = Arrays.asList((Object[]) value);
+		}
+		if (elements == null) {
+			return Collections.singleton(UNINDEXED_VALUE);
+		}
+		Set<Object> keys = new HashSet<Object>();
+		for (Object element : elements) {
+			if (element != null) {
+				key = getIndexValue(element);
+				if (key == null) {
+					return Collections.singleton(UNINDEXED_VALUE);
+				}
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	private static Object getIndexValue(Object value) {
+		if (value instanceof String) {
+			return value;
+		}
+		if ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)) {
+			return new Long(((Number) value).longValue());
+		}
+		return null;
+	}
+
+	/**
+	 * Lookup the candidate Service Registrations for a filter in the property indexes.
+	 * The candidates are the services which may match the smallest of the indexed
+	 * equality clauses of the filter.
+	 * 
+	 * @param filter The filter criteria.
+	 * @return The sorted candidate registrations or <code>null</code> if the filter does
+	 * not require a value for an indexed property.
+	 */
+	private ServiceRegistrationImpl<?>[] lookupIndexedRegistrations(Filter filter) {
+		if (!(filter instanceof FilterImpl)) {
+			return null;
+		}
+		FilterImpl filterImpl = (FilterImpl) filter;
+		ServiceRegistrationImpl<?>[] result = null;
+		for (Map.Entry<String, Map<Object, ServiceRegistrationImpl<?>[]>> index : publishedServicesByProperty.entrySet()) {
+			String value = filterImpl.getPrimaryKeyValue(index.getKey());
+			if (value == null) {
+				continue;
+			}
+			ServiceRegistrationImpl<?>[] candidates = getIndexedRegistrations(index.getValue(), value);
+			if ((result == null) || (candidates.length < result.length)) {
+				result = candidates;
+				if (result.length == 0) {
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the services of an index which may have a property equal to a filter value.
+	 * 
+	 * @param values The property index.
+	 * @param value The filter value.
+	 * @return The sorted registrations which may have the value.
+	 */
+	private static ServiceRegistrationImpl<?>[] getIndexedRegistrations(Map<Object, ServiceRegistrationImpl<?>[]> values, String value) {
+		List<ServiceRegistrationImpl<?>[]> found = new ArrayList<ServiceRegistrationImpl<?>[]>(3);
+		addIndexedRegistrations(found, values.get(value));
+		try {
+			// numbers are compared with the trimmed filter value
+			addIndexedRegistrations(found, values.get(new Long(Long.parseLong(value.trim()))));
+		} catch (NumberFormatException e) {
+			// not a number
+		}
+		addIndexedRegistrations(found, values.get(UNINDEXED_VALUE));
+		if (found.isEmpty()) {
+			return EMPTY_REGISTRATIONS;
+		}
+		if (found.size() == 1) {
+			return found.get(0);
+		}
+		Set<ServiceRegistrationImpl<?>> merged = new TreeSet<ServiceRegistrationImpl<?>>();
+		for (ServiceRegistrationImpl<?>[] services : found) {
+			merged.addAll(Arrays.asList(services));
+		}
+		return merged.toArray(new ServiceRegistrationImpl<?>[merged.size()]);
+	}
+
+	private static void addIndexedRegistrations(List<ServiceRegistrationImpl<?>[]> found, ServiceRegistrationImpl<?>[] services) {
+		if (services != null) {
+			found.add(services);
+		}
+	}
+
+	/**
+	 * Returns true if the registration is registered under the class name.
+	 * 
+	 * @param registration The registration.
+	 * @param clazz The class name.
+	 * @return true if the registration is registered under the class name.
+	 */
+	private static boolean isRegisteredAs(ServiceRegistrationImpl<?> registration, String clazz) {
+		for (String registered : registration.getClasses()) {
+			if (registered.equals(clazz)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a copy of a sorted array of registrations with a registration inserted at its sorted position.
+	 * 
+	 * @param services The sorted registrations.
+	 * @param registration The registration to insert.
+	 * @return A new sorted array containing the registration.
+	 */
+	private static ServiceRegistrationImpl<?>[] insertRegistration(ServiceRegistrationImpl<?>[] services, ServiceRegistrationImpl<?> registration) {
+		// The array is sorted, so we must find the proper location to insert
+		int insertIndex = -Arrays.binarySearch(services, registration) - 1;
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[services.length + 1];
+		System.arraycopy(services, 0, result, 0, insertIndex);
+		result[insertIndex] = registration;
+		System.arraycopy(services, insertIndex, result, insertIndex + 1, services.length - insertIndex);
+		return result;
+	}
+
+	/**
+	 * Returns a copy of an array of registrations without a registration.
+	 * The registration is found by identity since its properties, and therefore its 
+	 * sorted position, may have been modified.
+	 * 
+	 * @param services The registrations.
+	 * @param registration The registration to remove.
+	 * @return A new array without the registration.
+	 */
+	private static ServiceRegistrationImpl<?>[] removeRegistration(ServiceRegistrationImpl<?>[] services, ServiceRegistrationImpl<?> registration) {
+		for (int i = 0; i < services.length; i++) {
+			if (services[i] == registration) {
+				if (services.length == 1) {
+					return EMPTY_REGISTRATIONS;
+				}
+				ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[services.length - 1];
+				System.arraycopy(services, 0, result, 0, i);
+				System.arraycopy(services, i + 1, result, i, result.length - i);
+				return result;
+			}
+		}
+		return services;
 	}
 
 	/**
@@ -948,39 +1641,46 @@ public class ServiceRegistry {
 	 * @return List<ServiceRegistrationImpl>
 	 */
 	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(String clazz, Filter filter) {
-		List<ServiceRegistrationImpl<?>> result;
-		synchronized (this) {
-			if (clazz == null) { /* all services */
-				result = allPublishedServices;
-			} else {
-				/* services registered under the class name */
-				result = publishedServicesByClass.get(clazz);
-			}
-
-			if ((result == null) || result.isEmpty()) {
-				@SuppressWarnings("unchecked")
-				List<ServiceRegistrationImpl<?>> empty = Collections.EMPTY_LIST;
-				return empty;
-			}
+		/* the published arrays are never modified so no lock or copy is needed to read them */
+		ServiceRegistrationImpl<?>[] services;
+		if (clazz == null) { /* all services */
+			services = allPublishedServices;
+		} else {
+			/* services registered under the class name */
+			services = publishedServicesByClass.get(clazz);
+		}
 
-			result = new LinkedList<ServiceRegistrationImpl<?>>(result); /* make a new list since we don't want to change the real list */
+		if ((services == null) || (services.length == 0)) {
+			@SuppressWarnings("unchecked")
+			List<ServiceRegistrationImpl<?>> empty = Collections.EMPTY_LIST;
+			return empty;
 		}
 
 		if (filter == null) {
-			return result;
+			return Collections.unmodifiableList(Arrays.asList(services));
 		}
 
-		for (Iterator<ServiceRegistrationImpl<?>> iter = result.iterator(); iter.hasNext();) {
-			ServiceRegistrationImpl<?> registration = iter.next();
+		/* only evaluate the filter against the services with the values required by the filter */
+		boolean checkClass = false;
+		ServiceRegistrationImpl<?>[] candidates = lookupIndexedRegistrations(filter);
+		if ((candidates != null) && (candidates.length < services.length)) {
+			services = candidates;
+			checkClass = (clazz != null);
+		}
+
+		List<ServiceRegistrationImpl<?>> result = new ArrayList<ServiceRegistrationImpl<?>>(services.length);
+		for (ServiceRegistrationImpl<?> registration : services) {
+			if (checkClass && !isRegisteredAs(registration, clazz)) {
+				continue;
+			}
 			ServiceReferenceImpl<?> reference;
 			try {
 				reference = registration.getReferenceImpl();
 			} catch (IllegalStateException e) {
-				iter.remove(); /* service was unregistered after we left the synchronized block above */
-				continue;
+				continue; /* service was unregistered after the array was read */
 			}
-			if (!filter.match(reference)) {
-				iter.remove();
+			if (filter.match(reference)) {
+				result.add(registration);
 			}
 		}
 		return result;
@@ -1152,12 +1852,13 @@ public class ServiceRegistry {
 	 * 
 	 * @param event The service event to be delivered.
 	 * @param result The result to return to the caller which may have been shrunk by the EventHooks.
+	 * @param hooks The EventHook services to call.
 	 */
-	private void notifyEventHooksPrivileged(final ServiceEvent event, final Collection<BundleContext> result) {
+	private void notifyEventHooksPrivileged(final ServiceEvent event, final Collection<BundleContext> result, List<ServiceRegistrationImpl<?>> hooks) {
 		if (Debug.DEBUG_HOOKS) {
 			Debug.println("notifyServiceEventHooks(" + event.getType() + ":" + event.getServiceReference() + "," + result + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ 
 		}
-		notifyHooksPrivileged(new HookContext() {
+		notifyHooksPrivileged(hooks, new HookContext() {
 			public void call(Object hook, ServiceRegistration<?> hookRegistration) throws Exception {
 				if (hook instanceof EventHook) {
 					((EventHook) hook).event(event, result);
@@ -1181,12 +1882,13 @@ public class ServiceRegistry {
 	 * 
 	 * @param event The service event to be delivered.
 	 * @param result The result to return to the caller which may have been shrunk by the EventListenerHooks.
+	 * @param hooks The EventListenerHook services to call.
 	 */
-	private void notifyEventListenerHooksPrivileged(final ServiceEvent event, final Map<BundleContext, Collection<ListenerInfo>> result) {
+	private void notifyEventListenerHooksPrivileged(final ServiceEvent event, final Map<BundleContext, Collection<ListenerInfo>> result, List<ServiceRegistrationImpl<?>> hooks) {
 		if (Debug.DEBUG_HOOKS) {
 			Debug.println("notifyServiceEventListenerHooks(" + event.getType() + ":" + event.getServiceReference() + "," + result + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ 
 		}
-		notifyHooksPrivileged(new HookContext() {
+		notifyHooksPrivileged(hooks, new HookContext() {
 			public void call(Object hook, ServiceRegistration<?> hookRegistration) throws Exception {
 				if (hook instanceof EventListenerHook) {
 					((EventListenerHook) hook).event(event, result);
@@ -1218,6 +1920,21 @@ public class ServiceRegistry {
 		// Since the list is already sorted, we don't need to sort the list to call the hooks
 		// in the proper order.
 
+		notifyHooksPrivileged(hooks, hookContext);
+	}
+
+	/**
+	 * Calls the specified hook services via the hook context.
+	 * 
+	 * @param hooks The sorted hook services to call.
+	 * @param hookContext Context to use when calling the hook services.
+	 */
+	private void notifyHooksPrivileged(List<ServiceRegistrationImpl<?>> hooks, HookContext hookContext) {
+		BundleContextImpl systemBundleContext = framework.getSystemBundleContext();
+		if (systemBundleContext == null) { // if no system bundle context, we are done!
+			return;
+		}
+
 		for (ServiceRegistrationImpl<?> registration : hooks) {
 			notifyHookPrivileged(systemBundleContext, registration, hookContext);
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2011 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,6 +13,7 @@ package org.eclipse.osgi.internal.serviceregistry;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.internal.core.BundleContextImpl;
 import org.eclipse.osgi.framework.internal.core.Msg;
@@ -40,9 +41,11 @@ public class ServiceUse<S> {
 	 ServiceFactory.getService() */
 	/* @GuardedBy("this") */
 	private S cachedService;
-	/** bundle's use count for this service */
+	/** bundle's use count for this service.  The use count of a service
+	 * which is not a factory is also changed without holding the lock
+	 * by the fast paths, which never change a use count of zero. */
 	/* @GuardedBy("this") */
-	private int useCount;
+	private final AtomicInteger useCount = new AtomicInteger();
 	/** true if we are calling the factory getService method. Used to detect recursion. */
 	/* @GuardedBy("this") */
 	private boolean factoryInUse;
@@ -58,7 +61,6 @@ public class ServiceUse<S> {
 	 * @param   registration ServiceRegistration of the service
 	 */
 	ServiceUse(BundleContextImpl context, ServiceRegistrationImpl<S> registration) {
-		this.useCount = 0;
 		this.factoryInUse = false;
 		S service = registration.getServiceObject();
 		if (service instanceof ServiceFactory<?>) {
@@ -112,11 +114,8 @@ public class ServiceUse<S> {
 	/* @GuardedBy("this") */
 	S getService() {
 		assert Thread.holdsLock(this);
-		if ((useCount > 0) || (factory == null)) {
-			if (useCount == Integer.MAX_VALUE) {
-				throw new ServiceException(Msg.SERVICE_USE_OVERFLOW);
-			}
-			useCount++;
+		if ((useCount.get() > 0) || (factory == null)) {
+			incrementUseCount();
 			return cachedService;
 		}
 
@@ -177,11 +176,83 @@ public class ServiceUse<S> {
 		}
 
 		this.cachedService = service;
-		useCount++;
+		incrementUseCount();
 
 		return service;
 	}
 
+	private void incrementUseCount() {
+		while (true) {
+			int count = useCount.get();
+			if (count == Integer.MAX_VALUE) {
+				throw new ServiceException(Msg.SERVICE_USE_OVERFLOW);
+			}
+			if (useCount.compareAndSet(count, count + 1)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the service object of a service which is not a factory without
+	 * holding the lock.  The use count is only incremented if it is 
+	 * greater than zero; otherwise the service must be obtained with
+	 * {@link #getService()} while holding the lock.
+	 * 
+	 * @return The service object or <code>null</code> if the lock must be used.
+	 */
+	S getServiceFast() {
+		if (factory != null) {
+			return null;
+		}
+		while (true) {
+			int count = useCount.get();
+			if (count <= 0) {
+				return null;
+			}
+			if (count == Integer.MAX_VALUE) {
+				throw new ServiceException(Msg.SERVICE_USE_OVERFLOW);
+			}
+			if (useCount.compareAndSet(count, count + 1)) {
+				return cachedService;
+			}
+		}
+	}
+
+	/**
+	 * Unget the service object of a service which is not a factory without
+	 * holding the lock.  The use count is only decremented if it is 
+	 * greater than zero; otherwise the service must be released with
+	 * {@link #ungetService()} while holding the lock.
+	 * 
+	 * @return The decremented use count or -1 if the lock must be used.
+	 */
+	int ungetServiceFast() {
+		if (factory != null) {
+			return -1;
+		}
+		while (true) {
+			int count = useCount.get();
+			if (count <= 0) {
+				return -1;
+			}
+			if (useCount.compareAndSet(count, count - 1)) {
+				return count - 1;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the use count of this service is zero.
+	 * 
+	 * @return true if the use count of this service is zero.
+	 */
+	/* @GuardedBy("this") */
+	boolean isUnused() {
+		assert Thread.holdsLock(this);
+		return useCount.get() == 0;
+	}
+
 	/**
 	 * Unget a service's service object.
 	 * Releases the service object for a service.
@@ -213,12 +284,11 @@ public class ServiceUse<S> {
 	/* @GuardedBy("this") */
 	boolean ungetService() {
 		assert Thread.holdsLock(this);
-		if (useCount == 0) {
+		if (useCount.get() == 0) {
 			return true;
 		}
 
-		useCount--;
-		if (useCount > 0) {
+		if (useCount.decrementAndGet() > 0) {
 			return false;
 		}
 
@@ -264,12 +334,14 @@ public class ServiceUse<S> {
 	/* @GuardedBy("this") */
 	void releaseService() {
 		assert Thread.holdsLock(this);
-		if ((useCount == 0) || (factory == null)) {
+		if ((useCount.get() == 0) || (factory == null)) {
+			/* the fast paths must not use a released service */
+			useCount.set(0);
 			return;
 		}
 		final S service = cachedService;
 		cachedService = null;
-		useCount = 0;
+		useCount.set(0);
 
 		if (Debug.DEBUG_SERVICES) {
 			Debug.println("releaseService[factory=" + registration.getBundle() + "](" + context.getBundleImpl() + "," + registration + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
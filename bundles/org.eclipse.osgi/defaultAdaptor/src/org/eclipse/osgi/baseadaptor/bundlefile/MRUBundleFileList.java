@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2011 IBM Corporation and others.
+ * Copyright (c) 2005, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,6 +13,8 @@ package org.eclipse.osgi.baseadaptor.bundlefile;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
 import org.eclipse.osgi.framework.eventmgr.*;
 
 /**
@@ -20,12 +22,26 @@ import org.eclipse.osgi.framework.eventmgr.*;
  * track of open BundleFiles.  The MRU will use the file limit specified by the property
  * &quot;osgi.bundlefile.limit&quot; by default unless the MRU is constructed with a specific
  * file limit.
+ * <p>
+ * The least recently used bundle file is approximated with a clock algorithm.  Each
+ * slot has a reference bit which is set without locking each time the bundle file in the slot is
+ * used.  When the limit is reached the clock hand sweeps the slots, clearing reference bits,
+ * until it finds a slot that has not been used since the last sweep.  Bundle files which
+ * are closed by the MRU are queued and closed in batches by a single closer thread.
+ * </p>
+ * <p>
+ * Adding and removing bundle files does not lock the list.  Slots are claimed and released
+ * with compare and set operations and the number of open bundle files is reserved before
+ * a free slot is claimed, so the file limit is never exceeded.
+ * </p>
  * @since 3.2
  */
 public class MRUBundleFileList implements EventDispatcher<Object, Object, BundleFile> {
 	private static final String PROP_FILE_LIMIT = "osgi.bundlefile.limit"; //$NON-NLS-1$
 	private static final int MIN = 10;
 	private static final int PROP_FILE_LIMIT_VALUE;
+	// the mru index of a bundle file that was closed by the MRU
+	private static final int EVICTED = -2;
 	private static final ThreadLocal<BundleFile> closingBundleFile = new ThreadLocal<BundleFile>();
 	static {
 		int propValue = 100; // enable to 100 open files by default
@@ -39,17 +55,27 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 		PROP_FILE_LIMIT_VALUE = propValue;
 	}
 	// list of open bundle files
-	final private BundleFile[] bundleFileList;
-	// list of open bundle files use stamps
-	final private long[] useStampList;
+	final private AtomicReferenceArray<BundleFile> bundleFileList;
+	// the reference bits of the open bundle files; set each time a bundle file is used
+	final private AtomicIntegerArray referenceList;
 	// the limit of open files to allow before least used bundle file is closed
 	final private int fileLimit; // value < MIN will disable MRU
-	private EventManager bundleFileCloserManager = null;
+	private volatile EventManager bundleFileCloserManager = null;
 	final private Map<Object, Object> bundleFileCloser;
-	// the current number of open bundle files
-	private int numOpen = 0;
-	// the current use stamp
-	private long curUseStamp = 0;
+	// bundle files waiting to be closed by the closer thread
+	final private ConcurrentLinkedQueue<BundleFile> pendingClose = new ConcurrentLinkedQueue<BundleFile>();
+	// true if a batch of pending bundle files has been queued with the closer thread
+	final private AtomicBoolean closerScheduled = new AtomicBoolean(false);
+	// the number of slots reserved by open bundle files; never exceeds the fileLimit
+	final private AtomicInteger numOpen = new AtomicInteger();
+	// the slot to start searching for a free slot
+	final private AtomicInteger freeHint = new AtomicInteger();
+	// the current position of the clock hand
+	final private AtomicInteger clockHand = new AtomicInteger();
+	// metrics
+	final private AtomicLong numAdded = new AtomicLong();
+	final private AtomicLong numEvicted = new AtomicLong();
+	final private AtomicLong numReopened = new AtomicLong();
 	// used to work around bug 275166
 	private boolean firstDispatch = true;
 
@@ -61,13 +87,13 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 		// only enable the MRU if the initFileLimit is > MIN
 		this.fileLimit = fileLimit;
 		if (fileLimit >= MIN) {
-			this.bundleFileList = new BundleFile[fileLimit];
-			this.useStampList = new long[fileLimit];
+			this.bundleFileList = new AtomicReferenceArray<BundleFile>(fileLimit);
+			this.referenceList = new AtomicIntegerArray(fileLimit);
 			this.bundleFileCloser = new CopyOnWriteIdentityMap<Object, Object>();
 			this.bundleFileCloser.put(this, this);
 		} else {
 			this.bundleFileList = null;
-			this.useStampList = null;
+			this.referenceList = null;
 			this.bundleFileCloser = null;
 		}
 	}
@@ -76,53 +102,92 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	 * Adds a BundleFile which is about to be opened to the MRU list.  If 
 	 * the number of open BundleFiles == the fileLimit then the least 
 	 * recently used BundleFile is closed.
+	 * <p>
+	 * The caller must not add or remove the same bundle file concurrently;
+	 * bundle files call this method while holding their own lock.
+	 * </p>
 	 * @param bundleFile the bundle file about to be opened.
 	 */
 	public void add(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return; // MRU is disabled
+		int mruIndex = bundleFile.getMruIndex();
+		if (mruIndex >= 0)
+			return; // do nothing; someone is trying add a bundleFile that is already in an MRU list
+		numAdded.incrementAndGet();
+		if (mruIndex == EVICTED)
+			numReopened.incrementAndGet();
 		BundleFile toRemove = null;
-		EventManager manager = null;
-		synchronized (this) {
-			if (bundleFile.getMruIndex() >= 0)
-				return; // do nothing; someone is trying add a bundleFile that is already in an MRU list
-			int index = 0; // default to the first slot
-			if (numOpen < fileLimit) {
-				// numOpen does not exceed the fileLimit
-				// find the first null slot to use in the MRU
-				for (int i = 0; i < fileLimit; i++)
-					if (bundleFileList[i] == null) {
-						index = i;
-						break;
-					}
+		int index = -1;
+		while (index < 0) {
+			if (reserveSlot()) {
+				// numOpen does not exceed the fileLimit; use a free slot
+				index = claimFreeSlot(bundleFile);
 			} else {
 				// numOpen has reached the fileLimit
 				// find the least recently used bundleFile and close it 
 				// and use it slot for the new bundleFile to be opened.
-				index = 0;
-				for (int i = 1; i < fileLimit; i++)
-					if (useStampList[i] < useStampList[index])
-						index = i;
-				toRemove = bundleFileList[index];
-				if (toRemove.getMruIndex() != index)
-					throw new IllegalStateException("The BundleFile has the incorrect mru index: " + index + " != " + toRemove.getMruIndex()); //$NON-NLS-1$//$NON-NLS-2$
-				removeInternal(toRemove);
-			}
-			// found an index to place to bundleFile to be opened
-			bundleFileList[index] = bundleFile;
-			bundleFile.setMruIndex(index);
-			incUseStamp(index);
-			numOpen++;
-			if (toRemove != null) {
-				if (bundleFileCloserManager == null)
-					bundleFileCloserManager = new EventManager("Bundle File Closer"); //$NON-NLS-1$
-				manager = bundleFileCloserManager;
+				int victimIndex = advanceClock();
+				BundleFile victim = bundleFileList.get(victimIndex);
+				// only evict a bundle file which is completely added to the slot
+				if (victim == null || victim.getMruIndex() != victimIndex || !bundleFileList.compareAndSet(victimIndex, victim, bundleFile))
+					continue; // the slot changed; try again
+				// the slot is reused for the bundle file being opened
+				victim.setMruIndex(EVICTED);
+				numEvicted.incrementAndGet();
+				toRemove = victim;
+				index = victimIndex;
 			}
-
 		}
+		// found an index to place to bundleFile to be opened
+		referenceList.set(index, 1);
+		bundleFile.setMruIndex(index);
 		// must not close the toRemove bundle file while holding the lock of another bundle file (bug 161976)
 		// This queues the bundle file for close asynchronously.
-		closeBundleFile(toRemove, manager);
+		closeBundleFile(toRemove, toRemove == null ? null : getCloserManager());
+	}
+
+	private boolean reserveSlot() {
+		while (true) {
+			int open = numOpen.get();
+			if (open >= fileLimit)
+				return false;
+			if (numOpen.compareAndSet(open, open + 1))
+				return true;
+		}
+	}
+
+	// must only be called after a slot has been reserved; a free slot is guaranteed to exist
+	private int claimFreeSlot(BundleFile bundleFile) {
+		int index = freeHint.get();
+		while (true) {
+			if (bundleFileList.get(index) == null && bundleFileList.compareAndSet(index, null, bundleFile)) {
+				freeHint.set((index + 1) % fileLimit);
+				return index;
+			}
+			index = (index + 1) % fileLimit;
+		}
+	}
+
+	private int advanceClock() {
+		// give each recently used bundle file a second chance; the reference bits
+		// are cleared along the way so a slot is found after at most one full sweep
+		while (true) {
+			int index = (clockHand.getAndIncrement() & Integer.MAX_VALUE) % fileLimit;
+			if (!referenceList.compareAndSet(index, 1, 0))
+				return index;
+		}
+	}
+
+	private EventManager getCloserManager() {
+		EventManager manager = bundleFileCloserManager;
+		if (manager != null)
+			return manager;
+		synchronized (this) {
+			if (bundleFileCloserManager == null)
+				bundleFileCloserManager = new EventManager("Bundle File Closer"); //$NON-NLS-1$
+			return bundleFileCloserManager;
+		}
 	}
 
 	/**
@@ -133,25 +198,18 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean remove(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return false; // MRU is disabled
-		synchronized (this) {
-			int index = bundleFile.getMruIndex();
-			if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile) {
-				removeInternal(bundleFile);
-				return true;
-			}
+		int index = bundleFile.getMruIndex();
+		if ((index >= 0 && index < fileLimit) && bundleFileList.compareAndSet(index, bundleFile, null)) {
+			// the slot is released; a concurrent eviction of this bundle file failed
+			bundleFile.setMruIndex(-1);
+			referenceList.set(index, 0);
+			freeHint.set(index);
+			numOpen.decrementAndGet();
+			return true;
 		}
 		return false;
 	}
 
-	// must be called while synchronizing "this"
-	private void removeInternal(BundleFile bundleFile) {
-		int index = bundleFile.getMruIndex();
-		bundleFile.setMruIndex(-1);
-		bundleFileList[index] = null;
-		useStampList[index] = -1;
-		numOpen--;
-	}
-
 	/**
 	 * Increments the use stamp of a bundle file
 	 * @param bundleFile the bundle file to increment the use stamp for
@@ -159,22 +217,10 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public void use(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return; // MRU is disabled
-		synchronized (this) {
-			int index = bundleFile.getMruIndex();
-			if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile)
-				incUseStamp(index);
-		}
-	}
-
-	// must be called while synchronizing "this"
-	private void incUseStamp(int index) {
-		if (curUseStamp == Long.MAX_VALUE) {
-			// we hit the curUseStamp max better reset all the stamps
-			for (int i = 0; i < fileLimit; i++)
-				useStampList[i] = 0;
-			curUseStamp = 0;
-		}
-		useStampList[index] = ++curUseStamp;
+		int index = bundleFile.getMruIndex();
+		// no need to synchronize; a lost reference bit only makes the bundle file a candidate for closing sooner
+		if ((index >= 0 && index < fileLimit) && referenceList.get(index) == 0 && bundleFileList.get(index) == bundleFile)
+			referenceList.set(index, 1);
 	}
 
 	public final void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, BundleFile eventObject) {
@@ -183,19 +229,30 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 			Thread.currentThread().setContextClassLoader(null);
 			firstDispatch = false;
 		}
-		try {
-			closingBundleFile.set(eventObject);
-			eventObject.close();
-		} catch (IOException e) {
-			// TODO should log ??
-		} finally {
-			closingBundleFile.set(null);
-		}
+		do {
+			// close all the bundle files queued so far in one batch
+			BundleFile toClose;
+			while ((toClose = pendingClose.poll()) != null) {
+				try {
+					closingBundleFile.set(toClose);
+					toClose.close();
+				} catch (IOException e) {
+					// TODO should log ??
+				} finally {
+					closingBundleFile.set(null);
+				}
+			}
+			closerScheduled.set(false);
+			// check for bundle files queued after the last poll which did not schedule a new batch
+		} while (!pendingClose.isEmpty() && closerScheduled.compareAndSet(false, true));
 	}
 
 	private void closeBundleFile(BundleFile toRemove, EventManager manager) {
 		if (toRemove == null)
 			return;
+		pendingClose.add(toRemove);
+		if (!closerScheduled.compareAndSet(false, true))
+			return; // a batch is already scheduled; it will close this bundle file
 		try {
 			/* queue to hold set of listeners */
 			ListenerQueue<Object, Object, BundleFile> queue = new ListenerQueue<Object, Object, BundleFile>(manager);
@@ -207,6 +264,7 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 			// we cannot propagate exceptions out of this method
 			// failing to queue a bundle close should not cause an error (bug 283797)
 			// TODO should consider logging
+			closerScheduled.set(false);
 		}
 	}
 
@@ -236,4 +294,47 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean isEnabled() {
 		return fileLimit >= MIN;
 	}
+
+	/**
+	 * Returns the number of bundle files currently open in this MRU list
+	 * @return the number of open bundle files
+	 * @since 3.9
+	 */
+	public int getOpenCount() {
+		return fileLimit < MIN ? 0 : numOpen.get();
+	}
+
+	/**
+	 * Returns the number of bundle files which have been added to this MRU list
+	 * @return the number of bundle files opened
+	 * @since 3.9
+	 */
+	public long getAddCount() {
+		return numAdded.get();
+	}
+
+	/**
+	 * Returns the number of bundle files which have been closed by this MRU list
+	 * because the file limit was reached
+	 * @return the number of evicted bundle files
+	 * @since 3.9
+	 */
+	public long getEvictionCount() {
+		return numEvicted.get();
+	}
+
+	/**
+	 * Returns the number of bundle files which have been opened again after they
+	 * were closed by this MRU list.  A high number compared to {@link #getAddCount()}
+	 * indicates that the file limit is too low.
+	 * @return the number of reopened bundle files
+	 * @since 3.9
+	 */
+	public long getReopenCount() {
+		return numReopened.get();
+	}
+
+	public String toString() {
+		return "MRUBundleFileList[limit=" + fileLimit + ", open=" + getOpenCount() + ", added=" + getAddCount() + ", evicted=" + getEvictionCount() + ", reopened=" + getReopenCount() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
 }
@@ -0,0 +1,790 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.baseadaptor.bundlefile;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.*;
+import org.eclipse.osgi.baseadaptor.BaseData;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.framework.util.MappedBufferUtil;
+import org.eclipse.osgi.internal.baseadaptor.AdaptorMsg;
+import org.eclipse.osgi.internal.baseadaptor.AdaptorUtil;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.FrameworkEvent;
+
+/**
+ * A BundleFile that reads a zip file through a read-only memory mapping of the
+ * complete file.  The central directory is parsed once into an immutable index
+ * which allows entries to be looked up and read concurrently without locking.
+ * The content of STORED entries is read directly from the mapping.
+ * <p>
+ * A mapped file does not hold on to a file descriptor, therefore this bundle file
+ * is not tracked by the {@link MRUBundleFileList}.  Zip files which cannot be mapped
+ * (e.g. zip64 files or files using encryption) are read with a {@link ZipBundleFile}.
+ * </p>
+ * <p>
+ * The mapping is released when the bundle file is closed and no input stream
+ * opened on it remains open.  Entries obtained before the bundle file was closed
+ * map the zip file again when they are read.
+ * </p>
+ * @since 3.9
+ */
+public class MappedZipBundleFile extends BundleFile {
+	private static final int LOCSIG = 0x04034b50;
+	private static final int CENSIG = 0x02014b50;
+	private static final int ENDSIG = 0x06054b50;
+	private static final int LOCHDR = 30;
+	private static final int CENHDR = 46;
+	private static final int ENDHDR = 22;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	/**
+	 * The bundle data
+	 */
+	protected final BaseData bundledata;
+	private final MRUBundleFileList mruList;
+	// the index of the currently mapped zip file; null if the file is not mapped
+	private volatile Index index;
+	// used when the zip file cannot be mapped
+	private volatile ZipBundleFile fallback;
+
+	/**
+	 * Constructs a mapped zip bundle file
+	 * @param basefile the base file
+	 * @param bundledata the bundle data
+	 * @param mruList the MRU list used if the zip file cannot be mapped
+	 * @throws IOException if the base file does not exist
+	 */
+	public MappedZipBundleFile(File basefile, BaseData bundledata, MRUBundleFileList mruList) throws IOException {
+		super(basefile);
+		if (!BundleFile.secureAction.exists(basefile))
+			throw new IOException(NLS.bind(AdaptorMsg.ADAPTER_FILEEXIST_EXCEPTION, basefile));
+		this.bundledata = bundledata;
+		this.mruList = mruList;
+	}
+
+	/**
+	 * Returns the index for the mapped zip file.  The zip file is mapped the first
+	 * time this method is called after construction or after the bundle file is closed.
+	 * @return the index or <code>null</code> if the zip file is not mapped
+	 */
+	private Index getIndex() {
+		Index current = index;
+		if (current != null)
+			return current;
+		synchronized (this) {
+			if (index == null && fallback == null) {
+				try {
+					index = mapIndex();
+				} catch (ZipException e) {
+					// the format is not supported; use a ZipFile to read the content
+					if (Debug.DEBUG_GENERAL)
+						Debug.println("Unable to map " + basefile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+					try {
+						fallback = new ZipBundleFile(basefile, bundledata, mruList);
+					} catch (IOException ioe) {
+						publishError(ioe);
+					}
+				} catch (IOException e) {
+					publishError(e);
+				}
+			}
+			return index;
+		}
+	}
+
+	private void publishError(IOException e) {
+		if (bundledata != null)
+			bundledata.getAdaptor().getEventPublisher().publishFrameworkEvent(FrameworkEvent.ERROR, bundledata.getBundle(), e);
+	}
+
+	private Index mapIndex() throws IOException {
+		FileInputStream in = BundleFile.secureAction.getFileInputStream(basefile);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new ZipException("Zip file too large to map: " + size); //$NON-NLS-1$
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			boolean indexed = false;
+			try {
+				Index result = new Index(buffer);
+				indexed = true;
+				return result;
+			} finally {
+				if (!indexed)
+					MappedBufferUtil.unmap(buffer);
+			}
+		} finally {
+			// the mapping remains valid after the channel is closed
+			in.close();
+		}
+	}
+
+	/**
+	 * Acquires an index for reading entry content.  If the specified index has been
+	 * closed then the zip file is mapped again.  The returned index must be released.
+	 * @param current the index to acquire
+	 * @return the acquired index
+	 * @throws IOException if the zip file cannot be mapped
+	 */
+	private Index acquireIndex(Index current) throws IOException {
+		while (!current.acquire()) {
+			current = getIndex();
+			if (current == null)
+				throw new IOException(NLS.bind(AdaptorMsg.ADAPTER_FILEEXIST_EXCEPTION, basefile));
+		}
+		return current;
+	}
+
+	private static MappedZipEntry getEntry(Index acquired, Index original, MappedZipEntry entry) throws IOException {
+		if (acquired == original)
+			return entry;
+		// the zip file was mapped again; the entry must be looked up in the new index
+		MappedZipEntry result = acquired.getEntry(entry.name);
+		if (result == null)
+			throw new FileNotFoundException(entry.name);
+		return result;
+	}
+
+	InputStream getInputStream(Index current, MappedZipEntry entry) throws IOException {
+		Index acquired = acquireIndex(current);
+		try {
+			InputStream result = acquired.getInputStream(getEntry(acquired, current, entry));
+			// the stream releases the index when it is closed
+			acquired = null;
+			return result;
+		} finally {
+			if (acquired != null)
+				acquired.release();
+		}
+	}
+
+	byte[] getBytes(Index current, MappedZipEntry entry) throws IOException {
+		Index acquired = acquireIndex(current);
+		try {
+			return acquired.getBytes(getEntry(acquired, current, entry));
+		} finally {
+			acquired.release();
+		}
+	}
+
+	public BundleEntry getEntry(String path) {
+		Index current = getIndex();
+		if (current == null) {
+			ZipBundleFile zip = fallback;
+			return zip == null ? null : zip.getEntry(path);
+		}
+		String name = (path.length() > 0 && path.charAt(0) == '/') ? path.substring(1) : path;
+		MappedZipEntry entry = current.getEntry(name);
+		if (entry == null) {
+			if (name.length() == 0 || name.charAt(name.length() - 1) == '/') {
+				// this is a directory request lets see if any entries exist in this directory
+				if (current.containsDir(name))
+					return new MappedDirBundleEntry(name);
+			}
+			return null;
+		}
+		return new MappedZipBundleEntry(current, entry);
+	}
+
+	public boolean containsDir(String dir) {
+		Index current = getIndex();
+		if (current == null) {
+			ZipBundleFile zip = fallback;
+			return zip == null ? false : zip.containsDir(dir);
+		}
+		if (dir == null)
+			return false;
+		if (dir.length() > 0 && dir.charAt(0) == '/')
+			dir = dir.substring(1);
+		return current.containsDir(dir);
+	}
+
+	public Enumeration<String> getEntryPaths(String path) {
+		Index current = getIndex();
+		if (current == null) {
+			ZipBundleFile zip = fallback;
+			return zip == null ? null : zip.getEntryPaths(path);
+		}
+		if (path == null)
+			throw new NullPointerException();
+
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+			path = new StringBuffer(path).append("/").toString(); //$NON-NLS-1$
+
+		Set<String> result = new LinkedHashSet<String>();
+		String[] names = current.names;
+		for (int i = current.firstIndexOf(path); i < names.length && names[i].startsWith(path); i++) {
+			String entryPath = names[i];
+			if (path.length() < entryPath.length()) {
+				if (entryPath.lastIndexOf('/') < path.length()) {
+					result.add(entryPath);
+				} else {
+					int slash = entryPath.indexOf('/', path.length());
+					result.add(entryPath.substring(0, slash + 1));
+				}
+			}
+		}
+		return result.size() == 0 ? null : Collections.enumeration(result);
+	}
+
+	public File getFile(String entry, boolean nativeCode) {
+		Index current = getIndex();
+		if (current == null) {
+			ZipBundleFile zip = fallback;
+			return zip == null ? null : zip.getFile(entry, nativeCode);
+		}
+		String name = (entry.length() > 0 && entry.charAt(0) == '/') ? entry.substring(1) : entry;
+		MappedZipEntry zipEntry = current.getEntry(name);
+		if (zipEntry == null)
+			return null;
+		// only extraction needs to be serialized
+		synchronized (this) {
+			return extractEntry(current, zipEntry, nativeCode);
+		}
+	}
+
+	private File extractEntry(Index current, MappedZipEntry zipEntry, boolean nativeCode) {
+		try {
+			File nested = getExtractFile(zipEntry.name);
+			if (nested != null) {
+				if (nested.exists()) {
+					/* the entry is already cached */
+					if (Debug.DEBUG_GENERAL)
+						Debug.println("File already present: " + nested.getPath()); //$NON-NLS-1$
+					if (nested.isDirectory())
+						// must ensure the complete directory is extracted (bug 182585)
+						extractDirectory(current, zipEntry.name);
+				} else {
+					if (zipEntry.name.endsWith("/")) { //$NON-NLS-1$
+						if (!nested.mkdirs()) {
+							if (Debug.DEBUG_GENERAL)
+								Debug.println("Unable to create directory: " + nested.getPath()); //$NON-NLS-1$
+							throw new IOException(NLS.bind(AdaptorMsg.ADAPTOR_DIRECTORY_CREATE_EXCEPTION, nested.getAbsolutePath()));
+						}
+						extractDirectory(current, zipEntry.name);
+					} else {
+						InputStream in = getInputStream(current, zipEntry);
+						/* the entry has not been cached */
+						if (Debug.DEBUG_GENERAL)
+							Debug.println("Creating file: " + nested.getPath()); //$NON-NLS-1$
+						/* create the necessary directories */
+						File dir = new File(nested.getParent());
+						if (!dir.exists() && !dir.mkdirs()) {
+							if (Debug.DEBUG_GENERAL)
+								Debug.println("Unable to create directory: " + dir.getPath()); //$NON-NLS-1$
+							throw new IOException(NLS.bind(AdaptorMsg.ADAPTOR_DIRECTORY_CREATE_EXCEPTION, dir.getAbsolutePath()));
+						}
+						/* copy the entry to the cache */
+						AdaptorUtil.readFile(in, nested);
+						if (nativeCode)
+							setPermissions(nested);
+					}
+				}
+				return nested;
+			}
+		} catch (IOException e) {
+			if (Debug.DEBUG_GENERAL)
+				Debug.printStackTrace(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Extracts a directory and all sub content to disk
+	 * @param dirName the directory name to extract
+	 * @return the File used to extract the content to.  A value
+	 * of <code>null</code> is returned if the directory to extract does
+	 * not exist or if content extraction is not supported.
+	 */
+	File extractDirectory(String dirName) {
+		Index current = getIndex();
+		if (current == null) {
+			ZipBundleFile zip = fallback;
+			return zip == null ? null : zip.extractDirectory(dirName);
+		}
+		synchronized (this) {
+			return extractDirectory(current, dirName);
+		}
+	}
+
+	private File extractDirectory(Index current, String dirName) {
+		String[] names = current.names;
+		for (int i = current.firstIndexOf(dirName); i < names.length && names[i].startsWith(dirName); i++) {
+			if (!names[i].endsWith("/")) //$NON-NLS-1$
+				extractEntry(current, current.getEntry(names[i]), false);
+		}
+		return getExtractFile(dirName);
+	}
+
+	private File getExtractFile(String entryName) {
+		if (bundledata == null)
+			return null;
+		String path = ".cp"; /* put all these entries in this subdir *///$NON-NLS-1$
+		String name = entryName.replace('/', File.separatorChar);
+		if ((name.length() > 1) && (name.charAt(0) == File.separatorChar)) /* if name has a leading slash */
+			path = path.concat(name);
+		else
+			path = path + File.separator + name;
+		return bundledata.getExtractFile(path);
+	}
+
+	public synchronized void close() throws IOException {
+		Index current = index;
+		index = null;
+		if (current != null)
+			// the mapping is released once the last open input stream is closed
+			current.close();
+		ZipBundleFile zip = fallback;
+		fallback = null;
+		if (zip != null)
+			zip.close();
+	}
+
+	public void open() {
+		//do nothing
+	}
+
+	/**
+	 * Converts an MS-DOS date and time into milliseconds since the epoch
+	 */
+	static long dosToJavaTime(long dosTime) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set((int) (((dosTime >> 25) & 0x7f) + 1980), (int) (((dosTime >> 21) & 0x0f) - 1), (int) ((dosTime >> 16) & 0x1f), (int) ((dosTime >> 11) & 0x1f), (int) ((dosTime >> 5) & 0x3f), (int) ((dosTime << 1) & 0x3e));
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * An immutable index of the central directory of a mapped zip file.
+	 */
+	static final class Index {
+		final ByteBuffer buffer;
+		final Map<String, MappedZipEntry> entries;
+		// the sorted entry names; used for directory queries
+		final String[] names;
+		// the number of readers using the buffer; guarded by this
+		private int readers = 0;
+		// true once the index is closed; guarded by this
+		private boolean closed = false;
+
+		Index(ByteBuffer buffer) throws IOException {
+			this.buffer = buffer;
+			int end = findEnd(buffer);
+			if (end < 0)
+				throw new ZipException("Zip END header not found"); //$NON-NLS-1$
+			int total = getShort(buffer, end + 10);
+			long cenSize = getInt(buffer, end + 12);
+			long cenOffset = getInt(buffer, end + 16);
+			if (total == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC)
+				throw new ZipException("Zip64 is not supported"); //$NON-NLS-1$
+			if (cenOffset + cenSize > end)
+				throw new ZipException("Invalid central directory offset"); //$NON-NLS-1$
+			Map<String, MappedZipEntry> entryMap = new HashMap<String, MappedZipEntry>(total * 4 / 3 + 1);
+			List<String> entryNames = new ArrayList<String>(total);
+			int pos = (int) cenOffset;
+			for (int i = 0; i < total; i++) {
+				if (buffer.getInt(pos) != CENSIG)
+					throw new ZipException("Invalid central directory header"); //$NON-NLS-1$
+				int flag = getShort(buffer, pos + 8);
+				int method = getShort(buffer, pos + 10);
+				long dosTime = getInt(buffer, pos + 12);
+				long compressedSize = getInt(buffer, pos + 20);
+				long size = getInt(buffer, pos + 24);
+				int nameLength = getShort(buffer, pos + 28);
+				int extraLength = getShort(buffer, pos + 30);
+				int commentLength = getShort(buffer, pos + 32);
+				long localOffset = getInt(buffer, pos + 42);
+				if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC || localOffset == ZIP64_MAGIC)
+					throw new ZipException("Zip64 is not supported"); //$NON-NLS-1$
+				if ((flag & 1) != 0)
+					throw new ZipException("Encrypted entries are not supported"); //$NON-NLS-1$
+				if (method != STORED && method != DEFLATED)
+					throw new ZipException("Unsupported compression method: " + method); //$NON-NLS-1$
+				byte[] nameBytes = new byte[nameLength];
+				ByteBuffer nameBuffer = buffer.duplicate();
+				nameBuffer.position(pos + CENHDR);
+				nameBuffer.get(nameBytes);
+				String name = new String(nameBytes, "UTF-8"); //$NON-NLS-1$
+				if (entryMap.put(name, new MappedZipEntry(name, method, dosTime, (int) compressedSize, (int) size, (int) localOffset)) == null)
+					entryNames.add(name);
+				pos += CENHDR + nameLength + extraLength + commentLength;
+			}
+			this.entries = entryMap;
+			this.names = entryNames.toArray(new String[entryNames.size()]);
+			Arrays.sort(this.names);
+		}
+
+		/**
+		 * Acquires the buffer for reading.  Each successful acquire must be followed by a release.
+		 * @return false if the index has been closed
+		 */
+		synchronized boolean acquire() {
+			if (closed)
+				return false;
+			readers++;
+			return true;
+		}
+
+		synchronized void release() {
+			if (--readers == 0 && closed)
+				MappedBufferUtil.unmap(buffer);
+		}
+
+		/**
+		 * Closes the index.  The buffer is unmapped as soon as no reader uses it.
+		 */
+		synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			if (readers == 0)
+				MappedBufferUtil.unmap(buffer);
+		}
+
+		private static int findEnd(ByteBuffer buffer) {
+			int minPos = Math.max(0, buffer.limit() - ENDHDR - 0xFFFF);
+			for (int pos = buffer.limit() - ENDHDR; pos >= minPos; pos--) {
+				if (buffer.getInt(pos) == ENDSIG)
+					return pos;
+			}
+			return -1;
+		}
+
+		private static int getShort(ByteBuffer buffer, int pos) {
+			return buffer.getShort(pos) & 0xFFFF;
+		}
+
+		private static long getInt(ByteBuffer buffer, int pos) {
+			return buffer.getInt(pos) & 0xFFFFFFFFL;
+		}
+
+		/**
+		 * Returns an entry using the same rules as ZipFile.getEntry.
+		 */
+		MappedZipEntry getEntry(String name) {
+			MappedZipEntry entry = entries.get(name);
+			if (entry == null) {
+				if (name.length() > 0 && name.charAt(name.length() - 1) != '/')
+					entry = entries.get(name + '/');
+			} else if (entry.size == 0 && !entry.isDirectory()) {
+				// work around the directory bug see bug 83542
+				MappedZipEntry dirEntry = entries.get(name + '/');
+				if (dirEntry != null)
+					entry = dirEntry;
+			}
+			return entry;
+		}
+
+		/**
+		 * Returns the index of the first sorted name which is greater or equal to the prefix
+		 */
+		int firstIndexOf(String prefix) {
+			int result = Arrays.binarySearch(names, prefix);
+			return result >= 0 ? result : -result - 1;
+		}
+
+		boolean containsDir(String dir) {
+			if (dir.length() == 0)
+				return true;
+			if (dir.charAt(dir.length() - 1) != '/')
+				dir = dir + '/';
+			int first = firstIndexOf(dir);
+			return first < names.length && names[first].startsWith(dir);
+		}
+
+		/**
+		 * Returns a buffer containing the raw (possibly compressed) content of the entry
+		 */
+		ByteBuffer getData(MappedZipEntry entry) throws IOException {
+			int local = entry.localOffset;
+			if (buffer.getInt(local) != LOCSIG)
+				throw new ZipException("Invalid local header: " + entry.name); //$NON-NLS-1$
+			int start = local + LOCHDR + getShort(buffer, local + 26) + getShort(buffer, local + 28);
+			ByteBuffer data = buffer.duplicate();
+			data.limit(start + entry.compressedSize);
+			data.position(start);
+			return data.slice();
+		}
+
+		/**
+		 * Returns an input stream for the entry.  The index must be acquired by the caller;
+		 * closing the returned stream releases the index.
+		 */
+		InputStream getInputStream(MappedZipEntry entry) throws IOException {
+			ByteBuffer data = getData(entry);
+			if (entry.method == STORED)
+				return new ByteBufferInputStream(data, this);
+			return new MappedInflaterInputStream(new ByteBufferInputStream(data, this), new Inflater(true), Math.max(512, Math.min(entry.compressedSize, 8192)));
+		}
+
+		/**
+		 * Returns the content of the entry.  The index must be acquired by the caller.
+		 */
+		byte[] getBytes(MappedZipEntry entry) throws IOException {
+			ByteBuffer data = getData(entry);
+			byte[] result = new byte[entry.size];
+			if (entry.method == STORED) {
+				data.get(result);
+				return result;
+			}
+			// an extra dummy byte is required when using the nowrap option
+			byte[] input = new byte[entry.compressedSize + 1];
+			data.get(input, 0, entry.compressedSize);
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(input);
+				int read = 0;
+				while (read < result.length) {
+					int count = inflater.inflate(result, read, result.length - read);
+					if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					read += count;
+				}
+				if (read != result.length)
+					throw new ZipException("Invalid entry size: " + entry.name); //$NON-NLS-1$
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			} finally {
+				inflater.end();
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The central directory information for a single entry
+	 */
+	static final class MappedZipEntry {
+		final String name;
+		final int method;
+		final long dosTime;
+		final int compressedSize;
+		final int size;
+		final int localOffset;
+
+		MappedZipEntry(String name, int method, long dosTime, int compressedSize, int size, int localOffset) {
+			this.name = name;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.localOffset = localOffset;
+		}
+
+		boolean isDirectory() {
+			return name.endsWith("/"); //$NON-NLS-1$
+		}
+	}
+
+	private class MappedZipBundleEntry extends BundleEntry {
+		private final Index entryIndex;
+		private final MappedZipEntry entry;
+
+		MappedZipBundleEntry(Index entryIndex, MappedZipEntry entry) {
+			this.entryIndex = entryIndex;
+			this.entry = entry;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			return MappedZipBundleFile.this.getInputStream(entryIndex, entry);
+		}
+
+		public byte[] getBytes() throws IOException {
+			if (Debug.DEBUG_LOADER)
+				Debug.println("  about to read " + entry.size + " bytes from " + getName()); //$NON-NLS-1$ //$NON-NLS-2$
+			return MappedZipBundleFile.this.getBytes(entryIndex, entry);
+		}
+
+		public long getSize() {
+			return entry.size;
+		}
+
+		public String getName() {
+			return entry.name;
+		}
+
+		public long getTime() {
+			return dosToJavaTime(entry.dosTime);
+		}
+
+		@SuppressWarnings("deprecation")
+		public URL getLocalURL() {
+			try {
+				return new URL("jar:" + basefile.toURL() + "!/" + entry.name); //$NON-NLS-1$//$NON-NLS-2$
+			} catch (MalformedURLException e) {
+				//This can not happen.
+				return null;
+			}
+		}
+
+		@SuppressWarnings("deprecation")
+		public URL getFileURL() {
+			try {
+				File file = getFile(entry.name, false);
+				if (file != null)
+					return file.toURL();
+			} catch (MalformedURLException e) {
+				//This can not happen.
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Represents a directory which has no entry of its own in the zip file
+	 */
+	private class MappedDirBundleEntry extends BundleEntry {
+		private final String name;
+
+		MappedDirBundleEntry(String name) {
+			this.name = name;
+		}
+
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+
+		public long getSize() {
+			return 0;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getTime() {
+			return 0;
+		}
+
+		@SuppressWarnings("deprecation")
+		public URL getLocalURL() {
+			try {
+				return new URL("jar:" + basefile.toURL() + "!/" + name); //$NON-NLS-1$ //$NON-NLS-2$
+			} catch (MalformedURLException e) {
+				//This can not happen, unless the jar protocol is not supported.
+				return null;
+			}
+		}
+
+		@SuppressWarnings("deprecation")
+		public URL getFileURL() {
+			try {
+				File dir = extractDirectory(name);
+				return dir == null ? null : dir.toURL();
+			} catch (MalformedURLException e) {
+				// this cannot happen.
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Reads the content of a buffer without copying it; releases the
+	 * index of the buffer on close
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		private Index index;
+
+		ByteBufferInputStream(ByteBuffer buffer, Index index) {
+			this.buffer = buffer;
+			this.index = index;
+		}
+
+		public synchronized int read() throws IOException {
+			checkOpen();
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public synchronized int read(byte[] b, int off, int len) throws IOException {
+			checkOpen();
+			if (len == 0)
+				return 0;
+			if (!buffer.hasRemaining())
+				return -1;
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		public synchronized long skip(long n) throws IOException {
+			checkOpen();
+			int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		public synchronized int available() throws IOException {
+			checkOpen();
+			return buffer.remaining();
+		}
+
+		public synchronized void close() {
+			if (index == null)
+				return;
+			index.release();
+			index = null;
+		}
+
+		private void checkOpen() throws IOException {
+			// the buffer may be unmapped once the stream is closed
+			if (index == null)
+				throw new IOException("Stream is closed"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Inflates a raw deflated entry; supplies the extra dummy byte
+	 * required by the nowrap option and releases the inflater on close.
+	 */
+	private static class MappedInflaterInputStream extends InflaterInputStream {
+		private boolean eof = false;
+		private boolean closed = false;
+
+		MappedInflaterInputStream(InputStream in, Inflater inflater, int size) {
+			super(in, inflater, size);
+		}
+
+		protected void fill() throws IOException {
+			if (eof)
+				throw new EOFException("Unexpected end of zip entry"); //$NON-NLS-1$
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			inf.end();
+			super.close();
+		}
+	}
+}
@@ -28,6 +28,9 @@ import org.osgi.framework.FrameworkEvent;
  * @since 3.2
  */
 public class ZipBundleFile extends BundleFile {
+	private static final String PROP_INDEX_ENTRIES = "osgi.bundlefile.index"; //$NON-NLS-1$
+	private static final boolean INDEX_ENTRIES = !"false".equals(BundleFile.secureAction.getProperty(PROP_INDEX_ENTRIES)); //$NON-NLS-1$
+	private static final String INDEX_DIR = ".index"; //$NON-NLS-1$
 
 	private final MRUBundleFileList mruList;
 	/**
@@ -44,6 +47,9 @@ public class ZipBundleFile extends BundleFile {
 	protected volatile boolean closed = true;
 
 	private int referenceCount = 0;
+	// the index of entry names; used to avoid opening the zip file for entries which do not exist
+	private volatile ZipEntryIndex entryIndex;
+	private volatile boolean entryIndexRead = false;
 
 	/**
 	 * Constructs a ZipBundle File
@@ -99,6 +105,14 @@ public class ZipBundleFile extends BundleFile {
 			mruListAdd();
 			zipFile = basicOpen();
 			closed = false;
+			if (INDEX_ENTRIES && getEntryIndex() == null) {
+				// first time the zip file is opened and no valid persisted index exists
+				ZipEntryIndex index = ZipEntryIndex.create(zipFile);
+				File indexFile = getIndexFile();
+				if (indexFile != null)
+					index.write(indexFile, basefile);
+				entryIndex = index;
+			}
 		} else
 			mruListUse();
 		return zipFile;
@@ -143,6 +157,50 @@ public class ZipBundleFile extends BundleFile {
 		return getExtractFile(dirName);
 	}
 
+	/**
+	 * Returns the entry name index for this bundle file.  The persisted index
+	 * is read the first time this method is called after the bundle file is closed.
+	 * @return the entry name index or <code>null</code> if no valid index is available yet
+	 */
+	private ZipEntryIndex getEntryIndex() {
+		ZipEntryIndex index = entryIndex;
+		if (index != null || entryIndexRead)
+			return index;
+		synchronized (this) {
+			if (!entryIndexRead) {
+				File indexFile = getIndexFile();
+				if (indexFile != null)
+					entryIndex = ZipEntryIndex.read(indexFile, basefile);
+				entryIndexRead = true;
+			}
+			return entryIndex;
+		}
+	}
+
+	private File getIndexFile() {
+		if (bundledata == null)
+			return null;
+		// the base file path is also stored in the index file to detect collisions
+		return bundledata.getExtractFile(INDEX_DIR + File.separator + Integer.toHexString(basefile.getAbsolutePath().hashCode()) + ".idx"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns false if the persisted index of entry names shows that the
+	 * specified entry does not exist.  This does not require the zip file to be opened.
+	 * @param path the path to an entry
+	 * @return false if the entry definitely does not exist
+	 */
+	private boolean mayContain(String path) {
+		if (!INDEX_ENTRIES)
+			return true;
+		ZipEntryIndex index = getEntryIndex();
+		if (index == null)
+			return true;
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		return index.mayContain(path);
+	}
+
 	protected File getExtractFile(String entryName) {
 		if (bundledata == null)
 			return null;
@@ -241,7 +299,14 @@ public class ZipBundleFile extends BundleFile {
 		return false;
 	}
 
-	public synchronized BundleEntry getEntry(String path) {
+	public BundleEntry getEntry(String path) {
+		// avoid opening (or reopening) the zip file for entries which do not exist
+		if (!mayContain(path))
+			return null;
+		return getEntryImpl(path);
+	}
+
+	private synchronized BundleEntry getEntryImpl(String path) {
 		if (!checkedOpen())
 			return null;
 		ZipEntry zipEntry = getZipEntry(path);
@@ -311,6 +376,9 @@ public class ZipBundleFile extends BundleFile {
 			closed = true;
 			zipFile.close();
 			mruListRemove();
+			// the index is read again from the bundle store when it is needed
+			entryIndex = null;
+			entryIndexRead = false;
 		}
 	}
 
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.baseadaptor.bundlefile;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.eclipse.osgi.framework.debug.Debug;
+
+/**
+ * An immutable index of the entry names contained in a zip file.  The index
+ * allows a {@link ZipBundleFile} to answer that an entry does not exist without
+ * opening the zip file.  An index is persisted in the bundle store and is only
+ * reused while the time stamp and size of the zip file remain unchanged.
+ * <p>
+ * Only the sorted hash codes of the entry names are kept, so the index may
+ * answer that an entry exists when it does not, but never the reverse.
+ * </p>
+ */
+final class ZipEntryIndex {
+	private static final byte VERSION = 2;
+
+	// sorted hash codes of the entry names
+	private final int[] hashes;
+
+	private ZipEntryIndex(int[] hashes) {
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Returns true if the zip file may contain the specified entry.  A return value of
+	 * false indicates that the entry definitely does not exist in the zip file.
+	 * @param path the entry path with no leading '/'
+	 * @return false if the entry does not exist in the zip file
+	 */
+	boolean mayContain(String path) {
+		if (path.length() == 0 || path.charAt(path.length() - 1) == '/')
+			// directories may be implied by the entries they contain; always search
+			return true;
+		// ZipFile.getEntry also finds the directory entry for a path with no trailing '/'
+		int hash = path.hashCode();
+		return Arrays.binarySearch(hashes, hash) >= 0 || Arrays.binarySearch(hashes, 31 * hash + '/') >= 0;
+	}
+
+	private static ZipEntryIndex create(int[] hashes, int size) {
+		if (size < hashes.length) {
+			int[] trimmed = new int[size];
+			System.arraycopy(hashes, 0, trimmed, 0, size);
+			hashes = trimmed;
+		}
+		Arrays.sort(hashes);
+		return new ZipEntryIndex(hashes);
+	}
+
+	/**
+	 * Creates an index from the entries of an open zip file.
+	 * @param zipFile an open zip file
+	 * @return the index of the zip file entries
+	 */
+	static ZipEntryIndex create(ZipFile zipFile) {
+		int[] hashes = new int[zipFile.size()];
+		int size = 0;
+		Enumeration<? extends ZipEntry> entries = zipFile.entries();
+		while (entries.hasMoreElements() && size < hashes.length)
+			hashes[size++] = entries.nextElement().getName().hashCode();
+		return create(hashes, size);
+	}
+
+	/**
+	 * Reads a persisted index.  The index is only returned if it was created
+	 * for a zip file with the same path, time stamp and size as the specified base file.
+	 * @param indexFile the persisted index file
+	 * @param basefile the zip file the index is for
+	 * @return the persisted index or <code>null</code> if the index does not exist or is stale
+	 */
+	static ZipEntryIndex read(File indexFile, File basefile) {
+		if (!BundleFile.secureAction.exists(indexFile))
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(BundleFile.secureAction.getFileInputStream(indexFile)));
+			if (in.readByte() != VERSION)
+				return null;
+			if (!basefile.getAbsolutePath().equals(in.readUTF()))
+				return null;
+			if (in.readLong() != BundleFile.secureAction.lastModified(basefile) || in.readLong() != BundleFile.secureAction.length(basefile))
+				return null;
+			int size = in.readInt();
+			int[] hashes = new int[size];
+			for (int i = 0; i < size; i++)
+				hashes[i] = in.readInt();
+			return create(hashes, size);
+		} catch (IOException e) {
+			if (Debug.DEBUG_GENERAL)
+				Debug.printStackTrace(e);
+			return null;
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing
+				}
+		}
+	}
+
+	/**
+	 * Persists this index for the specified base file.
+	 * @param indexFile the file to persist the index to
+	 * @param basefile the zip file this index is for
+	 */
+	void write(File indexFile, File basefile) {
+		File dir = indexFile.getParentFile();
+		if (dir != null && !BundleFile.secureAction.exists(dir) && !dir.mkdirs())
+			return;
+		boolean written = false;
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(BundleFile.secureAction.getFileOutputStream(indexFile, false)));
+			out.writeByte(VERSION);
+			out.writeUTF(basefile.getAbsolutePath());
+			out.writeLong(BundleFile.secureAction.lastModified(basefile));
+			out.writeLong(BundleFile.secureAction.length(basefile));
+			out.writeInt(hashes.length);
+			for (int i = 0; i < hashes.length; i++)
+				out.writeInt(hashes[i]);
+			out.close();
+			out = null;
+			written = true;
+		} catch (IOException e) {
+			if (Debug.DEBUG_GENERAL)
+				Debug.printStackTrace(e);
+		} finally {
+			if (out != null)
+				try {
+					out.close();
+				} catch (IOException e) {
+					// nothing
+				}
+			// do not leave a partial index behind
+			if (!written)
+				indexFile.delete();
+		}
+	}
+}
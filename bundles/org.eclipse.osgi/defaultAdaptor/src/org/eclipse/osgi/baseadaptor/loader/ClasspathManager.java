@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.security.ProtectionDomain;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.osgi.baseadaptor.BaseAdaptor;
 import org.eclipse.osgi.baseadaptor.BaseData;
 import org.eclipse.osgi.baseadaptor.bundlefile.BundleEntry;
@@ -46,14 +47,19 @@ public class ClasspathManager {
 	private static final FragmentClasspath[] emptyFragments = new FragmentClasspath[0];
 	private final static String PROP_CLASSLOADER_LOCK = "osgi.classloader.lock"; //$NON-NLS-1$
 	private final static String VALUE_CLASSNAME_LOCK = "classname"; //$NON-NLS-1$
-	private final static boolean LOCK_CLASSNAME = VALUE_CLASSNAME_LOCK.equals(FrameworkProperties.getProperty(PROP_CLASSLOADER_LOCK));
+	private final static String VALUE_CLASSLOADER_LOCK = "classloader"; //$NON-NLS-1$
+	private final static String CLASSLOADER_LOCK = FrameworkProperties.getProperty(PROP_CLASSLOADER_LOCK);
+	private final static boolean LOCK_CLASSNAME = VALUE_CLASSNAME_LOCK.equals(CLASSLOADER_LOCK);
+	private final static boolean LOCK_CLASSLOADER = VALUE_CLASSLOADER_LOCK.equals(CLASSLOADER_LOCK);
 	private final static Class<?>[] NULL_CLASS_RESULT = new Class[2];
 
 	private final BaseData data;
 	private final String[] classpath;
 	private final BaseClassLoader classloader;
 	private final boolean isParallelClassLoader;
-	private final Map<String, Thread> classNameLocks = new HashMap<String, Thread>(5);
+	// indicates if class names are locked individually instead of locking the class loader
+	private final boolean lockClassName;
+	private final ConcurrentHashMap<String, ClassNameLock> classNameLocks = new ConcurrentHashMap<String, ClassNameLock>(16, 0.75f, 4);
 
 	// Note that PDE has internal dependency on this field type/name (bug 267238)
 	private ClasspathEntry[] entries;
@@ -75,6 +81,9 @@ public class ClasspathManager {
 		this.classpath = classpath;
 		this.classloader = classloader;
 		isParallelClassLoader = (classloader instanceof ParallelClassLoader) ? ((ParallelClassLoader) classloader).isParallelCapable() : false;
+		// parallel capable class loaders always lock by class name; other ParallelClassLoader
+		// implementations lock by class name unless the class loader lock is requested
+		lockClassName = LOCK_CLASSNAME || isParallelClassLoader || (!LOCK_CLASSLOADER && classloader instanceof ParallelClassLoader);
 	}
 
 	/**
@@ -471,7 +480,7 @@ public class ClasspathManager {
 	}
 
 	private Class<?> findLoadedClass(String classname) {
-		if (LOCK_CLASSNAME || isParallelClassLoader) {
+		if (lockClassName) {
 			boolean initialLock = lockClassName(classname);
 			try {
 				return classloader.publicFindLoaded(classname);
@@ -507,38 +516,40 @@ public class ClasspathManager {
 	}
 
 	private boolean lockClassName(String classname) {
-		synchronized (classNameLocks) {
-			Object lockingThread = classNameLocks.get(classname);
-			Thread current = Thread.currentThread();
-			if (lockingThread == current)
-				return false;
-			boolean previousInterruption = Thread.interrupted();
-			try {
-				while (true) {
-					if (lockingThread == null) {
-						classNameLocks.put(classname, current);
-						return true;
-					}
-
-					classNameLocks.wait();
-					lockingThread = classNameLocks.get(classname);
+		Thread current = Thread.currentThread();
+		ClassNameLock lock = classNameLocks.get(classname);
+		if (lock != null && lock.owner == current)
+			return false;
+		ClassNameLock newLock = new ClassNameLock(current);
+		boolean previousInterruption = Thread.interrupted();
+		try {
+			while (true) {
+				lock = classNameLocks.putIfAbsent(classname, newLock);
+				if (lock == null)
+					return true;
+				// only threads locking the same class name wait on the same lock
+				synchronized (lock) {
+					while (!lock.released)
+						lock.wait();
 				}
-			} catch (InterruptedException e) {
+			}
+		} catch (InterruptedException e) {
+			current.interrupt();
+			throw (LinkageError) new LinkageError(classname).initCause(e);
+		} finally {
+			if (previousInterruption) {
 				current.interrupt();
-				throw (LinkageError) new LinkageError(classname).initCause(e);
-			} finally {
-				if (previousInterruption) {
-					current.interrupt();
-				}
 			}
 		}
 	}
 
 	private void unlockClassName(String classname) {
-		synchronized (classNameLocks) {
-			classNameLocks.remove(classname);
-			classNameLocks.notifyAll();
-		}
+		ClassNameLock lock = classNameLocks.remove(classname);
+		if (lock != null)
+			synchronized (lock) {
+				lock.released = true;
+				lock.notifyAll();
+			}
 	}
 
 	private Class<?> findClassImpl(String name, ClasspathEntry classpathEntry, ClassLoadingStatsHook[] hooks) {
@@ -607,7 +618,7 @@ public class ClasspathManager {
 				if (modifiedBytes != null)
 					classbytes = modifiedBytes;
 			}
-			if (LOCK_CLASSNAME || isParallelClassLoader) {
+			if (lockClassName) {
 				boolean initialLock = lockClassName(name);
 				try {
 					result = defineClassHoldingLock(name, classbytes, classpathEntry, entry);
@@ -629,6 +640,19 @@ public class ClasspathManager {
 		return result[0];
 	}
 
+	/*
+	 * A lock held by a thread while it finds or defines a class with a given name.
+	 */
+	private static final class ClassNameLock {
+		final Thread owner;
+		// guarded by the monitor of the lock
+		boolean released = false;
+
+		ClassNameLock(Thread owner) {
+			this.owner = owner;
+		}
+	}
+
 	private Class<?>[] defineClassHoldingLock(String name, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry) {
 		Class<?>[] result = new Class[2];
 		// must call findLoadedClass here even if it was called earlier,
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2011 IBM Corporation and others.
+ * Copyright (c) 2005, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -40,6 +40,7 @@ import org.eclipse.osgi.storagemanager.StorageManager;
 import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
 
 public class BaseStorage implements SynchronousBundleListener {
 	private static final String RUNTIME_ADAPTOR = FrameworkAdaptor.FRAMEWORK_SYMBOLICNAME + "/eclipseadaptor"; //$NON-NLS-1$
@@ -57,6 +58,14 @@ public class BaseStorage implements SynchronousBundleListener {
 	static final String BUNDLEFILE_NAME = "bundlefile"; //$NON-NLS-1$
 	// System property used to clean the osgi configuration area
 	private static final String PROP_CLEAN = "osgi.clean"; //$NON-NLS-1$
+	// System property used to read zip bundle files through a memory mapping
+	private static final String PROP_MAPPED_BUNDLEFILE = "osgi.bundlefile.mapped"; //$NON-NLS-1$
+	// System property used to enable journaling of state changes between full saves of the state
+	private static final String PROP_STATE_JOURNAL = "osgi.stateJournal"; //$NON-NLS-1$
+	// the storage manager cleans up files which start with the name of another managed file and a dot
+	private static final String STATE_JOURNAL_FILE = ".stateJournal"; //$NON-NLS-1$
+	// the number of journal records after which the journal is folded into the state file
+	private static final int MAX_STATE_JOURNAL_RECORDS = 64;
 
 	/** The current bundle data version */
 	public static final byte BUNDLEDATA_VERSION = 18;
@@ -92,6 +101,8 @@ public class BaseStorage implements SynchronousBundleListener {
 	private static final byte PERMDATA_VERSION = 1;
 
 	private final MRUBundleFileList mruList = new MRUBundleFileList();
+	private final boolean mappedBundleFiles = Boolean.valueOf(FrameworkProperties.getProperty(BaseStorage.PROP_MAPPED_BUNDLEFILE)).booleanValue();
+	private final boolean stateJournaling = Boolean.valueOf(FrameworkProperties.getProperty(BaseStorage.PROP_STATE_JOURNAL)).booleanValue();
 
 	BaseAdaptor adaptor;
 	// assume a file: installURL
@@ -129,6 +140,18 @@ public class BaseStorage implements SynchronousBundleListener {
 	private boolean invalidState;
 	private boolean storageManagerClosed;
 
+	// the bundle changes made to the system state since it was last saved; also the lock for journaling
+	private final Map<Long, Integer> pendingStateChanges = new HashMap<Long, Integer>();
+	// the time stamp of the persisted state file or -1 if unknown
+	private long baseStateTimeStamp = -1;
+	private StateJournal stateJournal;
+	// true if the state has changes that cannot be journaled
+	private boolean fullStateSaveRequired;
+	// resolutions made while resolver hooks are registered cannot be replayed from the journal
+	private ServiceListener resolverHookListener;
+	// true if the journal should be folded into the state file on the next save
+	private boolean compactStateJournal;
+
 	BaseStorage() {
 		// make constructor package private
 		// initialize the addXYZURLMethods to support framework extensions
@@ -651,8 +674,18 @@ public class BaseStorage implements SynchronousBundleListener {
 		}
 		if (stateManager == null || isReadOnly() || !stateManager.saveNeeded())
 			return;
+		if (!shutdown && saveStateJournal(systemState))
+			return;
 		if (Debug.DEBUG_GENERAL)
 			Debug.println("Saving resolver state data ..."); //$NON-NLS-1$
+		Map<Long, Integer> savedChanges;
+		synchronized (pendingStateChanges) {
+			// changes made after this point are journaled again against the new state file
+			savedChanges = new HashMap<Long, Integer>(pendingStateChanges);
+			pendingStateChanges.clear();
+		}
+		long savedTimeStamp = systemState.getTimeStamp();
+		boolean saved = false;
 		File stateTmpFile = null;
 		File lazyTmpFile = null;
 		try {
@@ -668,6 +701,7 @@ public class BaseStorage implements SynchronousBundleListener {
 			curStorageManager.lookup(LocationManager.STATE_FILE, true);
 			curStorageManager.lookup(LocationManager.LAZY_FILE, true);
 			curStorageManager.update(new String[] {LocationManager.STATE_FILE, LocationManager.LAZY_FILE}, new String[] {stateTmpFile.getName(), lazyTmpFile.getName()});
+			saved = true;
 		} catch (IOException e) {
 			adaptor.getFrameworkLog().log(new FrameworkEvent(FrameworkEvent.ERROR, context.getBundle(), e));
 		} finally {
@@ -675,9 +709,108 @@ public class BaseStorage implements SynchronousBundleListener {
 				stateTmpFile.delete();
 			if (lazyTmpFile != null && lazyTmpFile.exists())
 				lazyTmpFile.delete();
+			synchronized (pendingStateChanges) {
+				if (saved) {
+					// the journal has been folded into the new state file
+					baseStateTimeStamp = savedTimeStamp;
+					fullStateSaveRequired = false;
+					compactStateJournal = false;
+					if (stateJournal != null)
+						StateJournal.clear(getStorageManager(), STATE_JOURNAL_FILE);
+					stateJournal = null;
+				} else {
+					// keep the changes so they are journaled or saved later
+					for (Iterator<Map.Entry<Long, Integer>> iChanges = savedChanges.entrySet().iterator(); iChanges.hasNext();) {
+						Map.Entry<Long, Integer> change = iChanges.next();
+						if (!pendingStateChanges.containsKey(change.getKey()))
+							pendingStateChanges.put(change.getKey(), change.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends the pending bundle changes to the state journal instead of writing the
+	 * complete state.
+	 * @param systemState the system state
+	 * @return true if the changes were journaled; false if the complete state must be saved
+	 */
+	private boolean saveStateJournal(State systemState) {
+		if (!stateJournaling)
+			return false;
+		synchronized (pendingStateChanges) {
+			if (baseStateTimeStamp < 0 || fullStateSaveRequired || compactStateJournal)
+				return false;
+			// the journal is replayed without resolver hooks; journal only what resolves the same way
+			if (context.getServiceReference(ResolverHookFactory.class.getName()) != null)
+				return false;
+			if (stateJournal != null && stateJournal.getNumRecords() >= MAX_STATE_JOURNAL_RECORDS)
+				return false; // fold the journal into the state file
+			if (stateJournal == null || stateJournal.getBaseTimeStamp() != baseStateTimeStamp)
+				stateJournal = new StateJournal(STATE_JOURNAL_FILE, baseStateTimeStamp);
+			// the changes recorded by updateState are consistent with the time stamp while holding the lock
+			long stateTimeStamp = systemState.getTimeStamp();
+			if (stateTimeStamp == stateJournal.getTimeStamp() && pendingStateChanges.isEmpty())
+				return true; // nothing to journal; dynamic import changes are saved with the complete state
+			if (Debug.DEBUG_GENERAL)
+				Debug.println("Journaling resolver state changes ..."); //$NON-NLS-1$
+			if (!stateJournal.append(getStorageManager(), stateTimeStamp, systemState.isResolved(), pendingStateChanges, getDisabledInfos(systemState)))
+				return false;
+			pendingStateChanges.clear();
+			return true;
 		}
 	}
 
+	private static DisabledInfo[] getDisabledInfos(State systemState) {
+		List<DisabledInfo> result = new ArrayList<DisabledInfo>();
+		BundleDescription[] disabledBundles = systemState.getDisabledBundles();
+		for (int i = 0; i < disabledBundles.length; i++)
+			result.addAll(Arrays.asList(systemState.getDisabledInfos(disabledBundles[i])));
+		return result.toArray(new DisabledInfo[result.size()]);
+	}
+
+	/**
+	 * Replays a state journal on the base state it was created for.  The journal only
+	 * contains changes made while no resolver hooks were registered, so the changes are
+	 * resolved again without resolver hooks as they were originally.
+	 * @param systemState the base state
+	 * @param journal the journal to replay
+	 */
+	private void replayStateJournal(State systemState, StateJournal journal) {
+		if (Debug.DEBUG_GENERAL)
+			Debug.println("Replaying resolver state journal ..."); //$NON-NLS-1$
+		StateObjectFactory factory = stateManager.getFactory();
+		for (Iterator<Map.Entry<Long, Integer>> iChanges = journal.getChanges().entrySet().iterator(); iChanges.hasNext();) {
+			Map.Entry<Long, Integer> change = iChanges.next();
+			long id = change.getKey().longValue();
+			AbstractBundle bundle = (AbstractBundle) adaptor.getBundle(id);
+			if (change.getValue().intValue() == BundleEvent.UNINSTALLED || bundle == null) {
+				systemState.removeBundle(id);
+				continue;
+			}
+			BaseData data = (BaseData) bundle.getBundleData();
+			try {
+				// create the description from the current manifest as when the state is rebuilt
+				Dictionary<String, String> manifest = loadManifest(data, true);
+				BundleDescription newDescription = factory.createBundleDescription(systemState, manifest, data.getLocation(), id);
+				if (systemState.getBundle(id) == null)
+					systemState.addBundle(newDescription);
+				else
+					systemState.updateBundle(newDescription);
+				validateNativeCodePaths(newDescription, data);
+			} catch (BundleException e) {
+				// just ignore bundle datas with invalid manifests
+			}
+		}
+		journal.applyDisabledInfos(systemState);
+		// wires are not journaled; resolve the changes again
+		BundleDescription[] removalPendings = systemState.getRemovalPending();
+		if (journal.isResolved() || removalPendings.length > 0)
+			systemState.resolve(removalPendings);
+		systemState.setTimeStamp(journal.getTimeStamp());
+	}
+
 	public PermissionStorage getPermissionStorage() {
 		if (permissionStorage == null)
 			permissionStorage = readPermissionData();
@@ -743,7 +876,7 @@ public class BaseStorage implements SynchronousBundleListener {
 			if (isDirectory(data, base, file))
 				result = new DirBundleFile(file);
 			else
-				result = new ZipBundleFile(file, data, mruList);
+				result = mappedBundleFiles ? new MappedZipBundleFile(file, data, mruList) : new ZipBundleFile(file, data, mruList);
 		}
 
 		if (result == null && content instanceof String) {
@@ -825,12 +958,36 @@ public class BaseStorage implements SynchronousBundleListener {
 		File stateFile = stateFiles[0];
 		File lazyFile = stateFiles[1];
 
-		stateManager = new StateManager(stateFile, lazyFile, context, timeStamp);
+		StateJournal journal = null;
+		if (!invalidState && stateJournaling) {
+			journal = StateJournal.read(getStorageManager(), STATE_JOURNAL_FILE);
+			// the journal must end with the state the bundle data was saved with
+			if (journal != null && journal.getTimeStamp() != timeStamp) {
+				journal = null;
+				if (!isReadOnly())
+					StateJournal.clear(getStorageManager(), STATE_JOURNAL_FILE);
+			}
+		}
 		State systemState = null;
+		if (journal != null) {
+			stateManager = new StateManager(stateFile, lazyFile, context, journal.getBaseTimeStamp());
+			systemState = stateManager.readSystemState();
+			if (systemState != null) {
+				baseStateTimeStamp = systemState.getTimeStamp();
+				replayStateJournal(systemState, journal);
+				stateJournal = journal;
+				// fold the journal into the state file in the background
+				compactStateJournal = true;
+				return stateManager;
+			}
+		}
+		stateManager = new StateManager(stateFile, lazyFile, context, timeStamp);
 		if (!invalidState) {
 			systemState = stateManager.readSystemState();
-			if (systemState != null)
+			if (systemState != null) {
+				baseStateTimeStamp = systemState.getTimeStamp();
 				return stateManager;
+			}
 		}
 		systemState = stateManager.createSystemState();
 		Bundle[] installedBundles = context.getBundles();
@@ -913,6 +1070,27 @@ public class BaseStorage implements SynchronousBundleListener {
 		// System property can be set to enable state saver or not.
 		if (Boolean.valueOf(FrameworkProperties.getProperty(BaseStorage.PROP_ENABLE_STATE_SAVER, "true")).booleanValue()) //$NON-NLS-1$
 			stateSaver = new StateSaver(adaptor.getState());
+		boolean compact;
+		synchronized (pendingStateChanges) {
+			compact = compactStateJournal;
+		}
+		if (compact)
+			requestSave();
+		if (stateJournaling) {
+			resolverHookListener = new ServiceListener() {
+				public void serviceChanged(ServiceEvent event) {
+					synchronized (pendingStateChanges) {
+						// the state may have been resolved with the hook
+						fullStateSaveRequired = true;
+					}
+				}
+			};
+			try {
+				fwContext.addServiceListener(resolverHookListener, "(" + Constants.OBJECTCLASS + "=" + ResolverHookFactory.class.getName() + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			} catch (InvalidSyntaxException e) {
+				// cannot happen; the filter is valid
+			}
+		}
 
 	}
 
@@ -924,6 +1102,8 @@ public class BaseStorage implements SynchronousBundleListener {
 		storageManagerClosed = true;
 		if (extensionListener != null)
 			context.removeBundleListener(extensionListener);
+		if (resolverHookListener != null)
+			context.removeServiceListener(resolverHookListener);
 		mruList.shutdown();
 		stateManager = null;
 	}
@@ -1199,30 +1379,37 @@ public class BaseStorage implements SynchronousBundleListener {
 		State systemState = stateManager.getSystemState();
 		BundleDescription oldDescription = null;
 		BundleDescription newDescription = null;
-		switch (type) {
-			case BundleEvent.UPDATED :
-				// fall through to INSTALLED
-			case BundleEvent.INSTALLED :
-				if (type == BundleEvent.UPDATED)
-					oldDescription = systemState.getBundle(bundleData.getBundleID());
-				newDescription = stateManager.getFactory().createBundleDescription(systemState, bundleData.getManifest(), bundleData.getLocation(), bundleData.getBundleID());
-				// For the install case we need to set the bundle before adding to the state
-				// because the bundle is not available in the context yet.
-				// We go ahead and set it for the update case for simplicity; 
-				// but this is not strictly necessary
-				newDescription.setUserObject(bundleData);
-				if (oldDescription == null)
-					systemState.addBundle(newDescription);
-				else
-					systemState.updateBundle(newDescription);
-				break;
-			case BundleEvent.UNINSTALLED :
-				systemState.removeBundle(bundleData.getBundleID());
-				break;
-		}
+		// record the change while holding the journal lock so that journal records match the state time stamp
+		synchronized (pendingStateChanges) {
+			switch (type) {
+				case BundleEvent.UPDATED :
+					// fall through to INSTALLED
+				case BundleEvent.INSTALLED :
+					if (type == BundleEvent.UPDATED)
+						oldDescription = systemState.getBundle(bundleData.getBundleID());
+					newDescription = stateManager.getFactory().createBundleDescription(systemState, bundleData.getManifest(), bundleData.getLocation(), bundleData.getBundleID());
+					// For the install case we need to set the bundle before adding to the state
+					// because the bundle is not available in the context yet.
+					// We go ahead and set it for the update case for simplicity; 
+					// but this is not strictly necessary
+					newDescription.setUserObject(bundleData);
+					if (oldDescription == null)
+						systemState.addBundle(newDescription);
+					else
+						systemState.updateBundle(newDescription);
+					break;
+				case BundleEvent.UNINSTALLED :
+					systemState.removeBundle(bundleData.getBundleID());
+					break;
+			}
 
-		if (newDescription != null)
-			validateNativeCodePaths(newDescription, bundleData);
+			if (newDescription != null)
+				validateNativeCodePaths(newDescription, bundleData);
+			pendingStateChanges.put(new Long(bundleData.getBundleID()), new Integer(type));
+			// extensions change the system bundle description which is not journaled
+			if ((bundleData.getType() & (BundleData.TYPE_FRAMEWORK_EXTENSION | BundleData.TYPE_BOOTCLASSPATH_EXTENSION | BundleData.TYPE_EXTCLASSPATH_EXTENSION)) != 0)
+				fullStateSaveRequired = true;
+		}
 	}
 
 	private void validateNativeCodePaths(BundleDescription newDescription, BaseData data) {
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.baseadaptor;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.service.resolver.*;
+import org.eclipse.osgi.storagemanager.ManagedOutputStream;
+import org.eclipse.osgi.storagemanager.StorageManager;
+
+/**
+ * A journal of the changes made to the system state since the
+ * state was last written in full.  Each record contains the ids of the bundles that
+ * were installed, updated or uninstalled, whether the state was resolved, the
+ * disabled infos of the state and the time stamp of the state after the changes.
+ * <p>
+ * The journal does not persist bundle descriptions or wires.  The changes are replayed
+ * by creating new descriptions from the bundle manifests and resolving the state again.
+ * A journal is only valid for the base state with the time stamp it was created for.
+ * </p>
+ * <p>
+ * The journal is a file managed by the storage manager of the framework.  Each append
+ * writes a new version of the complete journal, which is small because the journal is
+ * folded into the state file after a bounded number of records.
+ * </p>
+ */
+final class StateJournal {
+	private static final byte VERSION = 1;
+	private static final byte RECORD_END = 0x7F;
+
+	private final String name;
+	private final long baseTimeStamp;
+	// the complete records of the journal as persisted
+	private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+	private long timeStamp;
+	private boolean resolved;
+	private int numRecords;
+	// the net change of each bundle; keyed by bundle id with a BundleEvent type value
+	private final Map<Long, Integer> changes = new HashMap<Long, Integer>();
+	private DisabledEntry[] disabledEntries = new DisabledEntry[0];
+
+	/**
+	 * Creates an empty journal for the specified base state.  The journal file is
+	 * not written until the first record is appended.
+	 * @param name the name of the managed journal file
+	 * @param baseTimeStamp the time stamp of the persisted base state
+	 */
+	StateJournal(String name, long baseTimeStamp) {
+		this.name = name;
+		this.baseTimeStamp = baseTimeStamp;
+		this.timeStamp = baseTimeStamp;
+	}
+
+	/**
+	 * Reads a managed journal file.  An incomplete record at the end of the file is ignored.
+	 * @param storageManager the storage manager of the journal file
+	 * @param name the name of the managed journal file
+	 * @return the journal or <code>null</code> if the file is not managed, contains no
+	 * complete records or cannot be read
+	 */
+	static StateJournal read(StorageManager storageManager, String name) {
+		InputStream input = null;
+		try {
+			input = storageManager.getInputStream(name);
+			if (input == null)
+				return null;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int len;
+			while ((len = input.read(buffer)) > 0)
+				bytes.write(buffer, 0, len);
+			byte[] journal = bytes.toByteArray();
+			ByteArrayInputStream source = new ByteArrayInputStream(journal);
+			DataInputStream in = new DataInputStream(source);
+			if (journal.length == 0 || in.readByte() != VERSION)
+				return null;
+			StateJournal result = new StateJournal(name, in.readLong());
+			int complete = journal.length - source.available();
+			try {
+				while (result.readRecord(in))
+					complete = journal.length - source.available();
+			} catch (EOFException e) {
+				// the last record was not completely written
+			}
+			if (result.numRecords == 0)
+				return null;
+			result.content.write(journal, 0, complete);
+			return result;
+		} catch (IOException e) {
+			if (Debug.DEBUG_GENERAL)
+				Debug.printStackTrace(e);
+			return null;
+		} finally {
+			if (input != null)
+				try {
+					input.close();
+				} catch (IOException e) {
+					// nothing
+				}
+		}
+	}
+
+	private boolean readRecord(DataInputStream in) throws IOException {
+		long recordTimeStamp = in.readLong();
+		boolean recordResolved = in.readBoolean();
+		int numChanges = in.readInt();
+		long[] ids = new long[numChanges];
+		int[] types = new int[numChanges];
+		for (int i = 0; i < numChanges; i++) {
+			ids[i] = in.readLong();
+			types[i] = in.readInt();
+		}
+		int numDisabled = in.readInt();
+		DisabledEntry[] disabled = new DisabledEntry[numDisabled];
+		for (int i = 0; i < numDisabled; i++) {
+			long bundleId = in.readLong();
+			String policyName = in.readUTF();
+			String message = in.readBoolean() ? in.readUTF() : null;
+			disabled[i] = new DisabledEntry(bundleId, policyName, message);
+		}
+		if (in.readByte() != RECORD_END)
+			return false;
+		// only apply the record once it is known to be complete
+		for (int i = 0; i < numChanges; i++)
+			changes.put(new Long(ids[i]), new Integer(types[i]));
+		timeStamp = recordTimeStamp;
+		resolved = recordResolved;
+		disabledEntries = disabled;
+		numRecords++;
+		return true;
+	}
+
+	/**
+	 * Appends a record to the journal and writes the journal through the storage manager.
+	 * @param storageManager the storage manager of the journal file
+	 * @param stateTimeStamp the time stamp of the state after the changes
+	 * @param stateResolved true if the state was resolved
+	 * @param bundleChanges the changed bundle ids with the BundleEvent type of the last change
+	 * @param disabledInfos all disabled infos of the state
+	 * @return true if the record was written; false if the journal could not be written and must not be used
+	 */
+	boolean append(StorageManager storageManager, long stateTimeStamp, boolean stateResolved, Map<Long, Integer> bundleChanges, DisabledInfo[] disabledInfos) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DisabledEntry[] disabled = new DisabledEntry[disabledInfos.length];
+		try {
+			DataOutputStream out = new DataOutputStream(bytes);
+			if (numRecords == 0) {
+				out.writeByte(VERSION);
+				out.writeLong(baseTimeStamp);
+			}
+			out.writeLong(stateTimeStamp);
+			out.writeBoolean(stateResolved);
+			out.writeInt(bundleChanges.size());
+			for (Iterator<Map.Entry<Long, Integer>> iChanges = bundleChanges.entrySet().iterator(); iChanges.hasNext();) {
+				Map.Entry<Long, Integer> change = iChanges.next();
+				out.writeLong(change.getKey().longValue());
+				out.writeInt(change.getValue().intValue());
+			}
+			out.writeInt(disabledInfos.length);
+			for (int i = 0; i < disabledInfos.length; i++) {
+				disabled[i] = new DisabledEntry(disabledInfos[i].getBundle().getBundleId(), disabledInfos[i].getPolicyName(), disabledInfos[i].getMessage());
+				out.writeLong(disabled[i].bundleId);
+				out.writeUTF(disabled[i].policyName);
+				out.writeBoolean(disabled[i].message != null);
+				if (disabled[i].message != null)
+					out.writeUTF(disabled[i].message);
+			}
+			out.writeByte(RECORD_END);
+			out.close();
+		} catch (IOException e) {
+			// should never happen writing to memory
+			return false;
+		}
+
+		byte[] record = bytes.toByteArray();
+		if (!write(storageManager, name, content.toByteArray(), record))
+			return false;
+		content.write(record, 0, record.length);
+		changes.putAll(bundleChanges);
+		timeStamp = stateTimeStamp;
+		resolved = stateResolved;
+		disabledEntries = disabled;
+		numRecords++;
+		return true;
+	}
+
+	/**
+	 * Replaces the disabled infos of the state with the disabled infos of the last record.
+	 * @param state the state to update
+	 */
+	void applyDisabledInfos(State state) {
+		BundleDescription[] disabledBundles = state.getDisabledBundles();
+		for (int i = 0; i < disabledBundles.length; i++) {
+			DisabledInfo[] infos = state.getDisabledInfos(disabledBundles[i]);
+			for (int j = 0; j < infos.length; j++)
+				state.removeDisabledInfo(infos[j]);
+		}
+		for (int i = 0; i < disabledEntries.length; i++) {
+			BundleDescription bundle = state.getBundle(disabledEntries[i].bundleId);
+			if (bundle != null)
+				state.addDisabledInfo(new DisabledInfo(disabledEntries[i].policyName, disabledEntries[i].message, bundle));
+		}
+	}
+
+	/**
+	 * Empties the managed journal file.  An empty journal file is never replayed.
+	 * @param storageManager the storage manager of the journal file
+	 * @param name the name of the managed journal file
+	 * @return true if the journal file was emptied
+	 */
+	static boolean clear(StorageManager storageManager, String name) {
+		return write(storageManager, name, new byte[0], new byte[0]);
+	}
+
+	/*
+	 * Writes a new version of the managed journal file.  The previous version remains
+	 * the current version if the write fails.
+	 */
+	private static boolean write(StorageManager storageManager, String name, byte[] records, byte[] record) {
+		ManagedOutputStream out = null;
+		try {
+			out = storageManager.getOutputStream(name);
+			out.write(records);
+			out.write(record);
+			out.close();
+			return true;
+		} catch (IOException e) {
+			if (Debug.DEBUG_GENERAL)
+				Debug.printStackTrace(e);
+			if (out != null)
+				out.abort();
+			return false;
+		}
+	}
+
+	long getBaseTimeStamp() {
+		return baseTimeStamp;
+	}
+
+	/**
+	 * Returns the time stamp of the state after the changes of the last record.
+	 * @return the time stamp of the state after the journaled changes
+	 */
+	long getTimeStamp() {
+		return timeStamp;
+	}
+
+	boolean isResolved() {
+		return resolved;
+	}
+
+	int getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Returns the net change of each journaled bundle.
+	 * @return the BundleEvent type of the last change keyed by bundle id
+	 */
+	Map<Long, Integer> getChanges() {
+		return changes;
+	}
+
+	private static class DisabledEntry {
+		final long bundleId;
+		final String policyName;
+		final String message;
+
+		DisabledEntry(long bundleId, String policyName, String message) {
+			this.bundleId = bundleId;
+			this.policyName = policyName;
+			this.message = message;
+		}
+	}
+}
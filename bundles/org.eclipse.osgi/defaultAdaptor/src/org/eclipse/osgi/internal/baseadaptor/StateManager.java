@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2011 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -56,6 +56,10 @@ public class StateManager implements PlatformAdmin, Runnable {
 	 * System property used to specify to amount time before lazy data can be flushed from memory
 	 */
 	public static String PROP_LAZY_UNLOADING_TIME = "osgi.lazyStateUnloadingTime"; //$NON-NLS-1$
+	/**
+	 * System property used to specify the directory of the cached resolutions of the system state
+	 */
+	public static String PROP_RESOLUTION_CACHE = "osgi.resolutionCache"; //$NON-NLS-1$
 	private long expireTime = 300000; // default to five minutes
 	private long readStartupTime;
 	private StateImpl systemState;
@@ -180,6 +184,9 @@ public class StateManager implements PlatformAdmin, Runnable {
 
 	private boolean initializeSystemState() {
 		systemState.setResolver(createResolver(System.getSecurityManager() != null));
+		String resolutionCache = FrameworkProperties.getProperty(PROP_RESOLUTION_CACHE);
+		if (resolutionCache != null)
+			systemState.setResolutionCache(new ResolutionCache(new File(resolutionCache)));
 		lastTimeStamp = systemState.getTimeStamp();
 		return !systemState.setPlatformProperties(FrameworkProperties.getProperties());
 	}
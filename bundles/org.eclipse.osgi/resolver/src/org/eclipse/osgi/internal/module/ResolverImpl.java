@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2012 IBM Corporation and others. All rights reserved.
+ * Copyright (c) 2004, 2013 IBM Corporation and others. All rights reserved.
  * This program and the accompanying materials are made available under the
  * terms of the Eclipse Public License v1.0 which accompanies this distribution,
  * and is available at http://www.eclipse.org/legal/epl-v10.html
@@ -13,6 +13,7 @@ package org.eclipse.osgi.internal.module;
 
 import java.security.AccessController;
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.osgi.framework.adaptor.FrameworkAdaptor;
 import org.eclipse.osgi.framework.debug.Debug;
 import org.eclipse.osgi.framework.debug.FrameworkDebugOptions;
@@ -53,6 +54,9 @@ public class ResolverImpl implements Resolver {
 	private static int MAX_USES_TIME_LIMIT = 90000; // 90 seconds
 	private static final String USES_TIMEOUT_PROP = "osgi.usesTimeout"; //$NON-NLS-1$
 	private static final String MULTIPLE_SUPPLIERS_LIMIT_PROP = "osgi.usesLimit"; //$NON-NLS-1$
+	private static final String USES_THREADS_PROP = "osgi.usesThreads"; //$NON-NLS-1$
+	// the minimum number of bundles checked for uses conflicts on each uses thread
+	private static final int MIN_USES_BUNDLES_PER_THREAD = 32;
 	static final SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
 
 	private String[][] CURRENT_EES;
@@ -83,6 +87,13 @@ public class ResolverImpl implements Resolver {
 	private boolean usesCalculationTimeout = false;
 	private long usesTimeout = -1;
 	private int usesMultipleSuppliersLimit;
+	private int usesThreads = 1;
+	// bundles which changed their resolution status since the version suppliers were last ordered
+	private Set<ResolverBundle> reorderPending = new HashSet<ResolverBundle>();
+	// indicates all the version suppliers must be ordered; the selection policy changed
+	private boolean reorderAll = false;
+	// the pool checking uses conflicts in parallel; only exists while resolving
+	private ExecutorService usesExecutor;
 	private volatile CompositeResolveHelperRegistry compositeHelpers;
 
 	public ResolverImpl(boolean checkPermissions) {
@@ -124,6 +135,9 @@ public class ResolverImpl implements Resolver {
 		}
 		rewireBundles(); // Reconstruct wirings
 		setDebugOptions();
+		// the version suppliers are added in order
+		reorderPending.clear();
+		reorderAll = false;
 		initialized = true;
 	}
 
@@ -427,6 +441,8 @@ public class ResolverImpl implements Resolver {
 			usesTimeout = getUsesTimeout(platformProperties);
 			// set limit for constraints with multiple suppliers each resolution
 			usesMultipleSuppliersLimit = getMultipleSuppliersLimit(platformProperties);
+			// set the number of threads used to check uses constraints each resolution
+			usesThreads = getUsesThreads(platformProperties);
 			reRefresh = addDevConstraints(reRefresh);
 			// Unresolve all the supplied bundles and their dependents
 			if (reRefresh != null)
@@ -436,9 +452,7 @@ public class ResolverImpl implements Resolver {
 						unresolveBundle(rb, false);
 				}
 			// reorder exports and bundles after unresolving the bundles
-			resolverExports.reorder();
-			resolverBundles.reorder();
-			reorderGenerics();
+			reorder();
 			// always get the latest EEs
 			getCurrentEEs(platformProperties);
 			boolean resolveOptional = platformProperties.length == 0 ? false : "true".equals(platformProperties[0].get("osgi.resolveOptional")); //$NON-NLS-1$//$NON-NLS-2$
@@ -468,7 +482,9 @@ public class ResolverImpl implements Resolver {
 
 			usesCalculationTimeout = false;
 
-			List<ResolverBundle> toResolve = new ArrayList<ResolverBundle>(unresolvedBundles);
+			// only the bundles which are unresolved now can become resolved
+			ResolverBundle[] resolving = unresolvedBundles.toArray(new ResolverBundle[unresolvedBundles.size()]);
+			List<ResolverBundle> toResolve = new ArrayList<ResolverBundle>(Arrays.asList(resolving));
 			// first resolve the system bundle to allow osgi.ee capabilities to be resolved
 			List<ResolverBundle> unresolvedSystemBundles = new ArrayList<ResolverBundle>(1);
 			String systemBSN = getSystemBundle();
@@ -496,21 +512,24 @@ public class ResolverImpl implements Resolver {
 
 			// set the resolved status of the bundles in the State
 			// Note this must be done after calling end above in case end throws errors
-			stateResolveBundles(bundleMapping.values().toArray(new ResolverBundle[bundleMapping.size()]));
+			// in development mode the constraints of all the unresolved bundles are set in the State
+			stateResolveBundles(developmentMode ? bundleMapping.values().toArray(new ResolverBundle[bundleMapping.size()]) : resolving);
 
 			for (ResolverBundle bundle : optionalResolved) {
 				state.resolveBundle(bundle.getBundleDescription(), false, null, null, null, null, null, null, null, null);
 				stateResolveBundle(bundle);
 			}
 			// reorder exports and bundles after resolving the bundles
-			resolverExports.reorder();
-			resolverBundles.reorder();
-			reorderGenerics();
+			reorder();
 			if (resolveOptional)
 				resolveOptionalConstraints(currentlyResolved);
 			if (DEBUG)
 				ResolverImpl.log("*** END RESOLUTION ***"); //$NON-NLS-1$
 		} finally {
+			if (usesExecutor != null) {
+				usesExecutor.shutdown();
+				usesExecutor = null;
+			}
 			if (hook != null)
 				hook.end(); // need to make sure end is always called
 			hook = null;
@@ -555,6 +574,21 @@ public class ResolverImpl implements Resolver {
 		return MAX_MULTIPLE_SUPPLIERS_MERGE;
 	}
 
+	private int getUsesThreads(Dictionary<Object, Object>[] platformProperties) {
+		try {
+			Object threads = platformProperties.length == 0 ? null : platformProperties[0].get(USES_THREADS_PROP);
+			if (threads != null) {
+				int temp = Integer.parseInt(threads.toString());
+				if (temp > 0)
+					return temp;
+			}
+		} catch (NumberFormatException e) {
+			// nothing;
+		}
+		// checking in parallel is opt-in
+		return 1;
+	}
+
 	private BundleDescription[] addDevConstraints(BundleDescription[] reRefresh) {
 		if (!developmentMode)
 			return reRefresh; // we don't care about this unless we are in development mode
@@ -885,7 +919,7 @@ public class ResolverImpl implements Resolver {
 		ResolverConstraint[][] multipleSuppliers = getMultipleSuppliers(bundles, packageConstraints, bundleConstraints);
 		List<ResolverConstraint> conflicts = null;
 		int[] bestCombination = new int[multipleSuppliers.length];
-		conflicts = findBestCombination(bundles, multipleSuppliers, bestCombination, initialConflicts);
+		conflicts = findBestCombination(bundles, multipleSuppliers, bestCombination, initialConflicts, packageConstraints);
 		if (DEBUG_USES) {
 			System.out.print("Best combination found: "); //$NON-NLS-1$
 			printCombination(bestCombination);
@@ -918,66 +952,25 @@ public class ResolverImpl implements Resolver {
 		return conflicts;
 	}
 
-	private int[] getCombination(ResolverConstraint[][] multipleSuppliers, int[] combination) {
-		for (int i = 0; i < combination.length; i++)
-			combination[i] = multipleSuppliers[i][0].getSelectedSupplierIndex();
-		return combination;
-	}
-
-	private List<ResolverConstraint> findBestCombination(ResolverBundle[] bundles, ResolverConstraint[][] multipleSuppliers, int[] bestCombination, List<ResolverConstraint> bestConflicts) {
-		// now iterate over every possible combination until either zero conflicts are found 
-		// or we have run out of combinations
+	private List<ResolverConstraint> findBestCombination(ResolverBundle[] bundles, ResolverConstraint[][] multipleSuppliers, int[] bestCombination, List<ResolverConstraint> bestConflicts, Set<String> conflictNames) {
+		// now search the combinations until either zero conflicts are found 
+		// or we have run out of combinations which may have fewer conflicts
+		// combinations which contain the supplier choices that caused at least as many previous conflicts
+		// as the best combination has are skipped
 		// if all combinations are tried then return the combination with the lowest number of conflicts
-		long initialTime = System.currentTimeMillis();
 		long timeLimit;
 		if (usesTimeout < 0)
 			timeLimit = Math.min(MAX_USES_TIME_BASE + (bundles.length * 30), MAX_USES_TIME_LIMIT);
 		else
 			timeLimit = usesTimeout;
-
-		int bestConflictCount = getConflictCount(bestConflicts);
-		ResolverBundle[] bestConflictBundles = getConflictedBundles(bestConflicts);
-		while (bestConflictCount != 0 && getNextCombination(multipleSuppliers)) {
-			if ((System.currentTimeMillis() - initialTime) > timeLimit) {
-				if (DEBUG_USES)
-					System.out.println("Uses constraint check has timedout.  Using the best solution found so far."); //$NON-NLS-1$
-				usesCalculationTimeout = true;
-				break;
-			}
-			if (DEBUG_USES)
-				printCombination(getCombination(multipleSuppliers, new int[multipleSuppliers.length]));
-			// first count the conflicts for the bundles with conflicts from the best combination
-			// this significantly reduces the time it takes to populate the GroupingChecker for cases where
-			// the combination is no better.
-			List<ResolverConstraint> conflicts = getConflicts(bestConflictBundles, null, null, null);
-			int conflictCount = getConflictCount(conflicts);
-			if (conflictCount >= bestConflictCount) {
-				if (DEBUG_USES)
-					System.out.println("Combination is not better that current best: " + conflictCount + ">=" + bestConflictCount); //$NON-NLS-1$ //$NON-NLS-2$
-				// no need to test the other bundles;
-				// this combination is no better for the bundles which conflict with the current best combination
-				continue;
-			}
-			// this combination improves upon the conflicts for the bundles which conflict with the current best combination;
-			// do an complete conflict count
-			conflicts = getConflicts(bundles, null, null, null);
-			conflictCount = getConflictCount(conflicts);
-			if (conflictCount < bestConflictCount) {
-				// this combination is better that the current best combination; save this combination as the current best
-				bestConflictCount = conflictCount;
-				bestConflicts = conflicts;
-				getCombination(multipleSuppliers, bestCombination);
-				bestConflictBundles = getConflictedBundles(bestConflicts);
-				if (DEBUG_USES)
-					System.out.println("Combination selected as current best: number of conflicts: " + bestConflictCount); //$NON-NLS-1$
-			} else if (DEBUG_USES) {
-				System.out.println("Combination is not better that current best: " + conflictCount + ">=" + bestConflictCount); //$NON-NLS-1$ //$NON-NLS-2$
-			}
-		}
+		UsesConflictSearch search = new UsesConflictSearch(this, bundles, multipleSuppliers);
+		bestConflicts = search.search(bestCombination, bestConflicts, conflictNames, timeLimit);
+		if (search.isTimedOut())
+			usesCalculationTimeout = true;
 		return bestConflicts;
 	}
 
-	private void printCombination(int[] curCombination) {
+	static void printCombination(int[] curCombination) {
 		StringBuffer sb = new StringBuffer();
 		sb.append('[');
 		for (int i = 0; i < curCombination.length; i++) {
@@ -989,33 +982,8 @@ public class ResolverImpl implements Resolver {
 		System.out.println(sb.toString());
 	}
 
-	private ResolverBundle[] getConflictedBundles(List<ResolverConstraint> bestConflicts) {
-		if (bestConflicts == null)
-			return new ResolverBundle[0];
-		List<ResolverBundle> conflictedBundles = new ArrayList<ResolverBundle>(bestConflicts.size());
-		for (ResolverConstraint constraint : bestConflicts)
-			if (!conflictedBundles.contains(constraint.getBundle()))
-				conflictedBundles.add(constraint.getBundle());
-		return conflictedBundles.toArray(new ResolverBundle[conflictedBundles.size()]);
-	}
-
-	private boolean getNextCombination(ResolverConstraint[][] multipleSuppliers) {
-		int current = 0;
-		while (current < multipleSuppliers.length) {
-			if (multipleSuppliers[current][0].selectNextSupplier()) {
-				for (int i = 1; i < multipleSuppliers[current].length; i++)
-					multipleSuppliers[current][i].selectNextSupplier();
-				return true; // the current slot has a next supplier
-			}
-			for (int i = 0; i < multipleSuppliers[current].length; i++)
-				multipleSuppliers[current][i].setSelectedSupplier(0); // reset the current slot
-			current++; // move to the next slot
-		}
-		return false;
-	}
-
 	// only count non-optional conflicts
-	private int getConflictCount(List<ResolverConstraint> conflicts) {
+	static int getConflictCount(List<ResolverConstraint> conflicts) {
 		if (conflicts == null || conflicts.size() == 0)
 			return 0;
 		int result = 0;
@@ -1025,19 +993,78 @@ public class ResolverImpl implements Resolver {
 		return result;
 	}
 
-	private List<ResolverConstraint> getConflicts(ResolverBundle[] bundles, Set<String> packageConstraints, Set<String> bundleConstraints, Collection<GenericConstraint> multiRequirementWithMultiSuppliers) {
+	List<ResolverConstraint> getConflicts(ResolverBundle[] bundles, Set<String> packageConstraints, Set<String> bundleConstraints, Collection<GenericConstraint> multiRequirementWithMultiSuppliers) {
 		groupingChecker.clear();
+		int tasks = Math.min(usesThreads, bundles.length / MIN_USES_BUNDLES_PER_THREAD);
+		if (tasks > 1)
+			return getConflicts(bundles, tasks, packageConstraints, bundleConstraints, multiRequirementWithMultiSuppliers);
 		List<ResolverConstraint> conflicts = null;
 		for (int i = 0; i < bundles.length; i++)
-			conflicts = addConflicts(bundles[i], packageConstraints, bundleConstraints, multiRequirementWithMultiSuppliers, conflicts);
+			conflicts = addConflicts(groupingChecker, bundles[i], packageConstraints, bundleConstraints, multiRequirementWithMultiSuppliers, conflicts);
+		return conflicts;
+	}
+
+	/*
+	 * Checks the bundles for conflicts on the uses threads.  The selected suppliers do not change
+	 * while checking so the bundles can be checked independently; each task checks a range of
+	 * the bundles.  The package roots depend on the path used to compute them when the uses
+	 * graph has cycles, so each task computes its roots with its own grouping checker in the
+	 * order of its range.  The results are merged in the order of the bundles.
+	 */
+	private List<ResolverConstraint> getConflicts(final ResolverBundle[] bundles, int tasks, Set<String> packageConstraints, Set<String> bundleConstraints, Collection<GenericConstraint> multiRequirementWithMultiSuppliers) {
+		if (usesExecutor == null)
+			usesExecutor = Executors.newFixedThreadPool(usesThreads, new UsesThreadFactory());
+		final boolean collectNames = packageConstraints != null && bundleConstraints != null;
+		final boolean collectMultiple = multiRequirementWithMultiSuppliers != null;
+		List<Future<ConflictsTask>> futures = new ArrayList<Future<ConflictsTask>>(tasks);
+		for (int i = 0; i < tasks; i++) {
+			int start = (int) ((long) bundles.length * i / tasks);
+			int end = (int) ((long) bundles.length * (i + 1) / tasks);
+			futures.add(usesExecutor.submit(new ConflictsTask(bundles, start, end, collectNames, collectMultiple)));
+		}
+		List<ConflictsTask> results = new ArrayList<ConflictsTask>(tasks);
+		try {
+			for (Future<ConflictsTask> future : futures)
+				results.add(future.get());
+		} catch (InterruptedException e) {
+			// finish the check on this thread
+			Thread.currentThread().interrupt();
+			for (Future<ConflictsTask> future : futures)
+				future.cancel(false);
+			List<ResolverConstraint> conflicts = null;
+			for (int i = 0; i < bundles.length; i++)
+				conflicts = addConflicts(groupingChecker, bundles[i], packageConstraints, bundleConstraints, multiRequirementWithMultiSuppliers, conflicts);
+			return conflicts;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+		List<ResolverConstraint> conflicts = null;
+		for (ConflictsTask task : results) {
+			if (task.conflicts != null) {
+				if (conflicts == null)
+					conflicts = new ArrayList<ResolverConstraint>(task.conflicts.size());
+				conflicts.addAll(task.conflicts);
+			}
+			if (collectNames) {
+				packageConstraints.addAll(task.packageConstraints);
+				bundleConstraints.addAll(task.bundleConstraints);
+			}
+			if (collectMultiple)
+				multiRequirementWithMultiSuppliers.addAll(task.multiRequirementWithMultiSuppliers);
+		}
 		return conflicts;
 	}
 
-	private List<ResolverConstraint> addConflicts(ResolverBundle bundle, Set<String> packageConstraints, Set<String> bundleConstraints, Collection<GenericConstraint> multiRequirementWithMultiSuppliers, List<ResolverConstraint> conflicts) {
+	private List<ResolverConstraint> addConflicts(GroupingChecker checker, ResolverBundle bundle, Set<String> packageConstraints, Set<String> bundleConstraints, Collection<GenericConstraint> multiRequirementWithMultiSuppliers, List<ResolverConstraint> conflicts) {
 		BundleConstraint[] requires = bundle.getRequires();
 		for (int i = 0; i < requires.length; i++) {
 			ResolverBundle selectedSupplier = (ResolverBundle) requires[i].getSelectedSupplier();
-			PackageRoots[][] conflict = selectedSupplier == null ? null : groupingChecker.isConsistent(bundle, selectedSupplier);
+			PackageRoots[][] conflict = selectedSupplier == null ? null : checker.isConsistent(bundle, selectedSupplier);
 			if (conflict != null) {
 				addConflictNames(conflict, packageConstraints, bundleConstraints);
 				if (conflicts == null)
@@ -1048,7 +1075,7 @@ public class ResolverImpl implements Resolver {
 		ResolverImport[] imports = bundle.getImportPackages();
 		for (int i = 0; i < imports.length; i++) {
 			ResolverExport selectedSupplier = (ResolverExport) imports[i].getSelectedSupplier();
-			PackageRoots[][] conflict = selectedSupplier == null ? null : groupingChecker.isConsistent(bundle, selectedSupplier);
+			PackageRoots[][] conflict = selectedSupplier == null ? null : checker.isConsistent(bundle, selectedSupplier);
 			if (conflict != null) {
 				addConflictNames(conflict, packageConstraints, bundleConstraints);
 				if (conflicts == null)
@@ -1071,7 +1098,7 @@ public class ResolverImpl implements Resolver {
 			// in case of multiple there may be multiple suppliers, but we only need one or more to not conflict with the class space
 			Collection<PackageRoots[][]> capabilityConflicts = null;
 			for (VersionSupplier supplier : suppliers) {
-				PackageRoots[][] conflict = groupingChecker.isConsistent(bundle, (GenericCapability) supplier);
+				PackageRoots[][] conflict = checker.isConsistent(bundle, (GenericCapability) supplier);
 				if (conflict != null) {
 					if (capabilityConflicts == null)
 						capabilityConflicts = new ArrayList<PackageRoots[][]>(1);
@@ -1915,6 +1942,7 @@ public class ResolverImpl implements Resolver {
 		}
 
 		// Resolve the bundle in the state
+		reorderPending.add(rb);
 		state.resolveBundle(rb.getBundleDescription(), rb.isResolved(), hostBundles, selectedExportsArray, substitutedExportsArray, selectedCapabilitiesArray, bundlesWiredToArray, exportsWiredToArray, capabilitiesWiredToArray, stateWires);
 	}
 
@@ -2117,6 +2145,7 @@ public class ResolverImpl implements Resolver {
 		setBundleUnresolved(bundle, removed, false);
 		// Get bundles dependent on 'bundle'
 		BundleDescription[] dependents = bundle.getBundleDescription().getDependents();
+		reorderPending.add(bundle);
 		state.resolveBundle(bundle.getBundleDescription(), false, null, null, null, null, null, null, null, null);
 		// Unresolve dependents of 'bundle'
 		for (int i = 0; i < dependents.length; i++)
@@ -2138,6 +2167,7 @@ public class ResolverImpl implements Resolver {
 		for (BundleDescription removedDesc : removed)
 			state.removeBundleComplete(removedDesc);
 		removalPending.clear();
+		reorderPending.clear();
 		initialized = false;
 	}
 
@@ -2229,6 +2259,7 @@ public class ResolverImpl implements Resolver {
 
 	public void setSelectionPolicy(Comparator<BaseDescription> selectionPolicy) {
 		this.selectionPolicy = selectionPolicy;
+		reorderAll = true;
 	}
 
 	public Comparator<BaseDescription> getSelectionPolicy() {
@@ -2243,9 +2274,48 @@ public class ResolverImpl implements Resolver {
 		return compositeHelpers;
 	}
 
-	private void reorderGenerics() {
-		for (VersionHashMap<GenericCapability> namespace : resolverGenerics.values())
-			namespace.reorder();
+	// Once bundles are resolved or unresolved the version suppliers from the resolved bundles
+	// must be ahead of those from unresolved bundles; only the version suppliers with the names
+	// of the suppliers of the bundles which changed their resolution status are reordered
+	private void reorder() {
+		if (reorderAll) {
+			resolverExports.reorder();
+			resolverBundles.reorder();
+			for (VersionHashMap<GenericCapability> namespace : resolverGenerics.values())
+				namespace.reorder();
+			reorderAll = false;
+			reorderPending.clear();
+			return;
+		}
+		if (reorderPending.isEmpty())
+			return;
+		Set<String> exportNames = new HashSet<String>();
+		Set<String> bundleNames = new HashSet<String>();
+		Map<String, Set<String>> genericNames = new HashMap<String, Set<String>>();
+		for (ResolverBundle bundle : reorderPending) {
+			ResolverExport[] exports = bundle.getExportPackages();
+			for (int i = 0; i < exports.length; i++)
+				exportNames.add(exports[i].getName());
+			bundleNames.add(bundle.getName());
+			GenericCapability[] capabilities = bundle.getGenericCapabilities();
+			for (int i = 0; i < capabilities.length; i++) {
+				String type = capabilities[i].getGenericDescription().getType();
+				Set<String> names = genericNames.get(type);
+				if (names == null) {
+					names = new HashSet<String>();
+					genericNames.put(type, names);
+				}
+				names.add(capabilities[i].getName());
+			}
+		}
+		reorderPending.clear();
+		resolverExports.reorder(exportNames);
+		resolverBundles.reorder(bundleNames);
+		for (Map.Entry<String, Set<String>> names : genericNames.entrySet()) {
+			VersionHashMap<GenericCapability> namespace = resolverGenerics.get(names.getKey());
+			if (namespace != null)
+				namespace.reorder(names.getValue());
+		}
 	}
 
 	void removeGenerics(GenericCapability[] generics) {
@@ -2269,4 +2339,45 @@ public class ResolverImpl implements Resolver {
 			namespace.put(capability.getName(), capability);
 		}
 	}
+
+	/*
+	 * Checks a range of bundles for uses conflicts.  The package roots, the conflict names and the
+	 * multiple requirements with multiple suppliers are collected by each task and merged after all
+	 * the tasks are done.
+	 */
+	private class ConflictsTask implements Callable<ConflictsTask> {
+		private final ResolverBundle[] bundles;
+		private final int start;
+		private final int end;
+		final Set<String> packageConstraints;
+		final Set<String> bundleConstraints;
+		final Collection<GenericConstraint> multiRequirementWithMultiSuppliers;
+		private final GroupingChecker checker = new GroupingChecker();
+		List<ResolverConstraint> conflicts;
+
+		ConflictsTask(ResolverBundle[] bundles, int start, int end, boolean collectNames, boolean collectMultiple) {
+			this.bundles = bundles;
+			this.start = start;
+			this.end = end;
+			this.packageConstraints = collectNames ? new HashSet<String>() : null;
+			this.bundleConstraints = collectNames ? new HashSet<String>() : null;
+			this.multiRequirementWithMultiSuppliers = collectMultiple ? new ArrayList<GenericConstraint>() : null;
+		}
+
+		public ConflictsTask call() {
+			for (int i = start; i < end; i++)
+				conflicts = addConflicts(checker, bundles[i], packageConstraints, bundleConstraints, multiRequirementWithMultiSuppliers, conflicts);
+			return this;
+		}
+	}
+
+	private static class UsesThreadFactory implements ThreadFactory {
+		private int count = 0;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread result = new Thread(r, "Resolver Uses Checker-" + (++count)); //$NON-NLS-1$
+			result.setDaemon(true);
+			return result;
+		}
+	}
 }
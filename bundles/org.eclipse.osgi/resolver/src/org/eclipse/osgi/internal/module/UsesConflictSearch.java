@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others. All rights reserved.
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors: IBM Corporation - initial API and implementation
+ ******************************************************************************/
+package org.eclipse.osgi.internal.module;
+
+import java.util.*;
+
+/*
+ * Searches the combinations of suppliers for the constraints with multiple suppliers
+ * for a combination without uses conflicts.
+ *
+ * Each slot is a list of identical constraints which always select the same supplier.
+ * The combinations are visited in the same order as the slots are incremented by an
+ * odometer: the first slot changes fastest.  Each conflict found in a combination is
+ * analysed to learn the slot choices which cause it (a nogood): the choices of the slots
+ * of the constraints supplying the conflicting packages to the conflicting bundle and of
+ * the slots of the bundles wired to by these constraints.  Every combination which
+ * contains a nogood has its conflict.
+ *
+ * A conflict which no slot contributes to occurs in every combination.  The unavoidable
+ * conflicts together with the distinct conflicts of the nogoods contained in a combination
+ * are a lower bound of its conflict count.  A combination is only skipped without being
+ * evaluated when this bound is not lower than the best conflict count found so far.
+ * Instead of stepping through the choices of the earlier slots the search then backjumps
+ * to the first slot of the nogoods making up the bound.  When the unavoidable conflicts
+ * alone reach the best conflict count no combination can be better and the search stops.
+ */
+final class UsesConflictSearch {
+	private final ResolverImpl resolver;
+	private final ResolverBundle[] bundles;
+	private final ResolverConstraint[][] slots;
+	private final int[] sizes;
+	private final int[] combination;
+	// the learned nogoods keyed by the first slot of the nogood
+	private final List<List<Nogood>> nogoods;
+	// the non-optional conflicts which no slot contributes to
+	private final Set<ResolverConstraint> unavoidable = new HashSet<ResolverConstraint>();
+	// the slot of each constraint with multiple suppliers
+	private final Map<ResolverConstraint, Integer> slotsByConstraint = new HashMap<ResolverConstraint, Integer>();
+	// the slots of the constraints of each bundle
+	private final Map<ResolverBundle, List<Integer>> slotsByBundle = new HashMap<ResolverBundle, List<Integer>>();
+	private boolean timedOut = false;
+	private int evaluated = 0;
+
+	UsesConflictSearch(ResolverImpl resolver, ResolverBundle[] bundles, ResolverConstraint[][] slots) {
+		this.resolver = resolver;
+		this.bundles = bundles;
+		this.slots = slots;
+		this.sizes = new int[slots.length];
+		this.combination = new int[slots.length];
+		this.nogoods = new ArrayList<List<Nogood>>(slots.length);
+		for (int i = 0; i < slots.length; i++) {
+			sizes[i] = slots[i][0].getNumPossibleSuppliers();
+			combination[i] = slots[i][0].getSelectedSupplierIndex();
+			nogoods.add(null);
+			for (int j = 0; j < slots[i].length; j++) {
+				slotsByConstraint.put(slots[i][j], new Integer(i));
+				List<Integer> bundleSlots = slotsByBundle.get(slots[i][j].getBundle());
+				if (bundleSlots == null) {
+					bundleSlots = new ArrayList<Integer>(1);
+					slotsByBundle.put(slots[i][j].getBundle(), bundleSlots);
+				}
+				bundleSlots.add(new Integer(i));
+			}
+		}
+	}
+
+	/*
+	 * Searches for the combination with the fewest conflicts starting with the current
+	 * selected suppliers which have the specified conflicts.  The best combination is
+	 * copied to bestCombination and its conflicts are returned.  The search stops when
+	 * a combination without conflicts is found or the time limit is reached.
+	 */
+	List<ResolverConstraint> search(int[] bestCombination, List<ResolverConstraint> initialConflicts, Set<String> initialConflictNames, long timeLimit) {
+		long initialTime = System.currentTimeMillis();
+		System.arraycopy(combination, 0, bestCombination, 0, combination.length);
+		List<ResolverConstraint> bestConflicts = initialConflicts;
+		int bestConflictCount = ResolverImpl.getConflictCount(bestConflicts);
+		ResolverBundle[] bestConflictBundles = getConflictedBundles(bestConflicts);
+		learn(initialConflicts, initialConflictNames);
+		while (bestConflictCount > unavoidable.size() && nextCombination(bestConflictCount)) {
+			if ((System.currentTimeMillis() - initialTime) > timeLimit) {
+				if (ResolverImpl.DEBUG_USES)
+					System.out.println("Uses constraint check has timedout.  Using the best solution found so far."); //$NON-NLS-1$
+				timedOut = true;
+				break;
+			}
+			selectCombination();
+			evaluated++;
+			// first count the conflicts for the bundles with conflicts from the best combination
+			// this significantly reduces the time it takes to populate the GroupingChecker for cases where
+			// the combination is no better; the conflicts found are still used to skip combinations
+			Set<String> conflictNames = new HashSet<String>();
+			List<ResolverConstraint> conflicts = resolver.getConflicts(bestConflictBundles, conflictNames, new HashSet<String>(), null);
+			int conflictCount = ResolverImpl.getConflictCount(conflicts);
+			if (conflictCount >= bestConflictCount) {
+				if (ResolverImpl.DEBUG_USES)
+					System.out.println("Combination is not better that current best: " + conflictCount + ">=" + bestConflictCount); //$NON-NLS-1$ //$NON-NLS-2$
+				learn(conflicts, conflictNames);
+				continue;
+			}
+			// this combination improves upon the conflicts for the bundles which conflict with the current best combination;
+			// do an complete conflict count
+			conflictNames.clear();
+			conflicts = resolver.getConflicts(bundles, conflictNames, new HashSet<String>(), null);
+			conflictCount = ResolverImpl.getConflictCount(conflicts);
+			if (conflictCount < bestConflictCount) {
+				// this combination is better that the current best combination; save this combination as the current best
+				bestConflictCount = conflictCount;
+				bestConflicts = conflicts;
+				System.arraycopy(combination, 0, bestCombination, 0, combination.length);
+				bestConflictBundles = getConflictedBundles(bestConflicts);
+				if (ResolverImpl.DEBUG_USES)
+					System.out.println("Combination selected as current best: number of conflicts: " + bestConflictCount); //$NON-NLS-1$
+			} else if (ResolverImpl.DEBUG_USES) {
+				System.out.println("Combination is not better that current best: " + conflictCount + ">=" + bestConflictCount); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			learn(conflicts, conflictNames);
+		}
+		if (ResolverImpl.DEBUG_USES)
+			System.out.println("Uses constraint search evaluated " + evaluated + " combinations and learned " + getNogoodCount() + " nogoods"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return bestConflicts;
+	}
+
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/*
+	 * Learns a nogood from each non-optional conflict of the current combination.  The conflicts
+	 * were found for the packages with the specified names.
+	 */
+	private void learn(List<ResolverConstraint> conflicts, Set<String> conflictNames) {
+		if (conflicts == null)
+			return;
+		for (ResolverConstraint conflict : conflicts) {
+			if (conflict.isOptional())
+				continue;
+			SortedSet<Integer> culprits = getCulprits(conflict, conflictNames);
+			if (culprits.isEmpty()) {
+				// no slot contributes to this conflict; it cannot be avoided
+				unavoidable.add(conflict);
+				continue;
+			}
+			Nogood nogood = new Nogood(conflict, culprits);
+			List<Nogood> slotNogoods = nogoods.get(nogood.slots[0]);
+			if (slotNogoods == null) {
+				slotNogoods = new ArrayList<Nogood>(1);
+				nogoods.set(nogood.slots[0], slotNogoods);
+			}
+			slotNogoods.add(nogood);
+			if (ResolverImpl.DEBUG_USES)
+				System.out.println("Learned nogood " + nogood + " from conflict " + conflict); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/*
+	 * Returns the slots which can change the outcome of the conflict.  These are the slots of
+	 * the constraints of the conflicting bundle which can supply one of the conflicting packages
+	 * and the slots of the constraints of the bundles wired to by these constraints, directly or
+	 * indirectly, with the current combination.  Any combination with the same choices for these
+	 * slots has the same wiring for the conflicting packages and therefore the same conflict.
+	 */
+	private SortedSet<Integer> getCulprits(ResolverConstraint conflict, Set<String> conflictNames) {
+		SortedSet<Integer> culprits = new TreeSet<Integer>();
+		Set<ResolverBundle> visited = new HashSet<ResolverBundle>();
+		List<ResolverBundle> pending = new ArrayList<ResolverBundle>();
+		ResolverBundle bundle = conflict.getBundle();
+		addCulprit(conflict, culprits, visited, pending);
+		BundleConstraint[] requires = bundle.getRequires();
+		for (int i = 0; i < requires.length; i++)
+			addCulprit(requires[i], culprits, visited, pending);
+		ResolverImport[] imports = bundle.getImportPackages();
+		for (int i = 0; i < imports.length; i++)
+			if (conflictNames.contains(imports[i].getName()))
+				addCulprit(imports[i], culprits, visited, pending);
+		GenericConstraint[] genericRequires = bundle.getGenericRequires();
+		for (int i = 0; i < genericRequires.length; i++)
+			addCulprit(genericRequires[i], culprits, visited, pending);
+		while (!pending.isEmpty()) {
+			ResolverBundle current = pending.remove(pending.size() - 1);
+			List<Integer> bundleSlots = slotsByBundle.get(current);
+			if (bundleSlots != null)
+				culprits.addAll(bundleSlots);
+			requires = current.getRequires();
+			for (int i = 0; i < requires.length; i++)
+				addWired(requires[i].getSelectedSupplier(), visited, pending);
+			imports = current.getImportPackages();
+			for (int i = 0; i < imports.length; i++)
+				addWired(imports[i].getSelectedSupplier(), visited, pending);
+			genericRequires = current.getGenericRequires();
+			for (int i = 0; i < genericRequires.length; i++)
+				addWired(genericRequires[i], visited, pending);
+		}
+		return culprits;
+	}
+
+	private void addCulprit(ResolverConstraint constraint, Set<Integer> culprits, Set<ResolverBundle> visited, List<ResolverBundle> pending) {
+		Integer slot = slotsByConstraint.get(constraint);
+		if (slot != null)
+			culprits.add(slot);
+		if (constraint instanceof GenericConstraint)
+			addWired((GenericConstraint) constraint, visited, pending);
+		else
+			addWired(constraint.getSelectedSupplier(), visited, pending);
+	}
+
+	private static void addWired(GenericConstraint constraint, Set<ResolverBundle> visited, List<ResolverBundle> pending) {
+		VersionSupplier[] suppliers = constraint.getMatchingCapabilities();
+		if (suppliers != null)
+			for (int i = 0; i < suppliers.length; i++)
+				addWired(suppliers[i], visited, pending);
+	}
+
+	private static void addWired(VersionSupplier supplier, Set<ResolverBundle> visited, List<ResolverBundle> pending) {
+		if (supplier == null)
+			return;
+		ResolverBundle wired = supplier.getResolverBundle();
+		if (wired != null && visited.add(wired))
+			pending.add(wired);
+	}
+
+	/*
+	 * Moves to the next combination which may have fewer than the specified number of
+	 * conflicts.  Returns false if there are no more combinations.
+	 */
+	private boolean nextCombination(int bestConflictCount) {
+		int slot = 0;
+		while (true) {
+			if (slot >= combination.length)
+				return false;
+			Arrays.fill(combination, 0, slot, 0);
+			if (++combination[slot] < sizes[slot]) {
+				slot = getBackjumpSlot(bestConflictCount);
+				if (slot < 0)
+					return true;
+				continue;
+			}
+			combination[slot] = 0;
+			slot++;
+		}
+	}
+
+	/*
+	 * Returns the slot to increment if the nogoods contained in the current combination
+	 * prove that it has at least the specified number of conflicts, otherwise -1.
+	 * Every combination which only differs in the slots before the returned slot
+	 * contains the same nogoods.  The nogoods are taken from the latest first slot down
+	 * so that the backjump skips as many combinations as possible.
+	 */
+	private int getBackjumpSlot(int bestConflictCount) {
+		int needed = bestConflictCount - unavoidable.size();
+		Set<ResolverConstraint> contained = null;
+		for (int i = nogoods.size() - 1; i >= 0; i--) {
+			List<Nogood> slotNogoods = nogoods.get(i);
+			if (slotNogoods == null)
+				continue;
+			for (Nogood nogood : slotNogoods) {
+				if (unavoidable.contains(nogood.conflict) || !nogood.isContainedIn(combination))
+					continue;
+				if (contained == null)
+					contained = new HashSet<ResolverConstraint>();
+				if (contained.add(nogood.conflict) && contained.size() >= needed)
+					return i;
+			}
+		}
+		return -1;
+	}
+
+	private void selectCombination() {
+		if (ResolverImpl.DEBUG_USES)
+			ResolverImpl.printCombination(combination);
+		for (int i = 0; i < slots.length; i++)
+			for (int j = 0; j < slots[i].length; j++)
+				slots[i][j].setSelectedSupplier(combination[i]);
+	}
+
+	private static ResolverBundle[] getConflictedBundles(List<ResolverConstraint> bestConflicts) {
+		if (bestConflicts == null)
+			return new ResolverBundle[0];
+		List<ResolverBundle> conflictedBundles = new ArrayList<ResolverBundle>(bestConflicts.size());
+		for (ResolverConstraint constraint : bestConflicts)
+			if (!conflictedBundles.contains(constraint.getBundle()))
+				conflictedBundles.add(constraint.getBundle());
+		return conflictedBundles.toArray(new ResolverBundle[conflictedBundles.size()]);
+	}
+
+	private int getNogoodCount() {
+		int result = 0;
+		for (List<Nogood> slotNogoods : nogoods)
+			if (slotNogoods != null)
+				result += slotNogoods.size();
+		return result;
+	}
+
+	/*
+	 * A combination of slot choices which results in a conflict.
+	 */
+	private class Nogood {
+		final ResolverConstraint conflict;
+		// the slots in ascending order
+		final int[] slots;
+		final int[] choices;
+
+		Nogood(ResolverConstraint conflict, SortedSet<Integer> culprits) {
+			this.conflict = conflict;
+			slots = new int[culprits.size()];
+			choices = new int[slots.length];
+			int i = 0;
+			for (Integer culprit : culprits) {
+				slots[i] = culprit.intValue();
+				choices[i] = combination[slots[i]];
+				i++;
+			}
+		}
+
+		boolean isContainedIn(int[] current) {
+			for (int i = 0; i < slots.length; i++)
+				if (current[slots[i]] != choices[i])
+					return false;
+			return true;
+		}
+
+		public String toString() {
+			StringBuffer sb = new StringBuffer();
+			sb.append('[');
+			for (int i = 0; i < slots.length; i++) {
+				if (i > 0)
+					sb.append(',');
+				sb.append(slots[i]).append('=').append(choices[i]);
+			}
+			sb.append(']');
+			return sb.toString();
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2011 IBM Corporation and others.
+ * Copyright (c) 2004, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -83,6 +83,16 @@ public class VersionHashMap<V extends VersionSupplier> extends MappedList<String
 		}
 	}
 
+	// Reorders only the version suppliers with the specified names; the other
+	// version suppliers must already be in order
+	void reorder(Collection<String> names) {
+		for (String name : names) {
+			List<V> existing = internal.get(name);
+			if (existing != null && existing.size() > 1)
+				Collections.sort(existing, this);
+		}
+	}
+
 	// Compares two VersionSuppliers for descending ordered sorts.
 	// The VersionSuppliers are sorted by the following priorities
 	// First the resolution status of the supplying bundle.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2012 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -653,6 +653,14 @@ public final class BundleDescriptionImpl extends BaseDescriptionImpl implements
 		if (reader == null)
 			throw new IllegalStateException("No valid reader for the bundle description"); //$NON-NLS-1$
 
+		// avoid the state monitor if the lazy data is already loaded; the lazy data
+		// is always set before the fully loaded bit and the returned data is never modified by unload
+		LazyData current = this.lazyData;
+		if (current != null && isFullyLoaded()) {
+			if (!reader.getAccessedFlag())
+				reader.setAccessedFlag(true); // set reader accessed flag
+			return current;
+		}
 		synchronized (currentState.monitor) {
 			if (isFullyLoaded()) {
 				reader.setAccessedFlag(true); // set reader accessed flag
@@ -0,0 +1,676 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.resolver;
+
+import java.io.*;
+import java.security.*;
+import java.util.*;
+import org.eclipse.osgi.framework.debug.Debug;
+import org.eclipse.osgi.internal.baseadaptor.StateManager;
+import org.eclipse.osgi.service.resolver.*;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+
+/**
+ * A content addressed cache of the results of resolving a state from scratch.
+ * <p>
+ * The key of an entry is a digest of the symbolic names, versions and manifest
+ * content of the bundles of the state, the relative order in which the bundles
+ * were installed, the platform properties read by the resolver and the resolver
+ * and its selection policy.  The locations and ids of the bundles are not part of
+ * the key.  Resolutions which involve resolver hooks are never cached.
+ * </p>
+ * <p>
+ * Each entry is stored in a file of its own in the cache directory.  The wiring
+ * refers to bundles by their index in the key order and to capabilities and
+ * requirements by their index in the declaring bundle, so the files can be copied
+ * to any installation with the same bundles.
+ * </p>
+ * <p>
+ * This class is <strong>not</strong> thread safe.  It is only used while holding
+ * the monitor of the state.
+ * </p>
+ */
+public class ResolutionCache {
+	private static final byte VERSION = 2;
+	private static final String SUFFIX = ".resolution"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	// the kinds of references to descriptions and constraints
+	private static final byte NULL = 0;
+	private static final byte BUNDLE = 1;
+	private static final byte EXPORT = 2;
+	private static final byte GENERIC = 3;
+	private static final byte IMPORT = 4;
+	private static final byte REQUIRE = 5;
+	private static final byte HOST = 6;
+	private static final byte GENERIC_REQUIRE = 7;
+	private static final byte NATIVE_CODE = 8;
+
+	// the platform properties read by the resolver in addition to the platform property keys of the state
+	private static final String[] RESOLVER_PROPS = {"osgi.resolver.usesMode", "osgi.usesLimit", "osgi.usesTimeout", "osgi.usesThreads"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+	private final File directory;
+
+	/**
+	 * Creates a resolution cache which stores its entries in the specified directory.
+	 * @param directory the directory of the cache entries
+	 */
+	public ResolutionCache(File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/*
+	 * Returns the key of the resolution of the specified bundles or null if
+	 * the key cannot be computed.
+	 */
+	Key getKey(StateImpl state, BundleDescription[] bundles, Dictionary<Object, Object>[] platformProperties) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+		DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+		BundleDescription[] sorted;
+		try {
+			out.writeByte(VERSION);
+			Resolver resolver = state.getResolver();
+			writeString(resolver.getClass().getName(), out);
+			Comparator<BaseDescription> selectionPolicy = resolver.getSelectionPolicy();
+			writeString(selectionPolicy == null ? null : selectionPolicy.getClass().getName(), out);
+			// only the properties read by the resolver; others such as the start time change on every launch
+			Set<String> keys = new TreeSet<String>(Arrays.asList(state.getPlatformPropertyKeys()));
+			keys.addAll(Arrays.asList(RESOLVER_PROPS));
+			out.writeInt(platformProperties.length);
+			for (int i = 0; i < platformProperties.length; i++) {
+				Map<String, Object> properties = new HashMap<String, Object>(keys.size());
+				for (String propKey : keys) {
+					Object value = platformProperties[i].get(propKey);
+					if (value != null)
+						properties.put(propKey, value);
+				}
+				writeMap(properties, out);
+			}
+			final Map<BundleDescription, byte[]> contents = new IdentityHashMap<BundleDescription, byte[]>(bundles.length);
+			for (int i = 0; i < bundles.length; i++) {
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				DataOutputStream contentOut = new DataOutputStream(content);
+				writeDescription(state, bundles[i], contentOut);
+				contentOut.close();
+				contents.put(bundles[i], content.toByteArray());
+			}
+			sorted = bundles.clone();
+			Arrays.sort(sorted, new Comparator<BundleDescription>() {
+				public int compare(BundleDescription b1, BundleDescription b2) {
+					int result = compareContent(contents.get(b1), contents.get(b2));
+					if (result != 0)
+						return result;
+					long id1 = b1.getBundleId();
+					long id2 = b2.getBundleId();
+					return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+				}
+			});
+			// the selection policy prefers the bundle installed first; only the relative order matters
+			long[] ids = new long[sorted.length];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = sorted[i].getBundleId();
+			Arrays.sort(ids);
+			out.writeInt(sorted.length);
+			for (int i = 0; i < sorted.length; i++) {
+				out.write(contents.get(sorted[i]));
+				out.writeInt(Arrays.binarySearch(ids, sorted[i].getBundleId()));
+			}
+		} catch (IOException e) {
+			// cannot happen; nothing is written
+			return null;
+		}
+		byte[] bytes = digest.digest();
+		StringBuffer result = new StringBuffer(bytes.length * 2);
+		for (int i = 0; i < bytes.length; i++) {
+			result.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+			result.append(Character.forDigit(bytes[i] & 0xF, 16));
+		}
+		return new Key(result.toString(), sorted);
+	}
+
+	/*
+	 * Orders the content of bundles; the order only has to be the same for the same bundles.
+	 */
+	static int compareContent(byte[] content1, byte[] content2) {
+		int length = Math.min(content1.length, content2.length);
+		for (int i = 0; i < length; i++)
+			if (content1[i] != content2[i])
+				return (content1[i] & 0xFF) - (content2[i] & 0xFF);
+		return content1.length - content2.length;
+	}
+
+	private static void writeDescription(StateImpl state, BundleDescription bundle, DataOutputStream out) throws IOException {
+		writeString(bundle.getSymbolicName(), out);
+		writeString(String.valueOf(bundle.getVersion()), out);
+		writeString(bundle.getPlatformFilter(), out);
+		writeStrings(bundle.getExecutionEnvironments(), out);
+		NativeCodeSpecification nativeCode = bundle.getNativeCodeSpecification();
+		if (nativeCode == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeBoolean(nativeCode.isOptional());
+			NativeCodeDescription[] nativeCodeSuppliers = nativeCode.getPossibleSuppliers();
+			out.writeInt(nativeCodeSuppliers.length);
+			for (int i = 0; i < nativeCodeSuppliers.length; i++) {
+				writeString(nativeCodeSuppliers[i].toString(), out);
+				writeString(String.valueOf(nativeCodeSuppliers[i].getFilter()), out);
+			}
+		}
+		DisabledInfo[] disabledInfos = state.getDisabledInfos(bundle);
+		out.writeInt(disabledInfos.length);
+		for (int i = 0; i < disabledInfos.length; i++) {
+			writeString(disabledInfos[i].getPolicyName(), out);
+			writeString(disabledInfos[i].getMessage(), out);
+		}
+		List<BundleCapability> capabilities = bundle.getDeclaredCapabilities(null);
+		out.writeInt(capabilities.size());
+		for (BundleCapability capability : capabilities) {
+			writeString(capability.getNamespace(), out);
+			writeMap(capability.getDirectives(), out);
+			writeMap(capability.getAttributes(), out);
+		}
+		List<BundleRequirement> requirements = bundle.getDeclaredRequirements(null);
+		out.writeInt(requirements.size());
+		for (BundleRequirement requirement : requirements) {
+			writeString(requirement.getNamespace(), out);
+			writeMap(requirement.getDirectives(), out);
+			writeMap(requirement.getAttributes(), out);
+		}
+		// the capabilities do not include the internal directives of the packages
+		ExportPackageDescription[] exports = bundle.getExportPackages();
+		out.writeInt(exports.length);
+		for (int i = 0; i < exports.length; i++)
+			writeMap(exports[i].getDirectives(), out);
+		ImportPackageSpecification[] imports = bundle.getImportPackages();
+		out.writeInt(imports.length);
+		for (int i = 0; i < imports.length; i++)
+			writeMap(imports[i].getDirectives(), out);
+	}
+
+	/*
+	 * Reads the cached resolution of the specified bundles.  Returns null if there is
+	 * no entry for the key or the entry does not match the bundles.
+	 */
+	Entry read(Key key) {
+		File file = new File(directory, key.name + SUFFIX);
+		if (!file.isFile())
+			return null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readByte() != VERSION || !key.name.equals(readString(in)))
+					return null;
+				int count = in.readInt();
+				if (count != key.bundles.length)
+					return null;
+				Map<String, BaseDescription> attached = new HashMap<String, BaseDescription>();
+				Entry result = new Entry();
+				for (int i = 0; i < count; i++)
+					result.resolutions.add(readResolution(key, in, attached));
+				return result;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			if (StateManager.DEBUG_PLATFORM_ADMIN_RESOLVER)
+				Debug.println("Could not read the resolution cache entry " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		} catch (RuntimeException e) {
+			// the entry refers to descriptions of the wrong type
+			if (StateManager.DEBUG_PLATFORM_ADMIN_RESOLVER)
+				Debug.println("Could not read the resolution cache entry " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
+	/*
+	 * Stores the resolution of the specified bundles.  Any error is ignored; the
+	 * resolution is simply not cached.
+	 */
+	void store(StateImpl state, Key key) {
+		File file = new File(directory, key.name + SUFFIX);
+		File tempFile = new File(directory, key.name + TEMP_SUFFIX);
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create " + directory); //$NON-NLS-1$
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeByte(VERSION);
+				writeString(key.name, out);
+				out.writeInt(key.bundles.length);
+				for (int i = 0; i < key.bundles.length; i++)
+					writeResolution(state, key, (BundleDescriptionImpl) key.bundles[i], out);
+			} finally {
+				out.close();
+			}
+			// another process may have stored the same entry
+			if (!tempFile.renameTo(file) && !file.isFile())
+				throw new IOException("Could not rename " + tempFile); //$NON-NLS-1$
+		} catch (IOException e) {
+			if (StateManager.DEBUG_PLATFORM_ADMIN_RESOLVER)
+				Debug.println("Could not store the resolution cache entry " + file + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private static void writeResolution(StateImpl state, Key key, BundleDescriptionImpl bundle, DataOutputStream out) throws IOException {
+		out.writeInt(key.indexOf(bundle));
+		out.writeBoolean(bundle.isResolved());
+		// the resolver only passes the wiring of resolved bundles to the state unless in development mode
+		Map<String, List<StateWire>> wires = bundle.getWiresInternal();
+		out.writeBoolean(wires != null);
+		if (wires != null) {
+			HostSpecification hostSpec = bundle.getHost();
+			writeReferences(key, hostSpec == null ? null : hostSpec.getHosts(), out);
+			writeReferences(key, bundle.getSelectedExports(), out);
+			writeReferences(key, bundle.getSubstitutedExports(), out);
+			writeReferences(key, bundle.getSelectedGenericCapabilities(), out);
+			writeReferences(key, bundle.getResolvedRequires(), out);
+			writeReferences(key, bundle.getResolvedImports(), out);
+			writeReferences(key, bundle.getResolvedGenericRequires(), out);
+			out.writeInt(wires.size());
+			for (Map.Entry<String, List<StateWire>> namespace : wires.entrySet()) {
+				writeString(namespace.getKey(), out);
+				List<StateWire> namespaceWires = namespace.getValue();
+				out.writeInt(namespaceWires.size());
+				for (StateWire wire : namespaceWires) {
+					writeReference(key, wire.getRequirementHost(), out);
+					writeConstraint(key, wire.getDeclaredRequirement(), out);
+					writeReference(key, wire.getCapabilityHost(), out);
+					writeReference(key, wire.getDeclaredCapability(), out);
+				}
+			}
+		}
+		ImportPackageSpecification[] imports = bundle.getImportPackages();
+		out.writeInt(imports.length);
+		for (int i = 0; i < imports.length; i++)
+			writeReference(key, imports[i].getSupplier(), out);
+		BundleSpecification[] requires = bundle.getRequiredBundles();
+		out.writeInt(requires.length);
+		for (int i = 0; i < requires.length; i++)
+			writeReference(key, requires[i].getSupplier(), out);
+		GenericSpecification[] genericRequires = bundle.getGenericRequires();
+		out.writeInt(genericRequires.length);
+		for (int i = 0; i < genericRequires.length; i++)
+			writeReferences(key, genericRequires[i].getSuppliers(), out);
+		NativeCodeSpecification nativeCode = bundle.getNativeCodeSpecification();
+		if (nativeCode != null)
+			out.writeInt(indexOf(nativeCode.getPossibleSuppliers(), nativeCode.getSupplier()));
+		ResolverError[] errors = state.getResolverErrors(bundle);
+		out.writeInt(errors.length);
+		for (int i = 0; i < errors.length; i++) {
+			out.writeInt(errors[i].getType());
+			writeString(errors[i].getData(), out);
+			writeConstraint(key, errors[i].getUnsatisfiedConstraint(), out);
+		}
+	}
+
+	private static Resolution readResolution(Key key, DataInputStream in, Map<String, BaseDescription> attached) throws IOException {
+		Resolution result = new Resolution(getBundle(key, in.readInt()));
+		BundleDescription bundle = result.bundle;
+		result.resolved = in.readBoolean();
+		if (in.readBoolean()) {
+			result.hosts = readReferences(key, in, attached, new BundleDescription[0]);
+			result.selectedExports = readReferences(key, in, attached, new ExportPackageDescription[0]);
+			result.substitutedExports = readReferences(key, in, attached, new ExportPackageDescription[0]);
+			result.selectedCapabilities = readReferences(key, in, attached, new GenericDescription[0]);
+			result.resolvedRequires = readReferences(key, in, attached, new BundleDescription[0]);
+			result.resolvedImports = readReferences(key, in, attached, new ExportPackageDescription[0]);
+			result.resolvedCapabilities = readReferences(key, in, attached, new GenericDescription[0]);
+			int namespaces = in.readInt();
+			result.wires = new HashMap<String, List<StateWire>>(namespaces);
+			for (int i = 0; i < namespaces; i++) {
+				String namespace = readString(in);
+				int count = in.readInt();
+				List<StateWire> namespaceWires = new ArrayList<StateWire>(count);
+				for (int j = 0; j < count; j++) {
+					BundleDescription requirementHost = (BundleDescription) readReference(key, in, attached);
+					VersionConstraint declaredRequirement = readConstraint(key, in);
+					BundleDescription capabilityHost = (BundleDescription) readReference(key, in, attached);
+					BaseDescription declaredCapability = readReference(key, in, attached);
+					namespaceWires.add(new StateWire(requirementHost, declaredRequirement, capabilityHost, declaredCapability));
+				}
+				result.wires.put(namespace, namespaceWires);
+			}
+		}
+		if (in.readInt() != bundle.getImportPackages().length)
+			throw new IOException("Wrong number of imports: " + bundle); //$NON-NLS-1$
+		result.importSuppliers = new BaseDescription[bundle.getImportPackages().length];
+		for (int i = 0; i < result.importSuppliers.length; i++)
+			result.importSuppliers[i] = readReference(key, in, attached);
+		if (in.readInt() != bundle.getRequiredBundles().length)
+			throw new IOException("Wrong number of requires: " + bundle); //$NON-NLS-1$
+		result.requireSuppliers = new BaseDescription[bundle.getRequiredBundles().length];
+		for (int i = 0; i < result.requireSuppliers.length; i++)
+			result.requireSuppliers[i] = readReference(key, in, attached);
+		if (in.readInt() != bundle.getGenericRequires().length)
+			throw new IOException("Wrong number of generic requires: " + bundle); //$NON-NLS-1$
+		result.genericSuppliers = new GenericDescription[bundle.getGenericRequires().length][];
+		for (int i = 0; i < result.genericSuppliers.length; i++)
+			result.genericSuppliers[i] = readReferences(key, in, attached, new GenericDescription[0]);
+		NativeCodeSpecification nativeCode = bundle.getNativeCodeSpecification();
+		if (nativeCode != null) {
+			int index = in.readInt();
+			NativeCodeDescription[] nativeCodeSuppliers = nativeCode.getPossibleSuppliers();
+			if (index >= nativeCodeSuppliers.length)
+				throw new IOException("Wrong native code: " + bundle); //$NON-NLS-1$
+			result.nativeCodeSupplier = index < 0 ? null : nativeCodeSuppliers[index];
+		}
+		int errors = in.readInt();
+		result.errors = new ResolverError[errors];
+		for (int i = 0; i < errors; i++)
+			result.errors[i] = new ResolverErrorImpl((BundleDescriptionImpl) bundle, in.readInt(), readString(in), readConstraint(key, in));
+		return result;
+	}
+
+	private static void writeReferences(Key key, BaseDescription[] descriptions, DataOutputStream out) throws IOException {
+		if (descriptions == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(descriptions.length);
+		for (int i = 0; i < descriptions.length; i++)
+			writeReference(key, descriptions[i], out);
+	}
+
+	private static void writeReference(Key key, BaseDescription description, DataOutputStream out) throws IOException {
+		if (description == null) {
+			out.writeByte(NULL);
+		} else if (description instanceof BundleDescription) {
+			out.writeByte(BUNDLE);
+			out.writeInt(key.indexOf((BundleDescription) description));
+		} else if (description instanceof ExportPackageDescription || description instanceof GenericDescription) {
+			boolean export = description instanceof ExportPackageDescription;
+			out.writeByte(export ? EXPORT : GENERIC);
+			out.writeInt(key.indexOf(description.getSupplier()));
+			// the capabilities of a fragment are attached to its host with a description of their own
+			BaseDescription declaration = ((BaseDescriptionImpl) description).getFragmentDeclaration();
+			if (declaration == null)
+				declaration = description;
+			BundleDescription declaringBundle = declaration.getSupplier();
+			int index = indexOf(export ? (BaseDescription[]) declaringBundle.getExportPackages() : declaringBundle.getGenericCapabilities(), declaration);
+			if (index < 0)
+				throw new IOException("Undeclared capability: " + description); //$NON-NLS-1$
+			out.writeInt(key.indexOf(declaringBundle));
+			out.writeInt(index);
+		} else {
+			throw new IOException("Unknown description: " + description); //$NON-NLS-1$
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] readReferences(Key key, DataInputStream in, Map<String, BaseDescription> attached, T[] empty) throws IOException {
+		int count = in.readInt();
+		if (count < 0)
+			return null;
+		List<T> result = new ArrayList<T>(count);
+		for (int i = 0; i < count; i++)
+			result.add((T) readReference(key, in, attached));
+		return result.toArray(empty);
+	}
+
+	private static BaseDescription readReference(Key key, DataInputStream in, Map<String, BaseDescription> attached) throws IOException {
+		byte kind = in.readByte();
+		switch (kind) {
+			case NULL :
+				return null;
+			case BUNDLE :
+				return getBundle(key, in.readInt());
+			case EXPORT :
+			case GENERIC :
+				BundleDescription host = getBundle(key, in.readInt());
+				BundleDescription declaringBundle = getBundle(key, in.readInt());
+				int index = in.readInt();
+				BaseDescription[] declared = kind == EXPORT ? (BaseDescription[]) declaringBundle.getExportPackages() : declaringBundle.getGenericCapabilities();
+				if (index < 0 || index >= declared.length)
+					throw new IOException("Unknown capability " + index + " of " + declaringBundle); //$NON-NLS-1$ //$NON-NLS-2$
+				if (host == declaringBundle)
+					return declared[index];
+				// all references to an attached capability must share its description
+				String attachedKey = kind + "/" + host.getBundleId() + "/" + declaringBundle.getBundleId() + "/" + index; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				BaseDescription result = attached.get(attachedKey);
+				if (result == null) {
+					result = kind == EXPORT ? (BaseDescription) new ExportPackageDescriptionImpl(host, (ExportPackageDescription) declared[index]) : new GenericDescriptionImpl(host, (GenericDescription) declared[index]);
+					attached.put(attachedKey, result);
+				}
+				return result;
+			default :
+				throw new IOException("Unknown reference kind: " + kind); //$NON-NLS-1$
+		}
+	}
+
+	private static void writeConstraint(Key key, VersionConstraint constraint, DataOutputStream out) throws IOException {
+		if (constraint == null) {
+			out.writeByte(NULL);
+			return;
+		}
+		BundleDescription bundle = constraint.getBundle();
+		int index = 0;
+		if (constraint instanceof ImportPackageSpecification) {
+			out.writeByte(IMPORT);
+			index = indexOf(bundle.getImportPackages(), constraint);
+		} else if (constraint instanceof BundleSpecification) {
+			out.writeByte(REQUIRE);
+			index = indexOf(bundle.getRequiredBundles(), constraint);
+		} else if (constraint instanceof HostSpecification) {
+			out.writeByte(HOST);
+		} else if (constraint instanceof GenericSpecification) {
+			out.writeByte(GENERIC_REQUIRE);
+			index = indexOf(bundle.getGenericRequires(), constraint);
+		} else if (constraint instanceof NativeCodeSpecification) {
+			out.writeByte(NATIVE_CODE);
+		} else {
+			throw new IOException("Unknown constraint: " + constraint); //$NON-NLS-1$
+		}
+		if (index < 0)
+			throw new IOException("Undeclared constraint: " + constraint); //$NON-NLS-1$
+		out.writeInt(key.indexOf(bundle));
+		out.writeInt(index);
+	}
+
+	private static VersionConstraint readConstraint(Key key, DataInputStream in) throws IOException {
+		byte kind = in.readByte();
+		if (kind == NULL)
+			return null;
+		BundleDescription bundle = getBundle(key, in.readInt());
+		int index = in.readInt();
+		VersionConstraint[] declared;
+		switch (kind) {
+			case IMPORT :
+				declared = bundle.getImportPackages();
+				break;
+			case REQUIRE :
+				declared = bundle.getRequiredBundles();
+				break;
+			case HOST :
+				declared = new VersionConstraint[] {bundle.getHost()};
+				break;
+			case GENERIC_REQUIRE :
+				declared = bundle.getGenericRequires();
+				break;
+			case NATIVE_CODE :
+				declared = new VersionConstraint[] {bundle.getNativeCodeSpecification()};
+				break;
+			default :
+				throw new IOException("Unknown constraint kind: " + kind); //$NON-NLS-1$
+		}
+		if (index < 0 || index >= declared.length || declared[index] == null)
+			throw new IOException("Unknown constraint " + index + " of " + bundle); //$NON-NLS-1$ //$NON-NLS-2$
+		return declared[index];
+	}
+
+	private static BundleDescription getBundle(Key key, int index) throws IOException {
+		if (index < 0 || index >= key.bundles.length)
+			throw new IOException("Unknown bundle: " + index); //$NON-NLS-1$
+		return key.bundles[index];
+	}
+
+	private static int indexOf(Object[] array, Object element) {
+		for (int i = 0; i < array.length; i++)
+			if (array[i] == element)
+				return i;
+		return -1;
+	}
+
+	private static void writeMap(Map<String, ?> map, DataOutputStream out) throws IOException {
+		if (map == null) {
+			out.writeInt(-1);
+			return;
+		}
+		// sort the keys so the order of the map does not change the key
+		Map<String, Object> sorted = new TreeMap<String, Object>(map);
+		out.writeInt(sorted.size());
+		for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+			writeString(entry.getKey(), out);
+			Object value = entry.getValue();
+			writeString(value == null ? null : value.getClass().getName(), out);
+			writeString(value instanceof Object[] ? Arrays.asList((Object[]) value).toString() : String.valueOf(value), out);
+		}
+	}
+
+	private static void writeStrings(String[] strings, DataOutputStream out) throws IOException {
+		out.writeInt(strings.length);
+		for (int i = 0; i < strings.length; i++)
+			writeString(strings[i], out);
+	}
+
+	// writeUTF is limited to 64K bytes
+	private static void writeString(String string, DataOutputStream out) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(string.length());
+		out.writeChars(string);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = in.readChar();
+		return new String(chars);
+	}
+
+	/**
+	 * The key of the resolution of the bundles of a state.  The bundles are in the
+	 * order they are referred to by the entry of the key.
+	 */
+	static class Key {
+		final String name;
+		final BundleDescription[] bundles;
+		private Map<BundleDescription, Integer> indexes;
+
+		Key(String name, BundleDescription[] bundles) {
+			this.name = name;
+			this.bundles = bundles;
+		}
+
+		int indexOf(BundleDescription bundle) throws IOException {
+			if (indexes == null) {
+				indexes = new IdentityHashMap<BundleDescription, Integer>(bundles.length);
+				for (int i = 0; i < bundles.length; i++)
+					indexes.put(bundles[i], new Integer(i));
+			}
+			Integer index = indexes.get(bundle);
+			if (index == null)
+				throw new IOException("Unknown bundle: " + bundle); //$NON-NLS-1$
+			return index.intValue();
+		}
+
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A cached resolution of a state which has been read and is ready to be applied.
+	 */
+	static class Entry {
+		final List<Resolution> resolutions = new ArrayList<Resolution>();
+
+		/*
+		 * Applies the wiring of all the bundles to the state.  The state must be resolving.
+		 */
+		void apply(StateImpl state) {
+			for (Resolution resolution : resolutions)
+				resolution.apply(state);
+		}
+	}
+
+	private static class Resolution {
+		final BundleDescription bundle;
+		boolean resolved;
+		BundleDescription[] hosts;
+		ExportPackageDescription[] selectedExports;
+		ExportPackageDescription[] substitutedExports;
+		GenericDescription[] selectedCapabilities;
+		BundleDescription[] resolvedRequires;
+		ExportPackageDescription[] resolvedImports;
+		GenericDescription[] resolvedCapabilities;
+		Map<String, List<StateWire>> wires;
+		BaseDescription[] importSuppliers;
+		BaseDescription[] requireSuppliers;
+		GenericDescription[][] genericSuppliers;
+		NativeCodeDescription nativeCodeSupplier;
+		ResolverError[] errors;
+
+		Resolution(BundleDescription bundle) {
+			this.bundle = bundle;
+		}
+
+		void apply(StateImpl state) {
+			ImportPackageSpecification[] imports = bundle.getImportPackages();
+			for (int i = 0; i < imports.length; i++)
+				state.resolveConstraint(imports[i], importSuppliers[i]);
+			BundleSpecification[] requires = bundle.getRequiredBundles();
+			for (int i = 0; i < requires.length; i++)
+				state.resolveConstraint(requires[i], requireSuppliers[i]);
+			GenericSpecification[] genericRequires = bundle.getGenericRequires();
+			for (int i = 0; i < genericRequires.length; i++)
+				((GenericSpecificationImpl) genericRequires[i]).setSupplers(genericSuppliers[i]);
+			NativeCodeSpecification nativeCode = bundle.getNativeCodeSpecification();
+			if (nativeCode != null)
+				state.resolveConstraint(nativeCode, nativeCodeSupplier);
+			if (wires != null)
+				state.resolveBundle(bundle, resolved, hosts, selectedExports, substitutedExports, selectedCapabilities, resolvedRequires, resolvedImports, resolvedCapabilities, wires);
+			for (int i = 0; i < errors.length; i++)
+				state.addResolverError(bundle, errors[i].getType(), errors[i].getData(), errors[i].getUnsatisfiedConstraint());
+		}
+	}
+
+	private static class NullOutputStream extends OutputStream {
+		NullOutputStream() {
+			super();
+		}
+
+		public void write(int b) {
+			// nothing
+		}
+
+		public void write(byte[] b, int off, int len) {
+			// nothing
+		}
+	}
+}
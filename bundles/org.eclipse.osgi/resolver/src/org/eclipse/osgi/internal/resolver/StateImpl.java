@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2012 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -59,6 +59,7 @@ public abstract class StateImpl implements State {
 	private final Set<String> platformPropertyKeys = new HashSet<String>(PROPS.length);
 	private ResolverHookFactory hookFactory;
 	private ResolverHook hook;
+	private ResolutionCache resolutionCache;
 	private boolean developmentMode = false;
 
 	private static long cumulativeTime;
@@ -471,14 +472,31 @@ public abstract class StateImpl implements State {
 				}
 
 				ResolverHookFactory currentFactory = hookFactory;
+				ResolverHook currentHook = null;
 				if (currentFactory != null) {
 					@SuppressWarnings("unchecked")
 					Collection<BundleRevision> triggerRevisions = Collections.unmodifiableCollection(triggers == null ? Collections.EMPTY_LIST : Arrays.asList((BundleRevision[]) triggers));
-					begin(triggerRevisions);
+					currentHook = begin(triggerRevisions);
 				}
+				// only a resolution which starts from scratch without resolver hooks can be found in the resolution cache
+				ResolutionCache.Key cacheKey = null;
+				if (resolutionCache != null && currentHook == null && resolvedBundles.isEmpty() && removalPendings.isEmpty())
+					cacheKey = resolutionCache.getKey(this, getBundles(), platformProperties);
 				ResolverHookException error = null;
 				try {
-					resolver.resolve(reResolve, tmpPlatformProperties);
+					ResolutionCache.Entry cached = cacheKey == null ? null : resolutionCache.read(cacheKey);
+					if (cached != null) {
+						if (StateManager.DEBUG_PLATFORM_ADMIN_RESOLVER)
+							Debug.println("Using cached resolution: " + cacheKey); //$NON-NLS-1$
+						resolverErrors.clear();
+						cached.apply(this);
+						// the resolver must reinitialize from the new wiring
+						resolver.flush();
+					} else {
+						resolver.resolve(reResolve, tmpPlatformProperties);
+						if (cacheKey != null)
+							resolutionCache.store(this, cacheKey);
+					}
 				} catch (ResolverHookException e) {
 					error = e;
 					resolverErrors.clear();
@@ -570,6 +588,17 @@ public abstract class StateImpl implements State {
 		}
 	}
 
+	/**
+	 * Sets the cache used to look up the resolution of this state when it is
+	 * resolved from scratch.
+	 * @param resolutionCache the resolution cache or <code>null</code> to disable the cache
+	 */
+	public void setResolutionCache(ResolutionCache resolutionCache) {
+		synchronized (this.monitor) {
+			this.resolutionCache = resolutionCache;
+		}
+	}
+
 	private ResolverHook begin(Collection<BundleRevision> triggers) {
 		ResolverHookFactory current;
 		synchronized (this.monitor) {
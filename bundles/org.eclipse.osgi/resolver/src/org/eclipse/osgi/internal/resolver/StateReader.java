@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2012 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,9 +13,12 @@ package org.eclipse.osgi.internal.resolver;
 
 import java.io.*;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.AccessController;
 import java.util.*;
 import java.util.Map.Entry;
+import org.eclipse.osgi.framework.util.MappedBufferUtil;
 import org.eclipse.osgi.framework.util.ObjectPool;
 import org.eclipse.osgi.framework.util.SecureAction;
 import org.eclipse.osgi.service.resolver.*;
@@ -34,6 +37,8 @@ final class StateReader {
 	private static final int BUFFER_SIZE_LAZY = 4096;
 	private static final int BUFFER_SIZE_FULLYREAD = 16384;
 	private static final SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
+	// set to true to read lazy data from a memory mapping of the lazy file instead of skipping through it
+	private static final String PROP_MAPPED_LAZY_LOADING = "osgi.mappedLazyStateLoading"; //$NON-NLS-1$
 
 	// objectTable will be a hashmap of objects. The objects will be things
 	// like BundleDescription, ExportPackageDescription, Version etc.. The integer
@@ -43,8 +48,13 @@ final class StateReader {
 
 	private volatile File stateFile;
 	private volatile File lazyFile;
+	// the memory mapped content of the lazy file; the lazy file never changes while the reader is in use.
+	// The buffer and the count of bundles read from it are guarded by the state monitor.
+	private ByteBuffer lazyBuffer;
+	private int numMappedLoaded;
 
 	private volatile boolean lazyLoad = true;
+	private final boolean mappedLazyLoading = "true".equals(secureAction.getProperty(PROP_MAPPED_LAZY_LOADING)); //$NON-NLS-1$
 	private volatile int numBundles;
 	private volatile boolean accessedFlag = false;
 
@@ -774,10 +784,51 @@ final class StateReader {
 
 	private DataInputStream openLazyFile() throws IOException {
 		if (lazyFile == null)
-			throw new IOException(); // TODO error message here!
+			throw new IOException("No lazy state file to read the bundle data from"); //$NON-NLS-1$
 		return new DataInputStream(new BufferedInputStream(secureAction.getFileInputStream(lazyFile), BUFFER_SIZE_LAZY));
 	}
 
+	private ByteBuffer getLazyBuffer() throws IOException {
+		if (lazyBuffer == null) {
+			if (lazyFile == null)
+				throw new IOException("No lazy state file to map the bundle data from"); //$NON-NLS-1$
+			FileInputStream in = secureAction.getFileInputStream(lazyFile);
+			try {
+				FileChannel channel = in.getChannel();
+				// the mapping remains valid after the channel is closed
+				lazyBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				in.close();
+			}
+		}
+		return lazyBuffer;
+	}
+
+	/*
+	 * Releases the mapping of the lazy file.  The lazy file is mapped again if lazy data
+	 * is read after it has been unloaded.
+	 */
+	private void releaseLazyBuffer() {
+		ByteBuffer current = lazyBuffer;
+		lazyBuffer = null;
+		numMappedLoaded = 0;
+		if (current != null)
+			MappedBufferUtil.unmap(current);
+	}
+
+
+	/*
+	 * Returns a stream over the lazy data of a single bundle description using one positioned
+	 * read from the mapped lazy file.
+	 */
+	private DataInputStream openLazyData(BundleDescriptionImpl bundle) throws IOException {
+		ByteBuffer data = getLazyBuffer().duplicate();
+		data.position(bundle.getLazyDataOffset());
+		byte[] bytes = new byte[bundle.getLazyDataSize()];
+		data.get(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
 	boolean isLazyLoaded() {
 		return lazyLoad;
 	}
@@ -800,6 +851,8 @@ final class StateReader {
 		} catch (IOException ioe) {
 			throw new RuntimeException(ioe.getMessage(), ioe); // TODO need error message here
 		} finally {
+			// all the lazy data is loaded
+			releaseLazyBuffer();
 			if (in != null)
 				try {
 					in.close();
@@ -811,6 +864,20 @@ final class StateReader {
 
 	void fullyLoad(BundleDescriptionImpl target) throws IOException {
 		setAccessedFlag(true);
+		if (mappedLazyLoading) {
+			// get the set of bundles that must be loaded according to dependencies
+			List<BundleDescriptionImpl> toLoad = new ArrayList<BundleDescriptionImpl>();
+			addDependencies(target, toLoad);
+			// read the lazy data of each bundle directly at its offset; the list is still
+			// processed in offset order because the lazy data may reference objects read before it
+			for (Iterator<BundleDescriptionImpl> iLoad = toLoad.iterator(); iLoad.hasNext();)
+				readBundleDescriptionLazyData(openLazyData(iLoad.next()), 0);
+			// the mapping is no longer needed once the lazy data of all bundles is loaded
+			numMappedLoaded += toLoad.size();
+			if (numMappedLoaded >= numBundles)
+				releaseLazyBuffer();
+			return;
+		}
 		DataInputStream in = null;
 		try {
 			in = openLazyFile();
@@ -863,6 +930,7 @@ final class StateReader {
 	}
 
 	void flushLazyObjectCache() {
+		releaseLazyBuffer();
 		for (Iterator<Entry<Integer, Object>> entries = objectTable.entrySet().iterator(); entries.hasNext();) {
 			Map.Entry<Integer, Object> entry = entries.next();
 			Object value = entry.getValue();
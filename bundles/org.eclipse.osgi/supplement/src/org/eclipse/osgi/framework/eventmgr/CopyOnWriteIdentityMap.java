@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -241,6 +241,34 @@ public class CopyOnWriteIdentityMap<K, V> implements Map<K, V> {
 		return entries;
 	}
 
+	/**
+	 * Returns the entries of this map for iteration by index.  This is used
+	 * by the event manager to iterate the map without allocating an iterator.
+	 * @return The array of entries. Callers to this method MUST NOT
+	 * modify the returned array.
+	 */
+	Map.Entry<K, V>[] entryArray() {
+		return entries();
+	}
+
+	/**
+	 * Returns the entries of an entry set snapshot returned by {@link #entrySet()}
+	 * for iteration by index.  The array reflects the entries removed from the
+	 * snapshot before this method is called.
+	 * @param entrySet A set of entries.
+	 * @return The array of entries of the snapshot or <code>null</code> if the set
+	 * was not returned by {@link #entrySet()}.  Callers to this method MUST NOT
+	 * modify the returned array.
+	 */
+	static <K, V> Map.Entry<K, V>[] entryArray(Set<Map.Entry<K, V>> entrySet) {
+		if (entrySet instanceof Snapshot.EntrySet) {
+			@SuppressWarnings("unchecked")
+			Snapshot<K, V>.EntrySet snapshot = (Snapshot<K, V>.EntrySet) entrySet;
+			return snapshot.entryArray();
+		}
+		return null;
+	}
+
 	/**
 	 * Return the static empty array generically type safe.
 	 * @return The empty array of entries.
@@ -468,6 +496,10 @@ public class CopyOnWriteIdentityMap<K, V> implements Map<K, V> {
 				return new EntryIterator();
 			}
 
+			Map.Entry<K, V>[] entryArray() {
+				return entries();
+			}
+
 			public int size() {
 				return entries().length;
 			}
@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.framework.eventmgr;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This package private class is used for asynchronously dispatching events
+ * on a bounded pool of threads.
+ * <p>
+ * Each listener is assigned a lane.  The events queued for a listener are
+ * dispatched by its lane one at a time in the order they were posted, while
+ * the lanes of different listeners are run in parallel by the pool.  A lane
+ * only exists while it has events queued or is dispatching an event.
+ * </p>
+ */
+final class EventDispatchPool {
+	/** the maximum number of events a lane dispatches before yielding its pool thread */
+	private static final int MAX_BATCH = 32;
+
+	/**
+	 * The lanes keyed by listener identity.  Access to this map must be
+	 * protected by synchronizing on this map.
+	 */
+	private final Map<Object, Lane> lanes = new IdentityHashMap<Object, Lane>();
+	/** once closed, posting an event results in an IllegalStateException; only set while holding the lanes lock */
+	private volatile boolean closed;
+	private final ExecutorService executor;
+
+	/**
+	 * Constructor for the dispatch pool.
+	 * @param threadGroup the thread group of the pool threads; may be <code>null</code>
+	 * @param threadName the name prefix of the pool threads; may be <code>null</code>
+	 * @param threads the maximum number of pool threads
+	 */
+	EventDispatchPool(ThreadGroup threadGroup, String threadName, int threads) {
+		executor = Executors.newFixedThreadPool(threads, new DispatchThreadFactory(threadGroup, threadName));
+	}
+
+	/**
+	 * Queues an event for each listener in the listener lists.  The event is
+	 * queued for all the listeners atomically so events posted concurrently
+	 * are received by all listeners in the same order.
+	 *
+	 * @param listeners the listener lists and their dispatchers
+	 * @param a Action for this event
+	 * @param o Object for this event
+	 * @throws IllegalStateException if this pool is closed
+	 */
+	<K, V, E> void postEvent(Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>>[] listeners, int a, E o) {
+		long posted = System.nanoTime();
+		List<Lane> started = null;
+		synchronized (lanes) {
+			if (closed) {
+				throw new IllegalStateException();
+			}
+			for (int i = 0; i < listeners.length; i++) {
+				@SuppressWarnings("unchecked")
+				EventDispatcher<Object, Object, Object> dispatcher = (EventDispatcher<Object, Object, Object>) listeners[i].getValue();
+				for (Map.Entry<K, V> listener : listeners[i].getKey()) {
+					Object eventListener = listener.getKey();
+					Lane lane = lanes.get(eventListener);
+					if (lane == null) {
+						lane = new Lane(eventListener);
+						lanes.put(eventListener, lane);
+						if (started == null)
+							started = new ArrayList<Lane>();
+						started.add(lane);
+					}
+					lane.offer(new Queued(listener.getValue(), dispatcher, a, o, posted));
+				}
+			}
+		}
+		if (started != null) {
+			for (Lane lane : started) {
+				schedule(lane);
+			}
+		}
+	}
+
+	private void schedule(Lane lane) {
+		try {
+			executor.execute(lane);
+		} catch (RejectedExecutionException e) {
+			// the pool was closed; the remaining events of the lane are discarded
+		}
+	}
+
+	/**
+	 * Returns the statistics of the listeners which have events queued or
+	 * are being dispatched an event.
+	 * @return the statistics of the active listeners
+	 */
+	ListenerStatistics[] getListenerStatistics() {
+		synchronized (lanes) {
+			ListenerStatistics[] result = new ListenerStatistics[lanes.size()];
+			int i = 0;
+			for (Lane lane : lanes.values()) {
+				result[i++] = lane.getStatistics();
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Stops the pool threads.  Events which have not been dispatched are discarded.
+	 */
+	void close() {
+		synchronized (lanes) {
+			closed = true;
+			lanes.clear();
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Removes an idle lane.  The lane is only removed if no event was queued
+	 * since it found its queue empty; otherwise it must continue dispatching.
+	 * @return true if the lane was removed
+	 */
+	private boolean remove(Lane lane) {
+		synchronized (lanes) {
+			if (!lane.isEmpty()) {
+				return false;
+			}
+			if (lanes.get(lane.listener) == lane) {
+				lanes.remove(lane.listener);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * An event queued for a listener.
+	 */
+	private static final class Queued {
+		/** companion object of the listener */
+		final Object listenerObject;
+		/** dispatcher of this event */
+		final EventDispatcher<Object, Object, Object> dispatcher;
+		/** action for this event */
+		final int action;
+		/** object for this event */
+		final Object object;
+		/** the time in nanoseconds this event was queued */
+		final long posted;
+
+		Queued(Object l, EventDispatcher<Object, Object, Object> d, int a, Object o, long p) {
+			listenerObject = l;
+			dispatcher = d;
+			action = a;
+			object = o;
+			posted = p;
+		}
+	}
+
+	/**
+	 * The serial lane of a listener.  At most one pool thread runs a lane at a time.
+	 */
+	private final class Lane implements Runnable {
+		final Object listener;
+		private final Queue<Queued> queue = new ConcurrentLinkedQueue<Queued>();
+		/** the number of queued events; avoids the linear size method of the queue */
+		private final AtomicInteger depth = new AtomicInteger();
+		/* the statistics are only updated by the thread running the lane */
+		private volatile long dispatched;
+		private volatile long totalLatency;
+		private volatile long maxLatency;
+
+		Lane(Object listener) {
+			this.listener = listener;
+		}
+
+		void offer(Queued item) {
+			queue.offer(item);
+			depth.incrementAndGet();
+		}
+
+		boolean isEmpty() {
+			return queue.isEmpty();
+		}
+
+		ListenerStatistics getStatistics() {
+			return new ListenerStatistics(listener, depth.get(), dispatched, totalLatency, maxLatency);
+		}
+
+		public void run() {
+			for (int count = 0; count < MAX_BATCH; count++) {
+				Queued item = queue.poll();
+				if (item == null) {
+					if (remove(this)) {
+						return;
+					}
+					continue;
+				}
+				depth.decrementAndGet();
+				if (closed) {
+					return;
+				}
+				long latency = System.nanoTime() - item.posted;
+				totalLatency += latency;
+				if (latency > maxLatency) {
+					maxLatency = latency;
+				}
+				dispatched++;
+				try {
+					/* Call the EventDispatcher to complete the delivery of the event. */
+					item.dispatcher.dispatchEvent(listener, item.listenerObject, item.action, item.object);
+				} catch (Throwable t) {
+					/* Consume and ignore any exceptions thrown by the listener */
+					if (EventManager.DEBUG) {
+						System.out.println("Exception in " + listener); //$NON-NLS-1$
+						t.printStackTrace();
+					}
+				}
+			}
+			// yield the pool thread to the other lanes; this lane stays registered so no other lane is created for the listener
+			schedule(this);
+		}
+	}
+
+	/**
+	 * Creates the daemon pool threads in the thread group of the event manager.
+	 */
+	private static final class DispatchThreadFactory implements ThreadFactory {
+		private final ThreadGroup threadGroup;
+		private final String threadName;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DispatchThreadFactory(ThreadGroup threadGroup, String threadName) {
+			this.threadGroup = threadGroup;
+			this.threadName = threadName == null ? "EventManagerThread" : threadName; //$NON-NLS-1$
+		}
+
+		public Thread newThread(final Runnable r) {
+			return AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+				public Thread run() {
+					Thread t = new Thread(threadGroup, r, threadName + "-" + count.incrementAndGet()); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -94,6 +94,13 @@ import java.util.Set;
  * 
  * <p> The highly dynamic nature of the OSGi framework had necessitated these features for 
  * proper and efficient event delivery.  
+ * 
+ * <p> By default asynchronous events are delivered to all listeners on a single
+ * event dispatch thread, so a slow listener delays the delivery to the other listeners.
+ * An EventManager constructed with more than one dispatch thread gives each listener
+ * a serial lane instead.  The lanes are run in parallel on a bounded pool of threads.
+ * Each listener still receives its events one at a time in the order they were
+ * dispatched, but no order is guaranteed between the deliveries to different listeners.
  * @since 3.1
  * @noextend This class is not intended to be subclassed by clients.
  */
@@ -113,6 +120,18 @@ public class EventManager {
 	 */
 	private boolean closed;
 
+	/**
+	 * Pool of lanes for asynchronous dispatch of events when more than one
+	 * dispatch thread is used.
+	 * Access to this field must be protected by a synchronized region.
+	 */
+	private EventDispatchPool pool;
+
+	/**
+	 * The maximum number of threads used for asynchronous event delivery.
+	 */
+	private final int dispatchThreads;
+
 	/**
 	 * Thread name used for asynchronous event delivery
 	 */
@@ -154,10 +173,30 @@ public class EventManager {
 	 * @since 3.4
 	 */
 	public EventManager(String threadName, ThreadGroup threadGroup) {
+		this(threadName, threadGroup, 1);
+	}
+
+	/**
+	 * EventManager constructor. An EventManager object is responsible for
+	 * the delivery of events to listeners via an EventDispatcher.
+	 *
+	 * @param threadName The name to give the event threads associated with
+	 * this EventManager.  A <code>null</code> value is allowed.
+	 * @param threadGroup The thread group to use for the asynchronous event
+	 * threads associated with this EventManager. A <code>null</code> value is allowed.
+	 * @param dispatchThreads The maximum number of threads used to deliver events
+	 * asynchronously.  With a value greater than 1 each listener is given a serial lane
+	 * and the lanes of different listeners are run in parallel.  A value less than 2
+	 * delivers the events to all listeners on a single thread.
+	 * @since 3.9
+	 */
+	public EventManager(String threadName, ThreadGroup threadGroup, int dispatchThreads) {
 		thread = null;
+		pool = null;
 		closed = false;
 		this.threadName = threadName;
 		this.threadGroup = threadGroup;
+		this.dispatchThreads = dispatchThreads;
 	}
 
 	/**
@@ -176,9 +215,50 @@ public class EventManager {
 			thread.close();
 			thread = null;
 		}
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
 		closed = true;
 	}
 
+	/**
+	 * Returns the asynchronous delivery statistics of the listeners which currently
+	 * have events queued or are being delivered an event.  Statistics are only
+	 * kept if this EventManager uses more than one dispatch thread.
+	 *
+	 * @return the statistics of the active listeners; an empty array if this
+	 * EventManager uses a single dispatch thread
+	 * @since 3.9
+	 */
+	public ListenerStatistics[] getListenerStatistics() {
+		EventDispatchPool current;
+		synchronized (this) {
+			current = pool;
+		}
+		return current == null ? new ListenerStatistics[0] : current.getListenerStatistics();
+	}
+
+	/**
+	 * Returns the EventDispatchPool to use for dispatching events asynchronously for
+	 * this EventManager.
+	 *
+	 * @return EventDispatchPool to use for dispatching events asynchronously or 
+	 * <code>null</code> if this EventManager uses a single EventThread.
+	 */
+	synchronized EventDispatchPool getDispatchPool() {
+		if (closed) {
+			throw new IllegalStateException();
+		}
+		if (dispatchThreads < 2) {
+			return null;
+		}
+		if (pool == null) {
+			pool = new EventDispatchPool(threadGroup, threadName, dispatchThreads);
+		}
+		return pool;
+	}
+
 	/**
 	 * Returns the EventThread to use for dispatching events asynchronously for
 	 * this EventManager.
@@ -222,18 +302,42 @@ public class EventManager {
 	 * is passed to this method. This is passed on to the call back object.
 	 */
 	static <K, V, E> void dispatchEvent(Set<Map.Entry<K, V>> listeners, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject) {
+		Map.Entry<K, V>[] entries = CopyOnWriteIdentityMap.entryArray(listeners);
+		if (entries != null) { /* iterate over the snapshot array to avoid allocating an iterator */
+			for (int i = 0; i < entries.length; i++) {
+				dispatchEvent(entries[i], dispatcher, eventAction, eventObject);
+			}
+			return;
+		}
 		for (Map.Entry<K, V> listener : listeners) { /* iterate over the list of listeners */
-			final K eventListener = listener.getKey();
-			final V listenerObject = listener.getValue();
-			try {
-				/* Call the EventDispatcher to complete the delivery of the event. */
-				dispatcher.dispatchEvent(eventListener, listenerObject, eventAction, eventObject);
-			} catch (Throwable t) {
-				/* Consume and ignore any exceptions thrown by the listener */
-				if (DEBUG) {
-					System.out.println("Exception in " + eventListener); //$NON-NLS-1$
-					t.printStackTrace();
-				}
+			dispatchEvent(listener, dispatcher, eventAction, eventObject);
+		}
+	}
+
+	/**
+	 * This method calls the EventDispatcher object to complete the dispatch of
+	 * the event to a single listener.
+	 * This method is package private.
+	 *
+	 * @param listener A Map.Entry from a CopyOnWriteIdentityMap map.
+	 * @param dispatcher Call back object which is called to complete the delivery of
+	 * the event.
+	 * @param eventAction This value was passed by the event source and
+	 * is passed to this method. This is passed on to the call back object.
+	 * @param eventObject This object was created by the event source and
+	 * is passed to this method. This is passed on to the call back object.
+	 */
+	static <K, V, E> void dispatchEvent(Map.Entry<K, V> listener, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject) {
+		final K eventListener = listener.getKey();
+		final V listenerObject = listener.getValue();
+		try {
+			/* Call the EventDispatcher to complete the delivery of the event. */
+			dispatcher.dispatchEvent(eventListener, listenerObject, eventAction, eventObject);
+		} catch (Throwable t) {
+			/* Consume and ignore any exceptions thrown by the listener */
+			if (DEBUG) {
+				System.out.println("Exception in " + eventListener); //$NON-NLS-1$
+				t.printStackTrace();
 			}
 		}
 	}
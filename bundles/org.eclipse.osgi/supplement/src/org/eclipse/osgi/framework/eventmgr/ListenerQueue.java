@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -21,7 +21,8 @@ import org.eclipse.osgi.framework.eventmgr.EventManager.EventThread;
  * events to those listeners. A ListenerQueue object is associated with a
  * specific EventManager object. ListenerQueue objects constructed with the same
  * EventManager object will get in-order delivery of events when
- * using asynchronous delivery. No delivery order is guaranteed for synchronous
+ * using asynchronous delivery. If the EventManager uses more than one dispatch
+ * thread the order is only guaranteed for each listener. No delivery order is guaranteed for synchronous
  * delivery to avoid any potential deadly embraces.
  *
  * <p>ListenerQueue objects are created as necessary to build a list of listeners
@@ -42,7 +43,7 @@ public class ListenerQueue<K, V, E> {
 	/**
 	 * A list of listener lists.
 	 */
-	private final Map<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> queue;
+	private final CopyOnWriteIdentityMap<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> queue;
 
 	/**
 	 * Once the listener queue has been used to dispatch an event, 
@@ -120,10 +121,16 @@ public class ListenerQueue<K, V, E> {
 		synchronized (this) {
 			readOnly = true;
 		}
+		EventDispatchPool pool = manager.getDispatchPool();
+		if (pool != null) {
+			pool.postEvent(queue.entryArray(), eventAction, eventObject);
+			return;
+		}
 		EventThread<K, V, E> eventThread = manager.getEventThread();
+		Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>>[] entries = queue.entryArray();
 		synchronized (eventThread) { /* synchronize on the EventThread to ensure no interleaving of posting to the event thread */
-			for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
-				eventThread.postEvent(entry.getKey(), entry.getValue(), eventAction, eventObject);
+			for (int i = 0; i < entries.length; i++) { /* iterate over the list of listener lists */
+				eventThread.postEvent(entries[i].getKey(), entries[i].getValue(), eventAction, eventObject);
 			}
 		}
 	}
@@ -144,8 +151,9 @@ public class ListenerQueue<K, V, E> {
 		}
 		// We can't guarantee any delivery order for synchronous events.
 		// Attempts to do so result in deadly embraces.
-		for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
-			EventManager.dispatchEvent(entry.getKey(), entry.getValue(), eventAction, eventObject);
+		Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>>[] entries = queue.entryArray();
+		for (int i = 0; i < entries.length; i++) { /* iterate over the list of listener lists */
+			EventManager.dispatchEvent(entries[i].getKey(), entries[i].getValue(), eventAction, eventObject);
 		}
 	}
 }
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.framework.eventmgr;
+
+/**
+ * A snapshot of the asynchronous delivery statistics of a listener
+ * dispatched by an EventManager with a pool of dispatch threads.
+ * @see EventManager#getListenerStatistics()
+ * @since 3.9
+ * @noinstantiate This class is not intended to be instantiated by clients.
+ */
+public final class ListenerStatistics {
+	private final Object listener;
+	private final int queueDepth;
+	private final long dispatched;
+	private final long totalLatency;
+	private final long maxLatency;
+
+	ListenerStatistics(Object listener, int queueDepth, long dispatched, long totalLatency, long maxLatency) {
+		this.listener = listener;
+		this.queueDepth = queueDepth;
+		this.dispatched = dispatched;
+		this.totalLatency = totalLatency;
+		this.maxLatency = maxLatency;
+	}
+
+	/**
+	 * Returns the listener.  This is the key in the Map.Entry for the listener.
+	 * @return the listener
+	 */
+	public Object getListener() {
+		return listener;
+	}
+
+	/**
+	 * Returns the number of events queued for the listener which have not
+	 * been dispatched yet.
+	 * @return the number of events queued for the listener
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * Returns the number of events dispatched to the listener.
+	 * @return the number of events dispatched to the listener
+	 */
+	public long getDispatchedCount() {
+		return dispatched;
+	}
+
+	/**
+	 * Returns the average time in nanoseconds an event dispatched to the
+	 * listener was queued before it was dispatched.
+	 * @return the average latency in nanoseconds or 0 if no events were dispatched
+	 */
+	public long getAverageLatency() {
+		return dispatched == 0 ? 0 : totalLatency / dispatched;
+	}
+
+	/**
+	 * Returns the longest time in nanoseconds an event dispatched to the
+	 * listener was queued before it was dispatched.
+	 * @return the maximum latency in nanoseconds
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	public String toString() {
+		return "ListenerStatistics[listener=" + listener + ", queueDepth=" + queueDepth + ", dispatched=" + dispatched + ", averageLatency=" + getAverageLatency() + ", maxLatency=" + maxLatency + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.framework.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import org.eclipse.osgi.framework.debug.Debug;
+
+/**
+ * Utility class to release the mappings of mapped byte buffers.
+ * @since 3.9
+ */
+public final class MappedBufferUtil {
+
+	private MappedBufferUtil() {
+		// no instances
+	}
+
+	/**
+	 * Releases a mapping without waiting for the buffer to be garbage collected.  The
+	 * buffer must not be accessed after it is unmapped.  There is no public API to do this,
+	 * if the cleaner of the buffer is not available the mapping is released by garbage collection.
+	 * @param buffer the mapped buffer to release
+	 */
+	public static void unmap(final ByteBuffer buffer) {
+		AccessController.doPrivileged(new PrivilegedAction<Object>() {
+			public Object run() {
+				try {
+					// Java 9 and later
+					Class<?> unsafeClass = Class.forName("sun.misc.Unsafe"); //$NON-NLS-1$
+					Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", new Class[] {ByteBuffer.class}); //$NON-NLS-1$
+					Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe"); //$NON-NLS-1$
+					theUnsafe.setAccessible(true);
+					invokeCleaner.invoke(theUnsafe.get(null), new Object[] {buffer});
+					return null;
+				} catch (Exception e) {
+					// try the cleaner of the buffer
+				}
+				try {
+					Method cleanerMethod = buffer.getClass().getMethod("cleaner", new Class[0]); //$NON-NLS-1$
+					cleanerMethod.setAccessible(true);
+					Object cleaner = cleanerMethod.invoke(buffer, new Object[0]);
+					if (cleaner != null) {
+						Method clean = cleaner.getClass().getMethod("clean", new Class[0]); //$NON-NLS-1$
+						clean.setAccessible(true);
+						clean.invoke(cleaner, new Object[0]);
+					}
+				} catch (Exception e) {
+					if (Debug.DEBUG_GENERAL)
+						Debug.println("Unable to unmap buffer: " + e.getMessage()); //$NON-NLS-1$
+				}
+				return null;
+			}
+		});
+	}
+}